@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.bastp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/*
+** Generates synthetic audio files for the benchmarks and tests.
+**
+** Only the parts bastp looks at are real (headers, comments, pictures),
+** the audio payload is zero filled and the image data of pictures is
+** the pattern returned by pictureData(). Run main() to write a corpus
+** into a directory.
+*/
+public class AudioFixtures {
+	public static final String[] FORMATS = { "flac", "ogg", "opus", "mp3" };
+
+	private static final String[][] TAGS = {
+		{ "TITLE", "Title" },
+		{ "ARTIST", "Artist" },
+		{ "ALBUM", "Album" },
+		{ "REPLAYGAIN_TRACK_GAIN", "-6.50 dB" },
+		{ "REPLAYGAIN_ALBUM_GAIN", "-7.25 dB" },
+		{ "REPLAYGAIN_TRACK_PEAK", "0.98" },
+		{ "COMMENT", "synthetic" },
+	};
+
+	/*
+	** Writes a file of given format to 'out', embedding
+	** a picture of 'picture_len' bytes if > 0
+	*/
+	public static void write(File out, String format, int picture_len) throws IOException {
+		byte[] data;
+		if (format.equals("flac")) {
+			data = flac(picture_len);
+		} else if (format.equals("ogg")) {
+			data = ogg(picture_len);
+		} else if (format.equals("opus")) {
+			data = opus(picture_len);
+		} else if (format.equals("mp3")) {
+			data = mp3(picture_len);
+		} else {
+			throw new IllegalArgumentException("unknown format "+format);
+		}
+		FileOutputStream fos = new FileOutputStream(out);
+		try {
+			fos.write(data);
+		} finally {
+			fos.close();
+		}
+	}
+
+	public static byte[] flac(int picture_len) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write('f'); out.write('L'); out.write('a'); out.write('C');
+
+		ByteBuffer si = ByteBuffer.allocate(34);
+		si.putShort((short)4096).putShort((short)4096);   // min/max blocksize
+		si.put(new byte[6]);                               // min/max framesize
+		long rate = 44100, channels = 2, bps = 16, samples = 44100L * 200;
+		si.putLong(rate << 44 | (channels-1) << 41 | (bps-1) << 36 | samples);
+		flacBlock(out, 0, si.array(), false);
+
+		if (picture_len > 0) {
+			flacBlock(out, 6, pictureBlock(picture_len), false);
+		}
+
+		flacBlock(out, 4, vorbisComment(TAGS), true);
+		out.write(new byte[8192], 0, 8192);
+		return out.toByteArray();
+	}
+
+	public static byte[] ogg(int picture_len) {
+		return ogg(TAGS, picture_len, 255);
+	}
+
+	/*
+	** Returns an ogg vorbis file with given comments and a
+	** METADATA_BLOCK_PICTURE of 'picture_len' bytes if > 0. The comment
+	** packet is split into pages of at most 'max_segs' segments
+	*/
+	public static byte[] ogg(String[][] tags, int picture_len, int max_segs) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer ident = le(30);
+		ident.put((byte)1).put("vorbis".getBytes()).putInt(0).put((byte)2).putInt(44100);
+		ident.putInt(0).putInt(128000).putInt(0).put((byte)0xb8).put((byte)1);
+		int seq = oggPacket(out, ident.array(), 0, 0, 2, 255);
+
+		byte[] vc = vorbisComment(withPicture(tags, picture_len));
+		ByteBuffer comment = le(vc.length + 8);
+		comment.put((byte)3).put("vorbis".getBytes()).put(vc).put((byte)1);
+		seq = oggPacket(out, comment.array(), 0, seq, 0, max_segs);
+
+		for (int i = 0; i < 32; i++) {
+			seq = oggPacket(out, new byte[4000], (i+1) * 44100L * 4, seq, 0, 255);
+		}
+		return out.toByteArray();
+	}
+
+	public static byte[] opus(int picture_len) {
+		return opus(new String[][] { { "TITLE", "Opus" }, { "R128_TRACK_GAIN", "-512" } }, picture_len, 255);
+	}
+
+	/*
+	** Returns an opus file with given comments and a
+	** METADATA_BLOCK_PICTURE of 'picture_len' bytes if > 0. The OpusTags
+	** packet is split into pages of at most 'max_segs' segments
+	*/
+	public static byte[] opus(String[][] comments, int picture_len, int max_segs) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer head = le(19);
+		head.put("OpusHead".getBytes()).put((byte)1).put((byte)2).putShort((short)312);
+		head.putInt(48000).putShort((short)-768).put((byte)0);
+		int seq = oggPacket(out, head.array(), 0, 0, 2, 255);
+
+		byte[] vc = vorbisComment(withPicture(comments, picture_len));
+		ByteBuffer tags = le(vc.length + 8);
+		tags.put("OpusTags".getBytes()).put(vc);
+		seq = oggPacket(out, tags.array(), 0, seq, 0, max_segs);
+
+		for (int i = 0; i < 32; i++) {
+			seq = oggPacket(out, new byte[2000], 312 + (i+1) * 48000L * 3, seq, 0, 255);
+		}
+		return out.toByteArray();
+	}
+
+	public static byte[] mp3(int picture_len) {
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		id3Frame(frames, "TIT2", latin("Title"));
+		id3Frame(frames, "TPE1", latin("Artist"));
+		id3Frame(frames, "TALB", latin("Album"));
+		id3Frame(frames, "TXXX", latin("replaygain_track_gain\0-6.50 dB"));
+		if (picture_len > 0) {
+			byte[] mime = "image/jpeg".getBytes();
+			ByteBuffer apic = ByteBuffer.allocate(4 + mime.length + picture_len);
+			apic.put((byte)0).put(mime).put((byte)0).put((byte)3).put((byte)0).put(pictureData(picture_len));
+			id3Frame(frames, "APIC", apic.array());
+		}
+		id3Frame(frames, "TCON", latin("Synthetic"));
+		frames.write(new byte[64], 0, 64); // padding
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int len = frames.size();
+		out.write('I'); out.write('D'); out.write('3'); out.write(3); out.write(0); out.write(0);
+		out.write((len >> 21) & 0x7f); out.write((len >> 14) & 0x7f); out.write((len >> 7) & 0x7f); out.write(len & 0x7f);
+		out.write(frames.toByteArray(), 0, len);
+
+		// MPEG1 Layer3, 128kbit, 44.1kHz frames. The first one carries a Xing header
+		byte[] frame = new byte[417];
+		frame[0] = (byte)0xff; frame[1] = (byte)0xfb; frame[2] = (byte)0x90; frame[3] = (byte)0x64;
+		byte[] xing = frame.clone();
+		ByteBuffer bb = ByteBuffer.wrap(xing);
+		bb.position(0x24); bb.put("Xing".getBytes()).put(new byte[3]).put((byte)1).putInt(10000);
+		bb.position(0xAB); bb.putShort((short)(0x2000 | 0x0200 | 65)).putShort((short)0);
+		out.write(xing, 0, xing.length);
+		for (int i = 0; i < 64; i++) {
+			out.write(frame, 0, frame.length);
+		}
+		return out.toByteArray();
+	}
+
+	/*
+	** Returns the image data of embedded pictures
+	*/
+	public static byte[] pictureData(int len) {
+		byte[] data = new byte[len];
+		for (int i = 0; i < len; i++)
+			data[i] = (byte)(i * 31 + 7);
+		return data;
+	}
+
+	/*
+	** Returns a FLAC picture block (front cover) holding pictureData()
+	*/
+	private static byte[] pictureBlock(int picture_len) {
+		byte[] mime = "image/jpeg".getBytes();
+		ByteBuffer pic = ByteBuffer.allocate(32 + mime.length + picture_len);
+		pic.putInt(3).putInt(mime.length).put(mime).putInt(0);
+		pic.putInt(500).putInt(500).putInt(24).putInt(0).putInt(picture_len);
+		pic.put(pictureData(picture_len));
+		return pic.array();
+	}
+
+	/*
+	** Returns the value of the METADATA_BLOCK_PICTURE comment
+	** written for a picture of 'picture_len' bytes
+	*/
+	public static String metadataBlockPicture(int picture_len) {
+		return base64(pictureBlock(picture_len));
+	}
+
+	/*
+	** Appends a METADATA_BLOCK_PICTURE comment to 'tags' if 'picture_len' > 0
+	*/
+	private static String[][] withPicture(String[][] tags, int picture_len) {
+		if (picture_len <= 0)
+			return tags;
+		String[][] result = new String[tags.length + 1][];
+		System.arraycopy(tags, 0, result, 0, tags.length);
+		result[tags.length] = new String[] { "METADATA_BLOCK_PICTURE", metadataBlockPicture(picture_len) };
+		return result;
+	}
+
+	private static String base64(byte[] data) {
+		final String b64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		StringBuilder sb = new StringBuilder((data.length + 2) / 3 * 4);
+		for (int i = 0; i < data.length; i += 3) {
+			int n = Math.min(3, data.length - i);
+			int bits = (data[i] & 0xff) << 16;
+			if (n > 1)
+				bits |= (data[i+1] & 0xff) << 8;
+			if (n > 2)
+				bits |= data[i+2] & 0xff;
+			for (int j = 0; j < 4; j++)
+				sb.append(j <= n ? b64.charAt((bits >> (18 - 6*j)) & 0x3f) : '=');
+		}
+		return sb.toString();
+	}
+
+	private static ByteBuffer le(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static byte[] latin(String s) {
+		byte[] raw = s.getBytes();
+		byte[] r = new byte[raw.length + 1];
+		System.arraycopy(raw, 0, r, 1, raw.length); // r[0] = ID3_ENC_LATIN
+		return r;
+	}
+
+	private static byte[] vorbisComment(String[][] tags) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] vendor = "bastp fixtures".getBytes();
+		writeLe32(out, vendor.length);
+		out.write(vendor, 0, vendor.length);
+		writeLe32(out, tags.length);
+		for (String[] kv : tags) {
+			byte[] c = (kv[0]+"="+kv[1]).getBytes();
+			writeLe32(out, c.length);
+			out.write(c, 0, c.length);
+		}
+		return out.toByteArray();
+	}
+
+	private static void writeLe32(ByteArrayOutputStream out, int v) {
+		out.write(v); out.write(v >> 8); out.write(v >> 16); out.write(v >> 24);
+	}
+
+	private static void flacBlock(ByteArrayOutputStream out, int type, byte[] data, boolean last) {
+		out.write(type | (last ? 0x80 : 0));
+		out.write(data.length >> 16); out.write(data.length >> 8); out.write(data.length);
+		out.write(data, 0, data.length);
+	}
+
+	/*
+	** Writes 'packet' as ogg pages of at most 'max_segs' segments each
+	** and returns the sequence number of the next page. Pages which do
+	** not finish the packet carry the continuation flag on the next page
+	** and a granule position of -1
+	*/
+	private static int oggPacket(ByteArrayOutputStream out, byte[] packet, long granule, int seq, int flags, int max_segs) {
+		int nsegs = packet.length / 255 + 1;
+		int pos = 0;
+		for (int first = 0; first < nsegs; first += max_segs) {
+			int segs = Math.min(max_segs, nsegs - first);
+			boolean last = (first + segs == nsegs);
+			int len = (last ? packet.length - pos : segs * 255);
+			ByteBuffer hdr = le(27 + segs);
+			hdr.put("OggS".getBytes()).put((byte)0).put((byte)(first == 0 ? flags : 1)).putLong(last ? granule : -1);
+			hdr.putInt(1).putInt(seq++).putInt(0).put((byte)segs);
+			for (int i = first; i < first + segs; i++)
+				hdr.put((byte)(i < nsegs - 1 ? 255 : packet.length % 255));
+			out.write(hdr.array(), 0, hdr.capacity());
+			out.write(packet, pos, len);
+			pos += len;
+		}
+		return seq;
+	}
+
+	private static void id3Frame(ByteArrayOutputStream out, String name, byte[] data) {
+		byte[] n = name.getBytes();
+		out.write(n, 0, 4);
+		out.write(data.length >> 24); out.write(data.length >> 16); out.write(data.length >> 8); out.write(data.length);
+		out.write(0); out.write(0);
+		out.write(data, 0, data.length);
+	}
+
+	/*
+	** Writes 'count' files of each format into the given directory
+	*/
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: AudioFixtures <directory> [count] [picture_bytes]");
+			System.exit(1);
+		}
+		File dir = new File(args[0]);
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int picture = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		dir.mkdirs();
+		for (int i = 0; i < count; i++) {
+			for (String format : FORMATS) {
+				write(new File(dir, String.format("%05d.%s", i, format)), format, picture);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.blinkenlights.android.vanilla;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Queue edits in the way SongTimeline performs them on its backing list:
+ * enqueueing an album after the current song, removing a single position
+ * and moving a song via drag and drop.
+ *
+ * The list benchmarks use a list of objects as SongTimeline did before it
+ * was backed by a SongQueue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueueBenchmark {
+	private static final int ALBUM_SIZE = 12;
+
+	@Param({ "10000", "100000" })
+	public int size;
+
+	private ArrayList<ShuffleBenchmark.Item> queue;
+	private ArrayList<ShuffleBenchmark.Item> album;
+	private SongQueue songQueue;
+	private long[] albumIds;
+	private int[] albumFlags;
+	private int position;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		queue = new ArrayList<ShuffleBenchmark.Item>(size);
+		for (int i = 0; i < size; i++)
+			queue.add(new ShuffleBenchmark.Item(i, i / ALBUM_SIZE, i % ALBUM_SIZE));
+
+		album = new ArrayList<ShuffleBenchmark.Item>(ALBUM_SIZE);
+		for (int i = 0; i < ALBUM_SIZE; i++)
+			album.add(new ShuffleBenchmark.Item(size+i, -1, i));
+
+		songQueue = new SongQueue(size);
+		for (int i = 0; i < size; i++)
+			songQueue.add(i, 0);
+
+		albumIds = new long[ALBUM_SIZE];
+		albumFlags = new int[ALBUM_SIZE];
+		for (int i = 0; i < ALBUM_SIZE; i++)
+			albumIds[i] = size + i;
+
+		position = size / 2;
+	}
+
+	/**
+	 * Enqueue an album right after the current song, then remove it again
+	 * to keep the queue size stable (MODE_PLAY_NEXT and removeSongPosition)
+	 */
+	@Benchmark
+	public int insertAndRemoveAlbum() {
+		queue.addAll(position + 1, album);
+		for (int i = 0; i < ALBUM_SIZE; i++)
+			queue.remove(position + 1);
+		return queue.size();
+	}
+
+	/**
+	 * Drag the song at the head of the queue to its end and back (moveSongPosition)
+	 */
+	@Benchmark
+	public int moveHeadToTail() {
+		queue.add(queue.size() - 1, queue.remove(0));
+		queue.add(0, queue.remove(queue.size() - 2));
+		return queue.size();
+	}
+
+	/**
+	 * Move the current song one step down and back
+	 */
+	@Benchmark
+	public int moveNeighbour() {
+		queue.add(position + 1, queue.remove(position));
+		queue.add(position, queue.remove(position + 1));
+		return queue.size();
+	}
+
+	@Benchmark
+	public int songQueueInsertAndRemoveAlbum() {
+		songQueue.insert(position + 1, albumIds, albumFlags, ALBUM_SIZE);
+		songQueue.removeRange(position + 1, position + 1 + ALBUM_SIZE);
+		return songQueue.size();
+	}
+
+	@Benchmark
+	public int songQueueMoveHeadToTail() {
+		songQueue.move(0, songQueue.size() - 1);
+		songQueue.move(songQueue.size() - 1, 0);
+		return songQueue.size();
+	}
+
+	@Benchmark
+	public int songQueueMoveNeighbour() {
+		songQueue.move(position, position + 1);
+		songQueue.move(position + 1, position);
+		return songQueue.size();
+	}
+
+}
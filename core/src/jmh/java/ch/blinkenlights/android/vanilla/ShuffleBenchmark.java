@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.blinkenlights.android.vanilla;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Song and album shuffle as done by MediaUtils.shuffle().
+ * Each invocation shuffles a fresh copy of the queue, just like
+ * SongTimeline does when building its shuffle cache.
+ *
+ * The permuted benchmarks use the seeded permutation SongTimeline
+ * uses for song shuffle: building a whole round by walking the domain
+ * and looking up the song at a single position.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShuffleBenchmark {
+	/**
+	 * Minimal stand-in for Song (which depends on android)
+	 * using the same ordering: album id, then track number
+	 */
+	static class Item implements Comparable<Item> {
+		final long id;
+		final long albumId;
+		final int trackNumber;
+
+		Item(long id, long albumId, int trackNumber) {
+			this.id = id;
+			this.albumId = albumId;
+			this.trackNumber = trackNumber;
+		}
+
+		@Override
+		public int compareTo(Item other) {
+			if (albumId == other.albumId)
+				return trackNumber - other.trackNumber;
+			return albumId > other.albumId ? 1 : -1;
+		}
+	}
+
+	private static final ShuffleUtils.GroupKey<Item> ALBUM_KEY = new ShuffleUtils.GroupKey<Item>() {
+		@Override
+		public long getGroup(Item item) {
+			return item.albumId;
+		}
+	};
+
+	@Param({ "10000", "100000" })
+	public int size;
+
+	private ArrayList<Item> queue;
+	private long[] ids;
+	private Random random;
+
+	@Setup
+	public void setup() {
+		random = new Random(42);
+		queue = new ArrayList<Item>(size);
+		ids = new long[size];
+		for (int i = 0; i < size; i++) {
+			// ~12 tracks per album
+			queue.add(new Item(i, i / 12, i % 12));
+			ids[i] = i;
+		}
+		Collections.shuffle(queue, random);
+	}
+
+	@Benchmark
+	public ArrayList<Item> songShuffle() {
+		ArrayList<Item> copy = new ArrayList<Item>(queue);
+		Collections.shuffle(copy, random);
+		return copy;
+	}
+
+	@Benchmark
+	public ArrayList<Item> albumShuffle() {
+		ArrayList<Item> copy = new ArrayList<Item>(queue);
+		ShuffleUtils.shuffleGroups(copy, ALBUM_KEY, random);
+		return copy;
+	}
+
+	@Benchmark
+	public long[] idShuffle() {
+		ShuffleUtils.shuffle(ids, random);
+		return ids;
+	}
+
+	@Benchmark
+	public long[] permutedShuffle() {
+		long seed = random.nextLong();
+		int bits = ShuffleUtils.domainBits(size);
+		long domain = 1L << (2 * bits);
+		long[] order = new long[size];
+		int n = 0;
+		for (long p = 0; p != domain; p++) {
+			long pos = ShuffleUtils.permute(seed, p, bits);
+			if (pos < size)
+				order[n++] = ids[(int)pos];
+		}
+		return order;
+	}
+
+	@Benchmark
+	public long permutedLookup() {
+		int bits = ShuffleUtils.domainBits(size);
+		long domain = 1L << (2 * bits);
+		long pos = ShuffleUtils.nextPosition(42, random.nextLong() & (domain - 1), bits, size);
+		return ShuffleUtils.permute(42, pos, bits);
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package ch.blinkenlights.bastp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/*
+** BastpBatch against sequential Bastp.getTags calls on a corpus of
+** generated FLAC, Ogg, Opus and MP3 files, as used when enqueueing an
+** unindexed folder or warming the ReplayGain values of a queue.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BastpBatchBenchmark {
+	private static final String[] FORMATS = { "flac", "ogg", "opus", "mp3" };
+	private static final int CORPUS_SIZE = 800;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	@Param({ "0", "65536" })
+	public int pictureSize;
+
+	private File dir;
+	private ArrayList<String> corpus;
+	private Bastp bastp;
+	private BastpBatch bastpBatch;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = File.createTempFile("bastp", "batch");
+		dir.delete();
+		dir.mkdirs();
+
+		corpus = new ArrayList<String>(CORPUS_SIZE);
+		for (int i = 0; i < CORPUS_SIZE; i++) {
+			String format = FORMATS[i % FORMATS.length];
+			File f = new File(dir, i+"."+format);
+			AudioFixtures.write(f, format, pictureSize);
+			corpus.add(f.getPath());
+		}
+		bastp = new Bastp();
+		bastpBatch = new BastpBatch(threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		bastpBatch.shutdown();
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	@Benchmark
+	public TagRecord[] sequential() {
+		TagRecord[] result = new TagRecord[corpus.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = bastp.getTags(corpus.get(i), TagRecord.FIELD_ALL);
+		return result;
+	}
+
+	@Benchmark
+	public TagRecord[] batch() throws InterruptedException {
+		return bastpBatch.getTags(corpus, TagRecord.FIELD_ALL);
+	}
+
+	@Benchmark
+	public TagRecord[] sequentialGainOnly() {
+		TagRecord[] result = new TagRecord[corpus.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = bastp.getTags(corpus.get(i), TagRecord.FIELD_GAIN);
+		return result;
+	}
+
+	@Benchmark
+	public TagRecord[] batchGainOnly() throws InterruptedException {
+		return bastpBatch.getTags(corpus, TagRecord.FIELD_GAIN);
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.bastp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/*
+** Tag parsing per format, with and without embedded pictures.
+** Files are generated by AudioFixtures and live in the page cache,
+** so this measures parsing overhead rather than storage latency.
+** Parsing many files at once is covered by BastpBatchBenchmark.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BastpBenchmark {
+	@Param({ "flac", "ogg", "opus", "mp3" })
+	public String format;
+
+	@Param({ "0", "1048576" })
+	public int pictureSize;
+
+	private File file;
+	private String path;
+	private Bastp bastp;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		file = File.createTempFile("bastp", "."+format);
+		AudioFixtures.write(file, format, pictureSize);
+		path = file.getPath();
+		bastp = new Bastp();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public TagRecord allFields() {
+		return bastp.getTags(path, TagRecord.FIELD_ALL);
+	}
+
+	@Benchmark
+	public TagRecord gainOnly() {
+		return bastp.getTags(path, TagRecord.FIELD_GAIN);
+	}
+
+}
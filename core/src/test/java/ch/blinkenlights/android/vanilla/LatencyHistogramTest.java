@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package ch.blinkenlights.android.vanilla;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+	/**
+	 * Returns the upper bound of the bucket holding `value'
+	 */
+	private static long bucketOf(long value) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(value);
+		histogram.record(Long.MAX_VALUE); // so the bound is not capped by the max
+		return histogram.getPercentile(0.5);
+	}
+
+	@Test
+	public void empty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile(0.5));
+		assertEquals(0, histogram.getPercentile(1.0));
+	}
+
+	/**
+	 * Values below 16 have a bucket of their own
+	 */
+	@Test
+	public void smallValuesAreExact() {
+		for (long value = 0; value < 16; value++)
+			assertEquals(value, bucketOf(value));
+	}
+
+	/**
+	 * The bucket of a value is at most 12.5% larger than the
+	 * value itself, and buckets are contiguous
+	 */
+	@Test
+	public void bucketBounds() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+			long bound = bucketOf(value);
+			assertTrue(value+" -> "+bound, bound >= value && bound - value <= value / 8);
+			assertEquals(bound, bucketOf(bound));
+			if (bound != Long.MAX_VALUE)
+				assertTrue(bucketOf(bound + 1) > bound);
+		}
+		for (int exp = 4; exp < 63; exp++) {
+			long power = 1L << exp;
+			assertEquals(power + (power >> 3) - 1, bucketOf(power));
+			assertEquals(power - 1, bucketOf(power - 1));
+		}
+		assertEquals(Long.MAX_VALUE, bucketOf(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1000; value >= 1; value--)
+			histogram.record(value);
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000, histogram.getMax());
+
+		long p50 = histogram.getPercentile(0.5);
+		assertTrue(""+p50, p50 >= 500 && p50 <= 500 + 500 / 8);
+		long p95 = histogram.getPercentile(0.95);
+		assertTrue(""+p95, p95 >= 950 && p95 <= 1000);
+		// never above the largest value recorded
+		assertEquals(1000, histogram.getPercentile(0.999));
+		assertEquals(1000, histogram.getPercentile(1.0));
+		// the smallest value has its own bucket
+		assertEquals(1, histogram.getPercentile(0.0));
+	}
+
+	@Test
+	public void negativeValuesCountAsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(-1);
+		histogram.record(7);
+		assertEquals(3, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(0.5));
+		assertEquals(7, histogram.getPercentile(1.0));
+	}
+
+	@Test
+	public void reset() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(123456);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		histogram.record(3);
+		assertEquals(3, histogram.getPercentile(0.5));
+	}
+}
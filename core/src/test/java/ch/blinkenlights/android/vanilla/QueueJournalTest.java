@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.android.vanilla;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueueJournalTest {
+	private File mDir;
+	private File mSnapshot;
+	private File mJournal;
+
+	@Before
+	public void setUp() throws IOException {
+		mDir = File.createTempFile("queuejournal", "");
+		mDir.delete();
+		mDir.mkdir();
+		mSnapshot = new File(mDir, "state");
+		mJournal = new File(mDir, "state.journal");
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : mDir.listFiles())
+			file.delete();
+		mDir.delete();
+	}
+
+	private static QueueJournal.QueueState makeState(int size, int position) {
+		QueueJournal.QueueState state = new QueueJournal.QueueState(size);
+		for (int i = 0; i != size; i++)
+			state.ids[i] = 100 + i;
+		state.size = size;
+		state.position = position;
+		state.songId = state.ids[position];
+		return state;
+	}
+
+	/**
+	 * Returns a copy of `state' with `count' new songs inserted at `start'
+	 */
+	private static QueueJournal.QueueState insert(QueueJournal.QueueState state, int start, int count) {
+		QueueJournal.QueueState result = copy(state);
+		long[] ids = new long[count];
+		int[] flags = new int[count];
+		for (int i = 0; i != count; i++) {
+			ids[i] = 10000 + i;
+			flags[i] = 1;
+		}
+		result.replace(start, 0, ids, flags, count);
+		return result;
+	}
+
+	private static QueueJournal.QueueState copy(QueueJournal.QueueState state) {
+		QueueJournal.QueueState result = new QueueJournal.QueueState(state.size);
+		System.arraycopy(state.ids, 0, result.ids, 0, state.size);
+		System.arraycopy(state.flags, 0, result.flags, 0, state.size);
+		result.size = state.size;
+		result.position = state.position;
+		result.finishAction = state.finishAction;
+		result.shuffleMode = state.shuffleMode;
+		result.pendingSeek = state.pendingSeek;
+		result.songId = state.songId;
+		result.shuffleSeed = state.shuffleSeed;
+		result.shuffleBits = state.shuffleBits;
+		result.shuffleStart = state.shuffleStart;
+		return result;
+	}
+
+	private static void assertStateEquals(QueueJournal.QueueState expected, QueueJournal.QueueState actual) {
+		assertNotNull(actual);
+		assertEquals(expected.size, actual.size);
+		assertArrayEquals(Arrays.copyOf(expected.ids, expected.size), Arrays.copyOf(actual.ids, actual.size));
+		assertArrayEquals(Arrays.copyOf(expected.flags, expected.size), Arrays.copyOf(actual.flags, actual.size));
+		assertEquals(expected.position, actual.position);
+		assertEquals(expected.finishAction, actual.finishAction);
+		assertEquals(expected.shuffleMode, actual.shuffleMode);
+		assertEquals(expected.pendingSeek, actual.pendingSeek);
+		assertEquals(expected.songId, actual.songId);
+		assertEquals(expected.shuffleSeed, actual.shuffleSeed);
+		assertEquals(expected.shuffleBits, actual.shuffleBits);
+		assertEquals(expected.shuffleStart, actual.shuffleStart);
+	}
+
+	private QueueJournal.QueueState reload() throws IOException {
+		QueueJournal journal = new QueueJournal(mSnapshot, mJournal);
+		QueueJournal.QueueState state = journal.load();
+		journal.close();
+		return state;
+	}
+
+	/**
+	 * Saving after loading a journal without any records must not fail
+	 */
+	@Test
+	public void saveAfterLoadOfEmptyJournal() throws IOException {
+		QueueJournal journal = new QueueJournal(mSnapshot, mJournal);
+		journal.save(makeState(10, 0));
+		journal.close();
+
+		journal = new QueueJournal(mSnapshot, mJournal);
+		assertStateEquals(makeState(10, 0), journal.load());
+		QueueJournal.QueueState state = makeState(12, 3);
+		journal.save(state);
+		journal.close();
+
+		assertStateEquals(state, reload());
+	}
+
+	/**
+	 * Saving after loading a journal of an older snapshot must not fail
+	 */
+	@Test
+	public void saveAfterLoadOfStaleJournal() throws IOException {
+		QueueJournal journal = new QueueJournal(mSnapshot, mJournal);
+		journal.save(makeState(10, 0));
+		journal.close();
+		File stale = new File(mDir, "stale.journal");
+		mJournal.renameTo(stale);
+
+		journal = new QueueJournal(mSnapshot, mJournal);
+		journal.save(makeState(10, 5));
+		journal.close();
+		stale.renameTo(mJournal);
+
+		journal = new QueueJournal(mSnapshot, mJournal);
+		assertStateEquals(makeState(10, 5), journal.load());
+		QueueJournal.QueueState state = makeState(4, 1);
+		journal.save(state);
+		journal.close();
+
+		assertStateEquals(state, reload());
+	}
+
+	/**
+	 * Changes appended to the journal survive a restart
+	 */
+	@Test
+	public void replayAppendedChanges() throws IOException {
+		QueueJournal journal = new QueueJournal(mSnapshot, mJournal);
+		journal.save(makeState(10, 0));
+		QueueJournal.QueueState state = makeState(20, 7);
+		journal.save(state);
+		long length = mJournal.length();
+		journal.close();
+
+		journal = new QueueJournal(mSnapshot, mJournal);
+		assertStateEquals(state, journal.load());
+		assertEquals(length, mJournal.length());
+		state = makeState(20, 8);
+		journal.save(state);
+		journal.close();
+
+		assertStateEquals(state, reload());
+	}
+
+	/**
+	 * Inserting into and removing from the middle of the queue only
+	 * journals the changed range
+	 */
+	@Test
+	public void journalOnlyChangedRange() throws IOException {
+		QueueJournal journal = new QueueJournal(mSnapshot, mJournal);
+		QueueJournal.QueueState state = makeState(1000, 10);
+		journal.save(state);
+
+		long length = mJournal.length();
+		state = insert(state, 500, 3);
+		journal.save(state);
+		// one REPLACE of 3 entries: far less than the 1000 entries of the queue
+		assertTrue(mJournal.length() - length < 100);
+
+		length = mJournal.length();
+		QueueJournal.QueueState removed = copy(state);
+		removed.replace(200, 5, new long[0], new int[0], 0);
+		journal.save(removed);
+		assertTrue(mJournal.length() - length < 50);
+
+		length = mJournal.length();
+		QueueJournal.QueueState appended = insert(removed, removed.size, 2);
+		journal.save(appended);
+		assertTrue(mJournal.length() - length < 100);
+		journal.close();
+
+		assertStateEquals(appended, reload());
+	}
+
+	/**
+	 * Moving a single song is journaled as a MOVE in both directions
+	 */
+	@Test
+	public void replayMoves() throws IOException {
+		QueueJournal journal = new QueueJournal(mSnapshot, mJournal);
+		QueueJournal.QueueState state = makeState(1000, 10);
+		journal.save(state);
+
+		long length = mJournal.length();
+		QueueJournal.QueueState down = copy(state);
+		down.move(100, 900);
+		journal.save(down);
+		assertTrue(mJournal.length() - length < 50);
+
+		length = mJournal.length();
+		QueueJournal.QueueState up = copy(down);
+		up.move(800, 3);
+		journal.save(up);
+		assertTrue(mJournal.length() - length < 50);
+		journal.close();
+
+		assertStateEquals(up, reload());
+	}
+
+	/**
+	 * A new shuffled round is journaled on its own and survives a restart
+	 */
+	@Test
+	public void replaySeed() throws IOException {
+		QueueJournal journal = new QueueJournal(mSnapshot, mJournal);
+		QueueJournal.QueueState state = makeState(1000, 10);
+		state.shuffleSeed = 42;
+		journal.save(state);
+
+		long length = mJournal.length();
+		state = copy(state);
+		state.shuffleSeed = -7;
+		state.shuffleBits = 5;
+		state.shuffleStart = 1023;
+		journal.save(state);
+		// one SEED: the queue is not written again
+		assertTrue(mJournal.length() - length < 50);
+
+		length = mJournal.length();
+		state = copy(state);
+		state.shuffleStart = 17;
+		journal.save(state);
+		assertTrue(mJournal.length() > length);
+		journal.close();
+
+		assertStateEquals(state, reload());
+	}
+
+	/**
+	 * A torn final record only loses the last save
+	 */
+	@Test
+	public void ignoreTornRecord() throws IOException {
+		QueueJournal journal = new QueueJournal(mSnapshot, mJournal);
+		journal.save(makeState(10, 0));
+		QueueJournal.QueueState state = insert(makeState(10, 1), 5, 2);
+		journal.save(state);
+		long length = mJournal.length();
+		journal.save(insert(state, 0, 4));
+		journal.close();
+
+		byte[] data = new byte[(int)mJournal.length()];
+		RandomAccessFile file = new RandomAccessFile(mJournal, "r");
+		file.readFully(data);
+		file.close();
+
+		for (int cut = (int)length + 1; cut < data.length; cut++) {
+			file = new RandomAccessFile(mJournal, "rw");
+			file.setLength(0);
+			file.write(data, 0, cut);
+			file.close();
+			assertStateEquals(state, reload());
+		}
+	}
+
+	/**
+	 * A final record with a broken CRC is ignored
+	 */
+	@Test
+	public void ignoreDamagedRecord() throws IOException {
+		QueueJournal journal = new QueueJournal(mSnapshot, mJournal);
+		journal.save(makeState(10, 0));
+		QueueJournal.QueueState state = makeState(10, 4);
+		journal.save(state);
+		journal.save(insert(state, 10, 1));
+		journal.close();
+
+		RandomAccessFile file = new RandomAccessFile(mJournal, "rw");
+		file.seek(file.length() - 5); // last payload byte
+		int b = file.read();
+		file.seek(file.length() - 5);
+		file.write(b ^ 0x40);
+		file.close();
+
+		assertStateEquals(state, reload());
+
+		// the damaged record is dropped on the next save
+		journal = new QueueJournal(mSnapshot, mJournal);
+		journal.load();
+		state = makeState(3, 2);
+		journal.save(state);
+		journal.close();
+		assertStateEquals(state, reload());
+	}
+
+	/**
+	 * Snapshots survive the varint, delta and run length encoding
+	 * of ids and flags unchanged
+	 */
+	@Test
+	public void snapshotRoundTrip() throws IOException {
+		long[] ids = {
+			5, 6, 7, 8,                  // a run
+			3,                           // negative delta
+			-1,                          // a removed song
+			Long.MAX_VALUE, Long.MIN_VALUE, 0,
+			1000000, 1000001, 1000002,   // a run broken up by its flags
+			1 << 40,
+		};
+		int[] flags = { 1, 1, 1, 1, 0, 0, 7, -1, Integer.MIN_VALUE, 2, 2, 3, 0 };
+		int runLength = 70000;           // longer than a single encoded run
+
+		QueueJournal.QueueState state = new QueueJournal.QueueState(ids.length + runLength);
+		System.arraycopy(ids, 0, state.ids, 0, ids.length);
+		System.arraycopy(flags, 0, state.flags, 0, flags.length);
+		for (int i = 0; i != runLength; i++) {
+			state.ids[ids.length + i] = 200 + i;
+			state.flags[ids.length + i] = 1;
+		}
+		state.size = ids.length + runLength;
+		state.position = state.size - 1;
+		state.finishAction = 3;
+		state.shuffleMode = 2;
+		state.pendingSeek = 123456;
+		state.songId = Long.MIN_VALUE;
+		state.shuffleSeed = 0xFEDCBA9876543210L;
+		state.shuffleBits = 9;
+		state.shuffleStart = 201234;
+
+		QueueJournal journal = new QueueJournal(mSnapshot, mJournal);
+		journal.save(state);
+		journal.close();
+		assertStateEquals(state, reload());
+		// the long run costs a few bytes, not 8 per song
+		assertTrue(mSnapshot.length() < 200);
+
+		QueueJournal.QueueState empty = new QueueJournal.QueueState(0);
+		journal = new QueueJournal(mSnapshot, mJournal);
+		journal.save(empty);
+		journal.close();
+		assertStateEquals(empty, reload());
+	}
+
+	/**
+	 * The snapshot written by releases before the journal is migrated
+	 */
+	@Test
+	public void migrateVersion6() throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(mSnapshot));
+		out.writeLong(0x1533574DC74B6ECL);
+		out.writeInt(6);
+		out.writeInt(4321);     // pending seek
+		out.writeLong(102);     // current song
+		out.writeInt(4);
+		out.writeLong(100);
+		out.writeInt(1);
+		out.writeLong(-1);      // removed song: no flags
+		out.writeLong(102);
+		out.writeInt(0);
+		out.writeLong(101);
+		out.writeInt(3);
+		out.writeInt(2);        // position
+		out.writeInt(1);        // finish action
+		out.writeInt(2);        // shuffle mode
+		out.close();
+		// a journal left next to an old snapshot is not replayed
+		out = new DataOutputStream(new FileOutputStream(mJournal));
+		out.writeLong(0x1533574DC74B6EDL);
+		out.writeLong(0);
+		out.writeInt(1);
+		out.writeByte(1);
+		out.writeInt(0);
+		out.close();
+
+		QueueJournal.QueueState expected = new QueueJournal.QueueState(4);
+		long[] ids = { 100, -1, 102, 101 };
+		int[] flags = { 1, 0, 0, 3 };
+		System.arraycopy(ids, 0, expected.ids, 0, 4);
+		System.arraycopy(flags, 0, expected.flags, 0, 4);
+		expected.size = 4;
+		expected.position = 2;
+		expected.finishAction = 1;
+		expected.shuffleMode = 2;
+		expected.pendingSeek = 4321;
+		expected.songId = 102;
+
+		QueueJournal journal = new QueueJournal(mSnapshot, mJournal);
+		QueueJournal.QueueState state = journal.load();
+		assertStateEquals(expected, state);
+
+		// the next save writes the current format
+		state.position = 3;
+		journal.save(state);
+		journal.close();
+		assertStateEquals(state, reload());
+		RandomAccessFile file = new RandomAccessFile(mSnapshot, "r");
+		file.seek(8);
+		assertTrue(file.readInt() != 6);
+		file.close();
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.blinkenlights.android.vanilla;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShuffleUtilsTest {
+	/**
+	 * Returns the round of `size' songs: the permuted positions < size,
+	 * walking the domain from `start' on
+	 */
+	private static List<Long> round(long seed, int bits, long start, int size) {
+		long mask = (1L << (2 * bits)) - 1;
+		List<Long> round = new ArrayList<Long>();
+		for (long i = 0; i <= mask; i++) {
+			long pos = ShuffleUtils.permute(seed, (start + i) & mask, bits);
+			if (pos < size)
+				round.add(pos);
+		}
+		return round;
+	}
+
+	@Test
+	public void domainBits() {
+		assertEquals(1, ShuffleUtils.domainBits(0));
+		assertEquals(1, ShuffleUtils.domainBits(4));
+		assertEquals(2, ShuffleUtils.domainBits(5));
+		assertEquals(2, ShuffleUtils.domainBits(16));
+		assertEquals(3, ShuffleUtils.domainBits(17));
+		assertEquals(16, ShuffleUtils.domainBits(Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Every domain position is mapped to a distinct position of the domain
+	 */
+	@Test
+	public void permuteIsBijective() {
+		for (int bits = 1; bits <= 6; bits++) {
+			int domain = 1 << (2 * bits);
+			boolean[] seen = new boolean[domain];
+			for (long p = 0; p != domain; p++) {
+				long pos = ShuffleUtils.permute(0x1234567L * bits, p, bits);
+				assertTrue(pos >= 0 && pos < domain);
+				assertFalse(seen[(int)pos]);
+				seen[(int)pos] = true;
+			}
+		}
+	}
+
+	/**
+	 * A round plays every song once, starting with the song at the
+	 * position returned by nextPosition()
+	 */
+	@Test
+	public void roundIsPermutation() {
+		int size = 1000;
+		int bits = ShuffleUtils.domainBits(size);
+		long start = ShuffleUtils.nextPosition(99, 12345 % (1L << (2 * bits)), bits, size);
+		List<Long> round = round(99, bits, start, size);
+
+		assertEquals(size, round.size());
+		boolean[] seen = new boolean[size];
+		for (long pos : round) {
+			assertFalse(seen[(int)pos]);
+			seen[(int)pos] = true;
+		}
+		assertEquals(ShuffleUtils.permute(99, start, bits), (long)round.get(0));
+		assertEquals(-1, ShuffleUtils.nextPosition(99, 0, bits, 0));
+	}
+
+	/**
+	 * Appending songs keeps the order of the other songs and the first
+	 * song of the round, as long as the queue fits into the domain
+	 */
+	@Test
+	public void appendKeepsRound() {
+		long seed = -42;
+		int size = 300;
+		int bits = ShuffleUtils.domainBits(size);
+		long start = ShuffleUtils.nextPosition(seed, 0, bits, size);
+		List<Long> before = round(seed, bits, start, size);
+
+		for (int grown = size + 1; grown <= 1 << (2 * bits); grown += 37) {
+			assertEquals(start, ShuffleUtils.nextPosition(seed, start, bits, grown));
+			List<Long> after = round(seed, bits, start, grown);
+			List<Long> old = new ArrayList<Long>();
+			for (long pos : after) {
+				if (pos < size)
+					old.add(pos);
+			}
+			assertEquals(before, old);
+		}
+	}
+}
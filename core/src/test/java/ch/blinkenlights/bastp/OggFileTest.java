@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package ch.blinkenlights.bastp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class OggFileTest {
+	private File mFile;
+
+	@Before
+	public void setUp() throws IOException {
+		mFile = File.createTempFile("oggfile", ".ogg");
+	}
+
+	@After
+	public void tearDown() {
+		mFile.delete();
+	}
+
+	private TagRecord parse(byte[] data, int fields) throws IOException {
+		FileOutputStream out = new FileOutputStream(mFile);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return new Bastp().getTags(mFile.getPath(), fields);
+	}
+
+	/**
+	 * Returns a value of `len' bytes, longer than a single ogg page
+	 * of the fixtures below
+	 */
+	private static String filler(int len) {
+		char[] value = new char[len];
+		Arrays.fill(value, 'x');
+		return new String(value);
+	}
+
+	/**
+	 * Tags behind the first page of a vorbis comment packet are found,
+	 * including values which are split over two pages
+	 */
+	@Test
+	public void vorbisCommentSpanningPages() throws IOException {
+		String[][] comments = {
+			{ "LYRICS", filler(3000) },
+			{ "TITLE", "Title" },
+			{ "REPLAYGAIN_TRACK_GAIN", "-6.50 dB" },
+			{ "REPLAYGAIN_ALBUM_GAIN", "-7.25 dB" },
+			{ "COMMENT", filler(700) },
+			{ "ARTIST", "Artist" },
+		};
+		// 4 segments: at most 1020 bytes per page
+		TagRecord tags = parse(AudioFixtures.ogg(comments, 0, 4), TagRecord.FIELD_ALL);
+		assertEquals("OGG", tags.type);
+		assertEquals("Title", tags.get("TITLE"));
+		assertEquals("Artist", tags.get("ARTIST"));
+		assertEquals(-6.5f, tags.trackGain, 0.001f);
+		assertEquals(-7.25f, tags.albumGain, 0.001f);
+		assertEquals(700, tags.get("COMMENT").length());
+		assertEquals(128000, tags.duration);
+	}
+
+	/**
+	 * A single segment per page still yields the whole packet
+	 */
+	@Test
+	public void vorbisCommentOfSingleSegmentPages() throws IOException {
+		String[][] comments = {
+			{ "TITLE", filler(400) },
+			{ "REPLAYGAIN_TRACK_GAIN", "-6.50 dB" },
+		};
+		TagRecord tags = parse(AudioFixtures.ogg(comments, 0, 1), TagRecord.FIELD_GAIN);
+		assertEquals(-6.5f, tags.trackGain, 0.001f);
+	}
+
+	/**
+	 * The same holds for the OpusTags packet
+	 */
+	@Test
+	public void opusTagsSpanningPages() throws IOException {
+		String[][] comments = {
+			{ "LYRICS", filler(2000) },
+			{ "TITLE", "Opus" },
+			{ "R128_TRACK_GAIN", "-512" },
+		};
+		TagRecord tags = parse(AudioFixtures.opus(comments, 0, 3), TagRecord.FIELD_ALL);
+		assertEquals("OPUS", tags.type);
+		assertEquals("Opus", tags.get("TITLE"));
+		assertEquals(-512, tags.r128TrackGain);
+		assertEquals(-768, tags.r128BaseGain);
+	}
+
+	/**
+	 * Comments running past the end of the packet do not
+	 * drop the tags found before them
+	 */
+	@Test
+	public void truncatedVorbisComment() throws IOException {
+		String[][] comments = {
+			{ "REPLAYGAIN_TRACK_GAIN", "-6.50 dB" },
+			{ "TITLE", "Title" },
+		};
+		byte[] data = AudioFixtures.ogg(comments, 0, 255);
+		// let the last comment claim more bytes than the packet has
+		int title = indexOf(data, "TITLE=Title".getBytes());
+		data[title-4] = (byte)0xff; // length of the TITLE comment
+		TagRecord tags = parse(data, TagRecord.FIELD_GAIN | TagRecord.FIELD_CORE);
+		assertEquals(-6.5f, tags.trackGain, 0.001f);
+		assertEquals(null, tags.get("TITLE"));
+	}
+
+	/**
+	 * Returns the bytes of the picture located by `tags'
+	 */
+	private byte[] readPicture(TagRecord tags) throws IOException {
+		long[] regions = tags.pictureRegions;
+		if (regions == null)
+			regions = new long[] { tags.pictureOffset, tags.pictureLength };
+
+		byte[] picture = new byte[(int)tags.pictureLength];
+		int pos = 0;
+		RandomAccessFile file = new RandomAccessFile(mFile, "r");
+		try {
+			for (int i = 0; i < regions.length; i += 2) {
+				file.seek(regions[i]);
+				file.readFully(picture, pos, (int)regions[i+1]);
+				pos += (int)regions[i+1];
+			}
+		} finally {
+			file.close();
+		}
+		assertEquals(picture.length, pos);
+		return picture;
+	}
+
+	/**
+	 * A picture fitting into the comment page is a single region
+	 */
+	@Test
+	public void vorbisPicture() throws IOException {
+		TagRecord tags = parse(AudioFixtures.ogg(1000), TagRecord.FIELD_PICTURE);
+		assertEquals(TagRecord.PICTURE_FRONT_COVER, tags.pictureType);
+		assertEquals(true, tags.pictureBase64);
+		assertNull(tags.pictureRegions);
+		assertEquals(AudioFixtures.metadataBlockPicture(1000), new String(readPicture(tags), "ISO-8859-1"));
+	}
+
+	/**
+	 * Pictures larger than an ogg page are mapped over all of their pages
+	 */
+	@Test
+	public void vorbisPictureSpanningPages() throws IOException {
+		TagRecord tags = parse(AudioFixtures.ogg(200000), TagRecord.FIELD_PICTURE);
+		assertEquals(TagRecord.PICTURE_FRONT_COVER, tags.pictureType);
+		assertNotNull(tags.pictureRegions);
+		assertEquals(AudioFixtures.metadataBlockPicture(200000), new String(readPicture(tags), "ISO-8859-1"));
+	}
+
+	/**
+	 * Same for opus, with pages holding a single segment
+	 */
+	@Test
+	public void opusPictureSpanningPages() throws IOException {
+		String[][] comments = { { "TITLE", "Opus" } };
+		TagRecord tags = parse(AudioFixtures.opus(comments, 3000, 1), TagRecord.FIELD_PICTURE);
+		assertEquals(TagRecord.PICTURE_FRONT_COVER, tags.pictureType);
+		assertNotNull(tags.pictureRegions);
+		assertEquals(AudioFixtures.metadataBlockPicture(3000), new String(readPicture(tags), "ISO-8859-1"));
+	}
+
+	private static int indexOf(byte[] data, byte[] needle) {
+		for (int i = 0; i <= data.length - needle.length; i++) {
+			int j = 0;
+			while (j < needle.length && data[i+j] == needle[j])
+				j++;
+			if (j == needle.length)
+				return i;
+		}
+		return -1;
+	}
+}
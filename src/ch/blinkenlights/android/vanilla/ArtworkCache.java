@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.android.vanilla;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * In-memory cache of scaled album art used by the system surfaces:
+ * the notification, the lock screen and the widgets.
+ *
+ * Covers are decoded once (at CoverCache.SIZE_LARGE) and all other
+ * sizes are scaled down from this bitmap. The returned bitmaps are
+ * shared and must not be modified or recycled by the caller.
+ */
+public class ArtworkCache {
+	/**
+	 * Maximum cache size in bytes, about three large covers and
+	 * their scaled versions
+	 */
+	private static final int MAX_SIZE = 6 * 1024 * 1024;
+	/**
+	 * The shared cache, keyed by album id and size
+	 */
+	private static final BitmapLruCache sCache = new BitmapLruCache(MAX_SIZE);
+
+	/**
+	 * Returns the cover of a song at given size
+	 *
+	 * @param context A context to use
+	 * @param song The song to return the cover of
+	 * @param size The size of the longer side of the returned bitmap,
+	 *  at most CoverCache.SIZE_LARGE
+	 * @return the cover or null if the song has no cover
+	 */
+	public static Bitmap getCover(Context context, Song song, int size) {
+		if (size > CoverCache.SIZE_LARGE)
+			size = CoverCache.SIZE_LARGE;
+
+		CoverCache.CoverKey key = new CoverCache.CoverKey(MediaUtils.TYPE_ALBUM, song.albumId, size);
+		Bitmap cover = sCache.get(key);
+		if (cover != null)
+			return cover;
+
+		CoverCache.CoverKey largeKey = new CoverCache.CoverKey(MediaUtils.TYPE_ALBUM, song.albumId, CoverCache.SIZE_LARGE);
+		Bitmap large = sCache.get(largeKey);
+		if (large == null) {
+			large = song.getCover(context);
+			if (large == null)
+				return null;
+			sCache.put(largeKey, large);
+		}
+
+		cover = scale(large, size);
+		if (cover != large)
+			sCache.put(key, cover);
+		return cover;
+	}
+
+	/**
+	 * Releases memory, to be called from onTrimMemory()
+	 *
+	 * @param level The trim level passed to onTrimMemory()
+	 */
+	public static void trimMemory(int level) {
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			sCache.evictAll();
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			sCache.trimToSize(MAX_SIZE / 2);
+		}
+	}
+
+	/**
+	 * Drops all cached covers
+	 */
+	public static void evictAll() {
+		sCache.evictAll();
+	}
+
+	/**
+	 * Scales a bitmap so that its longer side is `size'
+	 * pixels long. Smaller bitmaps are returned as is.
+	 */
+	private static Bitmap scale(Bitmap bitmap, int size) {
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int longer = Math.max(width, height);
+		if (longer <= size)
+			return bitmap;
+		return Bitmap.createScaledBitmap(bitmap, Math.max(1, width * size / longer), Math.max(1, height * size / longer), true);
+	}
+
+	/**
+	 * A LRU cache of bitmaps, limited by their size in bytes
+	 */
+	private static class BitmapLruCache extends LruCache<CoverCache.CoverKey, Bitmap> {
+		public BitmapLruCache(int size) {
+			super(size);
+		}
+
+		@Override
+		protected int sizeOf(CoverCache.CoverKey key, Bitmap value) {
+			return value.getByteCount();
+		}
+	}
+}
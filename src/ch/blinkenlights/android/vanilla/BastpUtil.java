@@ -17,16 +17,26 @@
  
 package ch.blinkenlights.android.vanilla;
 
+import android.content.Context;
 import android.util.LruCache;
-import ch.blinkenlights.bastp.Bastp;
-import java.util.HashMap;
-import java.util.Vector;
+import ch.blinkenlights.bastp.TagRecord;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BastpUtil {
 	/**
 	 * Our global instance cache
 	 */
 	private RGLruCache rgCache;
+	/**
+	 * Persistent index, consulted on cache misses
+	 */
+	private TagIndex tagIndex;
+	/**
+	 * Lookups of getReplayGainValues() answered by / missing the cache
+	 */
+	private final AtomicInteger cacheHits = new AtomicInteger();
+	private final AtomicInteger cacheMisses = new AtomicInteger();
 	/**
 	 * What we return & cache
 	 */
@@ -45,8 +55,9 @@ public class BastpUtil {
 	}
 
 
-	public BastpUtil() {
+	public BastpUtil(Context context) {
 		rgCache = new RGLruCache(64); /* Cache up to 64 entries */
+		tagIndex = new TagIndex(context);
 	}
 
 	/**
@@ -60,47 +71,61 @@ public class BastpUtil {
 
 		GainValues cached = rgCache.get(path);
 		if(cached == null) {
+			cacheMisses.incrementAndGet();
 			cached = getReplayGainValuesFromFile(path);
 			rgCache.put(path, cached);
+		} else {
+			cacheHits.incrementAndGet();
 		}
 		return cached;
 	}
 
 	/**
-	 *  Parse given file and return track,album replay gain values
+	 * Loads the values of `path' into the cache, without
+	 * affecting the hit and miss counters
+	 */
+	public void prefetch(String path) {
+		if(path != null && rgCache.get(path) == null) {
+			rgCache.put(path, getReplayGainValuesFromFile(path));
+		}
+	}
+
+	/**
+	 * Returns how many lookups were answered from the cache
+	 */
+	public int getCacheHits() {
+		return cacheHits.get();
+	}
+
+	/**
+	 * Returns how many lookups had to parse (or index) a file
+	 */
+	public int getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	/**
+	 *  Lookup (or parse) given file and return track,album replay gain values
 	 */
 	private GainValues getReplayGainValuesFromFile(String path) {
-		HashMap tags  = (new Bastp()).getTags(path);
+		TagRecord tags = tagIndex.getTags(path);
 		GainValues gv = new GainValues();
 
 		// normal replay gain, add 5dB difference
-		if(tags.containsKey("REPLAYGAIN_TRACK_GAIN"))
-			gv.track = getFloatFromString((String)((Vector)tags.get("REPLAYGAIN_TRACK_GAIN")).get(0));
-		if(tags.containsKey("REPLAYGAIN_ALBUM_GAIN"))
-			gv.album = getFloatFromString((String)((Vector)tags.get("REPLAYGAIN_ALBUM_GAIN")).get(0));
+		if(!Float.isNaN(tags.trackGain))
+			gv.track = tags.trackGain;
+		if(!Float.isNaN(tags.albumGain))
+			gv.album = tags.albumGain;
 
 		// likely OPUS
-		if(tags.containsKey("R128_BASTP_BASE_GAIN"))
-			gv.base = 0.0f + getFloatFromString((String)((Vector)tags.get("R128_BASTP_BASE_GAIN")).get(0)) / 256.0f;
-		if(tags.containsKey("R128_TRACK_GAIN"))
-			gv.track = 5.0f + getFloatFromString((String)((Vector)tags.get("R128_TRACK_GAIN")).get(0)) / 256.0f;
-		if(tags.containsKey("R128_ALBUM_GAIN"))
-			gv.album = 5.0f + getFloatFromString((String)((Vector)tags.get("R128_ALBUM_GAIN")).get(0)) / 256.0f;
+		if(tags.r128BaseGain != TagRecord.UNSET)
+			gv.base = 0.0f + tags.r128BaseGain / 256.0f;
+		if(tags.r128TrackGain != TagRecord.UNSET)
+			gv.track = 5.0f + tags.r128TrackGain / 256.0f;
+		if(tags.r128AlbumGain != TagRecord.UNSET)
+			gv.album = 5.0f + tags.r128AlbumGain / 256.0f;
 
 		return gv;
 	}
 
-	/**
-	 * Parses common replayGain string values
-	 */
-	private float getFloatFromString(String rg_raw) {
-		float rg_float = 0f;
-		try {
-			String nums = rg_raw.replaceAll("[^0-9.-]","");
-			rg_float = Float.parseFloat(nums);
-		} catch(Exception e) {}
-		return rg_float;
-	}
-
 }
-
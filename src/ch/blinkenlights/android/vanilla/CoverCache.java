@@ -28,13 +28,20 @@ import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Environment;
+import android.util.Base64InputStream;
 import android.util.Log;
 
+import ch.blinkenlights.bastp.Bastp;
+import ch.blinkenlights.bastp.TagRecord;
+
 import java.io.ByteArrayOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.util.Random;
 import java.util.regex.Pattern;
 
@@ -65,6 +72,10 @@ public class CoverCache {
 	 * Use vanilla musics SHADOW cover load mechanism
 	 */
 	public static final int COVER_MODE_SHADOW = 0x4;
+	/**
+	 * Use artwork embedded in the audio file itself
+	 */
+	public static final int COVER_MODE_INLINE = 0x8;
 	/**
 	 * Shared on-disk cache class
 	 */
@@ -140,6 +151,7 @@ public class CoverCache {
 		if (sBitmapDiskCache != null) {
 			sBitmapDiskCache.evictAll();
 		}
+		ArtworkCache.evictAll();
 	}
 
 
@@ -211,6 +223,10 @@ public class CoverCache {
 		 * Restrict lifetime of cached objects to, at most, OBJECT_TTL
 		 */
 		private final static int OBJECT_TTL = 86400*8;
+		/**
+		 * Parser used to locate embedded artwork
+		 */
+		private final Bastp mBastp = new Bastp();
 
 		/**
 		 * Creates a new BitmapDiskCache instance
@@ -394,9 +410,10 @@ public class CoverCache {
 				return null;
 			}
 
+			InputStream inputStream = null;
+			InputStream sampleInputStream = null; // same as inputStream but used for getSampleSize
+			EmbeddedPicture embedded = null;      // source of both streams if the picture is embedded
 			try {
-				InputStream inputStream = null;
-				InputStream sampleInputStream = null; // same as inputStream but used for getSampleSize
 
 				if ((CoverCache.mCoverLoadMode & CoverCache.COVER_MODE_VANILLA) != 0) {
 					final File baseFile  = new File(song.path);  // File object of queried song
@@ -443,6 +460,15 @@ public class CoverCache {
 					}
 				}
 
+				if (inputStream == null && (CoverCache.mCoverLoadMode & CoverCache.COVER_MODE_INLINE) != 0) {
+					TagRecord tags = mBastp.getTags(song.path, TagRecord.FIELD_PICTURE);
+					if (tags.pictureOffset != TagRecord.UNSET) {
+						embedded = new EmbeddedPicture(song.path, tags);
+						sampleInputStream = embedded.open();
+						inputStream = sampleInputStream; // rewound after sampling
+					}
+				}
+
 				if (inputStream == null && (CoverCache.mCoverLoadMode & CoverCache.COVER_MODE_ANDROID) != 0) {
 					Uri uri =  Uri.parse("content://media/external/audio/media/" + song.id + "/albumart");
 					ContentResolver res = mContext.getContentResolver();
@@ -457,6 +483,8 @@ public class CoverCache {
 					bopts.inJustDecodeBounds = true;
 
 					final int inSampleSize   = getSampleSize(sampleInputStream, bopts, maxPxCount);
+					if (embedded != null)
+						inputStream = embedded.open();
 
 					/* reuse bopts: we are now REALLY going to decode the image */
 					bopts.inJustDecodeBounds = false;
@@ -466,11 +494,29 @@ public class CoverCache {
 			} catch (Exception e) {
 				// no cover art found
 				Log.v("VanillaMusic", "Loading coverart for "+song+" failed with exception "+e);
+			} finally {
+				closeQuietly(inputStream);
+				closeQuietly(sampleInputStream);
+				if (embedded != null)
+					embedded.close();
 			}
 			// failed!
 			return null;
 		}
 
+		/**
+		 * Closes `stream', ignoring any errors
+		 */
+		private static void closeQuietly(InputStream stream) {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+			}
+		}
+
 		/**
 		 * Guess a good sampleSize value for given inputStream
 		 *
@@ -490,4 +536,171 @@ public class CoverCache {
 		}
 
 	}
+
+	/**
+	 * Image data embedded in an audio file, as located by bastp.
+	 * The image is read straight from the audio file, nothing is copied,
+	 * and the file is opened only once no matter how often the image is read.
+	 */
+	private static class EmbeddedPicture {
+		private final RegionInputStream mRegion;
+		private final boolean mBase64;
+		/**
+		 * Position of the image data inside the decoded region
+		 */
+		private final long mDataStart;
+
+		/**
+		 * @param path the audio file
+		 * @param tags the parsed FIELD_PICTURE of this file
+		 */
+		EmbeddedPicture(String path, TagRecord tags) throws IOException {
+			RandomAccessFile file = new RandomAccessFile(path, "r");
+			try {
+				long[] regions = tags.pictureRegions;
+				if (regions == null)
+					regions = new long[] { tags.pictureOffset, tags.pictureLength };
+				mRegion = new RegionInputStream(file, regions);
+				mBase64 = tags.pictureBase64;
+				if (mBase64) {
+					// METADATA_BLOCK_PICTURE: a base64 encoded FLAC picture block
+					DataInputStream dis = new DataInputStream(new Base64InputStream(mRegion, android.util.Base64.DEFAULT));
+					dis.readInt();                 // picture type
+					int mimeLength = dis.readInt();
+					dis.skipBytes(mimeLength);     // mime type
+					int descLength = dis.readInt();
+					// description, width, height, depth, number of colors and length of image data
+					mDataStart = 4 + 4 + mimeLength + 4 + descLength + 16 + 4;
+				} else {
+					mDataStart = 0;
+				}
+			} catch (IOException e) {
+				file.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Returns a stream of the image data, starting at its first byte.
+		 * Any stream returned earlier becomes invalid.
+		 */
+		InputStream open() throws IOException {
+			if (!mBase64) {
+				mRegion.seek(mDataStart);
+				return mRegion;
+			}
+			// every 4 encoded bytes hold 3 bytes of data: seek to the
+			// group holding mDataStart and skip the rest of it
+			mRegion.seek(mDataStart / 3 * 4);
+			InputStream is = new Base64InputStream(mRegion, android.util.Base64.DEFAULT);
+			for (long i = mDataStart % 3; i != 0; i--)
+				is.read();
+			return is;
+		}
+
+		void close() {
+			try {
+				mRegion.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	/**
+	 * InputStream returning one or more regions of a RandomAccessFile,
+	 * such as a picture split over several ogg pages.
+	 * The file is closed together with the stream.
+	 */
+	private static class RegionInputStream extends InputStream {
+		private final RandomAccessFile mFile;
+		/**
+		 * [offset, length] pairs of the regions, in stream order
+		 */
+		private final long[] mRegions;
+		private final long mLength;
+		private long mPosition;
+		/**
+		 * Index of the region holding mPosition in mRegions
+		 */
+		private int mRegion;
+		private long mRegionRemaining;
+
+		RegionInputStream(RandomAccessFile file, long[] regions) throws IOException {
+			long length = 0;
+			for (int i = 1; i < regions.length; i += 2)
+				length += regions[i];
+			mFile = file;
+			mRegions = regions;
+			mLength = length;
+			seek(0);
+		}
+
+		/**
+		 * Moves to `position', relative to the start of the stream
+		 */
+		void seek(long position) throws IOException {
+			long start = 0;
+			int i = 0;
+			while (i < mRegions.length - 2 && start + mRegions[i+1] <= position) {
+				start += mRegions[i+1];
+				i += 2;
+			}
+			mFile.seek(mRegions[i] + position - start);
+			mRegion = i;
+			mRegionRemaining = mRegions[i+1] - (position - start);
+			mPosition = position;
+		}
+
+		/**
+		 * Moves on to the next region if the current one is
+		 * exhausted, returns false at the end of the stream
+		 */
+		private boolean fill() throws IOException {
+			while (mRegionRemaining <= 0) {
+				if (mRegion + 2 >= mRegions.length)
+					return false;
+				mRegion += 2;
+				mRegionRemaining = mRegions[mRegion+1];
+				mFile.seek(mRegions[mRegion]);
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill())
+				return -1;
+			int b = mFile.read();
+			if (b != -1) {
+				mRegionRemaining--;
+				mPosition++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (!fill())
+				return -1;
+			int br = mFile.read(buffer, offset, (int)Math.min(length, mRegionRemaining));
+			if (br > 0) {
+				mRegionRemaining -= br;
+				mPosition += br;
+			}
+			return br;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			n = Math.max(0, Math.min(n, mLength - mPosition));
+			seek(mPosition + n);
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			mFile.close();
+		}
+	}
 }
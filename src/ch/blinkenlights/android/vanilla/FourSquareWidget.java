@@ -109,7 +109,7 @@ public class FourSquareWidget extends AppWidgetProvider {
 			views.setViewVisibility(R.id.buttons, View.VISIBLE);
 			views.setTextViewText(R.id.title, song.title);
 			views.setTextViewText(R.id.artist, song.artist);
-			cover = song.getCover(context);
+			cover = ArtworkCache.getCover(context, song, CoverCache.SIZE_LARGE);
 			playResource = playing ? R.drawable.hidden_pause : R.drawable.hidden_play;
 			nextResource = R.drawable.hidden_next;
 		}
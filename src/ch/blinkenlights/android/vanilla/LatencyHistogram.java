@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.android.vanilla;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size histogram of latencies.
+ *
+ * Values are kept in log-linear buckets (8 per power of two), so percentiles
+ * have an error of at most 12.5%. Recording never allocates and is cheap
+ * enough to be done on every song change.
+ *
+ * This class must not depend on any android classes.
+ */
+public class LatencyHistogram {
+	/**
+	 * log2 of the number of buckets per power of two
+	 */
+	private static final int SUB_BITS = 3;
+	/**
+	 * Number of buckets per power of two
+	 */
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	/**
+	 * Occurrences of each bucket
+	 */
+	private final long[] mBuckets = new long[(64 - SUB_BITS + 1) * SUB_COUNT];
+	/**
+	 * Number of recorded values
+	 */
+	private long mCount;
+	/**
+	 * Largest recorded value
+	 */
+	private long mMax;
+
+	/**
+	 * Adds a value to the histogram
+	 *
+	 * @param value The latency to add, negative values count as 0
+	 */
+	public synchronized void record(long value) {
+		if (value < 0)
+			value = 0;
+		mBuckets[indexOf(value)]++;
+		mCount++;
+		if (value > mMax)
+			mMax = value;
+	}
+
+	/**
+	 * Returns the number of recorded values
+	 */
+	public synchronized long getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Returns the largest recorded value, 0 if the histogram is empty
+	 */
+	public synchronized long getMax() {
+		return mMax;
+	}
+
+	/**
+	 * Returns the value below which the given fraction of all
+	 * recorded values fall
+	 *
+	 * @param fraction The percentile to return, eg. 0.95
+	 * @return the upper bound of the bucket holding the percentile,
+	 *  0 if the histogram is empty
+	 */
+	public synchronized long getPercentile(double fraction) {
+		long rank = (long)Math.ceil(fraction * mCount);
+		if (rank < 1)
+			rank = 1;
+		long seen = 0;
+		for (int i = 0; i < mBuckets.length; i++) {
+			seen += mBuckets[i];
+			if (seen >= rank)
+				return Math.min(upperBoundOf(i), mMax);
+		}
+		return 0;
+	}
+
+	/**
+	 * Drops all recorded values
+	 */
+	public synchronized void reset() {
+		Arrays.fill(mBuckets, 0);
+		mCount = 0;
+		mMax = 0;
+	}
+
+	/**
+	 * Returns the bucket of a (non negative) value
+	 */
+	private static int indexOf(long value) {
+		if (value < SUB_COUNT)
+			return (int)value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	/**
+	 * Returns the largest value falling into given bucket
+	 */
+	private static long upperBoundOf(int index) {
+		if (index < SUB_COUNT)
+			return index;
+		int exp = index / SUB_COUNT + SUB_BITS - 1;
+		int sub = index % SUB_COUNT;
+		long lower = (long)(SUB_COUNT + sub) << (exp - SUB_BITS);
+		return lower + (1L << (exp - SUB_BITS)) - 1;
+	}
+}
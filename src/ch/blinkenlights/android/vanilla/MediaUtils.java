@@ -23,11 +23,8 @@
 package ch.blinkenlights.android.vanilla;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.Vector;
 import java.util.zip.CRC32;
@@ -48,6 +45,9 @@ import android.media.MediaMetadataRetriever;
 import android.util.Log;
 import android.widget.Toast;
 
+import ch.blinkenlights.bastp.Bastp;
+import ch.blinkenlights.bastp.TagRecord;
+
 
 /**
  * Provides some static Song/MediaStore-related utility functions.
@@ -362,13 +362,7 @@ public class MediaUtils {
 	 */
 	public static void shuffle(long[] list)
 	{
-		Random random = getRandom();
-		for (int i = list.length; --i != -1; ) {
-			int j = random.nextInt(i + 1);
-			long tmp = list[j];
-			list[j] = list[i];
-			list[i] = tmp;
-		}
+		ShuffleUtils.shuffle(list, getRandom());
 	}
 
 	/**
@@ -378,49 +372,37 @@ public class MediaUtils {
 	 */
 	public static void shuffle(List<Song> list, boolean albumShuffle)
 	{
-		int size = list.size();
-		if (size < 2)
+		shuffle(list, albumShuffle, getRandom());
+	}
+
+	/**
+	 * Shuffle a Song list using the given random number generator.
+	 *
+	 * @param albumShuffle If true, preserve the order of tracks inside albums.
+	 * @param random The random number generator to use
+	 */
+	public static void shuffle(List<Song> list, boolean albumShuffle, Random random)
+	{
+		if (list.size() < 2)
 			return;
 
-		Random random = getRandom();
 		if (albumShuffle) {
-			List<Song> tempList = new ArrayList<Song>(list);
-			Collections.sort(tempList);
-
-			// Build map of albumId to start index in sorted list
-			Map<Long, Integer> albumStartIndices = new HashMap<Long, Integer>();
-			int index = 0;
-			for (Song song : tempList) {
-				if (!albumStartIndices.containsKey(song.albumId)) {
-					albumStartIndices.put(song.albumId, index);
-				}
-				index++;
-			}
-
-			//Extract album list and shuffle
-			List<Long> shuffledAlbums = new ArrayList<Long>(albumStartIndices.keySet());
-			Collections.shuffle(shuffledAlbums, random);
-
-			//Build Song list from album list
-			list.clear();
-			for (Long albumId : shuffledAlbums) {
-				int songIndex = albumStartIndices.get(albumId);
-				Song song = tempList.get(songIndex);
-				do {
-					list.add(song);
-					songIndex++;
-					if (songIndex < size) {
-						song = tempList.get(songIndex);
-					} else {
-						break;
-					}
-				} while (albumId == song.albumId);
-			}
+			ShuffleUtils.shuffleGroups(list, ALBUM_KEY, random);
 		} else {
 			Collections.shuffle(list, random);
 		}
 	}
 
+	/**
+	 * Groups songs by their album, used for album shuffle
+	 */
+	private static final ShuffleUtils.GroupKey<Song> ALBUM_KEY = new ShuffleUtils.GroupKey<Song>() {
+		@Override
+		public long getGroup(Song song) {
+			return song.albumId;
+		}
+	};
+
 	/**
 	 * Determine if any songs are available from the library.
 	 *
@@ -503,6 +485,33 @@ public class MediaUtils {
 		return cursor;
 	}
 
+	/**
+	 * Queries the songs with the ids from `from' (inclusive) to `to'
+	 * (exclusive) of `ids', ordered by id. Songs which no longer exist
+	 * in the MediaStore are not returned.
+	 *
+	 * @param resolver The content resolver to use
+	 * @param ids The song ids
+	 * @param from First index of ids to query
+	 * @param to Index after the last id to query
+	 * @param projection the projection to use
+	 *
+	 * @return a cursor or null
+	 */
+	public static Cursor queryIds(ContentResolver resolver, long[] ids, int from, int to, String[] projection)
+	{
+		StringBuilder selection = new StringBuilder("_ID IN (");
+		for (int i = from; i != to; ++i) {
+			if (i != from)
+				selection.append(',');
+			selection.append(ids[i]);
+		}
+		selection.append(')');
+
+		Uri media = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+		return queryResolver(resolver, media, projection, selection.toString(), null, "_id");
+	}
+
 	public static void onMediaChange()
 	{
 		sSongCount = -1;
@@ -715,6 +724,11 @@ public class MediaUtils {
 			if (duration != null)
 				objData[7] = Long.parseLong(duration, 10);
 
+			// The retriever only estimates the length of some formats (eg. VBR mp3)
+			TagRecord tags = (new Bastp()).getTags(path, TagRecord.FIELD_DURATION);
+			if (tags.duration > 0)
+				objData[7] = tags.duration;
+
 			matrixCursor.addRow(objData);
 		}
 
@@ -114,7 +114,7 @@ public class OneCellWidget extends AppWidgetProvider {
 			views.setInt(R.id.title, "setText", R.string.app_name);
 		} else {
 			views.setTextViewText(R.id.title, song.title);
-			cover = song.getCover(context);
+			cover = ArtworkCache.getCover(context, song, CoverCache.SIZE_LARGE);
 		}
 
 		if (cover == null) {
@@ -452,15 +452,10 @@ public abstract class PlaybackActivity extends Activity
 		}
 		case MSG_ADD_QUEUE_TO_PLAYLIST: {
 			PlaylistTask playlistTask = (PlaylistTask)message.obj;
-			playlistTask.audioIds = new ArrayList<Long>();
-			Song song;
-			PlaybackService service = PlaybackService.get(this);
-			for (int i=0; ; i++) {
-				song = service.getSongByQueuePosition(i);
-				if (song == null)
-					break;
-				playlistTask.audioIds.add(song.id);
-			}
+			long[] ids = PlaybackService.get(this).getQueueIds();
+			playlistTask.audioIds = new ArrayList<Long>(ids.length);
+			for (long id : ids)
+				playlistTask.audioIds.add(id);
 			addToPlaylist(playlistTask);
 			break;
 		}
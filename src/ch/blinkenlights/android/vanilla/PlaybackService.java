@@ -60,12 +60,11 @@ import android.util.Log;
 import android.view.View;
 import android.widget.RemoteViews;
 import android.widget.Toast;
+import ch.blinkenlights.bastp.Bastp;
 import java.lang.Math;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 
 
@@ -86,14 +85,9 @@ public final class PlaybackService extends Service
 	 */
 	private static final String STATE_FILE = "state";
 	/**
-	 * Header for state file to help indicate if the file is in the right
-	 * format.
+	 * Name of the journal holding the changes since the state file was written.
 	 */
-	private static final long STATE_FILE_MAGIC = 0x1533574DC74B6ECL;
-	/**
-	 * State file version that indicates data order.
-	 */
-	private static final int STATE_VERSION = 6;
+	private static final String JOURNAL_FILE = "state.journal";
 
 	private static final int NOTIFICATION_ID = 2;
 
@@ -212,6 +206,33 @@ public final class PlaybackService extends Service
 	 * Save the current playlist state on queue changes after this time (in ms).
 	 */
 	private static final int SAVE_STATE_DELAY = 5000;
+	/**
+	 * Number of queued songs following the current one to read ahead.
+	 */
+	private static final int READAHEAD_NEXT_SONGS = 2;
+	/**
+	 * Positions (relative to the current song) the spare players
+	 * of the warm pool are filled with, in order of preference.
+	 * The next song is covered by mPreparedMediaPlayer.
+	 */
+	private static final int[] WARM_DELTAS = { -1, 2 };
+	/**
+	 * Changes arriving within this time (in ms) are published to the
+	 * widgets, remote control and broadcasts at once.
+	 */
+	private static final int PUBLISH_DELAY = 50;
+	/**
+	 * The sinks of publishChange(), indexes into mSinks
+	 */
+	private static final int SINK_WIDGETS = 0;
+	private static final int SINK_REMOTE = 1;
+	private static final int SINK_BROADCAST = 2;
+	private static final int SINK_READAHEAD = 3;
+	private static final int SINK_PREFETCH = 4;
+	/**
+	 * Names of the sinks, used by dumpDebugStats()
+	 */
+	private static final String[] SINK_NAMES = { "widgets", "remote control", "broadcasts", "readahead", "replaygain prefetch" };
 	/**
 	 * If set, music will play.
 	 */
@@ -321,6 +342,31 @@ public final class PlaybackService extends Service
 	VanillaMediaPlayer mMediaPlayer;
 	VanillaMediaPlayer mPreparedMediaPlayer;
 	private boolean mMediaPlayerInitialized;
+	/**
+	 * The asynchronous prepare of mMediaPlayer in flight, null if none
+	 */
+	private PrepareRequest mCurrentPrepare;
+	/**
+	 * The asynchronous prepare of mPreparedMediaPlayer in flight, null if none
+	 */
+	private PrepareRequest mNextPrepare;
+	/**
+	 * Spare media players holding songs near the current one,
+	 * see triggerWarmUpdate()
+	 */
+	private final ArrayList<WarmPlayer> mWarmPlayers = new ArrayList<WarmPlayer>(2);
+	/**
+	 * The number of spare players to keep
+	 */
+	private int mPlayerPoolSize;
+	/**
+	 * The data last pushed to each sink of publishChange()
+	 */
+	private final PublishedState[] mSinks = new PublishedState[SINK_NAMES.length];
+	/**
+	 * Set if a song change arrived since the last publishChange() call
+	 */
+	private boolean mPublishSongChanged;
 	private boolean mMediaPlayerAudioFxActive;
 	private PowerManager.WakeLock mWakeLock;
 	private NotificationManager mNotificationManager;
@@ -335,6 +381,10 @@ public final class PlaybackService extends Service
 	private RemoteControl.Client mRemoteControlClient;
 
 	SongTimeline mTimeline;
+	/**
+	 * Persists the state of mTimeline
+	 */
+	private QueueJournal mJournal;
 	private Song mCurrentSong;
 
 	/**
@@ -400,6 +450,10 @@ public final class PlaybackService extends Service
 	private boolean mReplayGainAlbumEnabled;
 	private int mReplayGainBump;
 	private int mReplayGainUntaggedDeBump;
+	/**
+	 * How many upcoming songs to prefetch replay gain values for
+	 */
+	private int mReplayGainPrefetch;
 	/**
 	 * Percentage to set the volume as while a notification is playing (aka ducking)
 	 */
@@ -420,6 +474,10 @@ public final class PlaybackService extends Service
 	 * Reference to precreated BASTP Object
 	 */
 	private BastpUtil mBastpUtil;
+	/**
+	 * Resolves replay gain values ahead of time
+	 */
+	private ReplayGainPrefetcher mReplayGainPrefetcher;
 	/**
 	 * Reference to Playcounts helper class
 	 */
@@ -433,16 +491,21 @@ public final class PlaybackService extends Service
 
 		mTimeline = new SongTimeline(this);
 		mTimeline.setCallback(this);
+		mJournal = new QueueJournal(new File(getFilesDir(), STATE_FILE), new File(getFilesDir(), JOURNAL_FILE));
 		int state = loadState();
 
 		mPlayCounts = new PlayCountsHelper(this);
 
+		for (int i = 0; i < mSinks.length; i++)
+			mSinks[i] = new PublishedState();
+
 		mMediaPlayer = getNewMediaPlayer();
 		mPreparedMediaPlayer = getNewMediaPlayer();
 		// We only have a single audio session
 		mPreparedMediaPlayer.setAudioSessionId(mMediaPlayer.getAudioSessionId());
 
-		mBastpUtil = new BastpUtil();
+		mBastpUtil = new BastpUtil(this);
+		mReplayGainPrefetcher = new ReplayGainPrefetcher(mBastpUtil);
 		mReadahead = new ReadaheadThread();
 
 		mNotificationManager = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
@@ -458,6 +521,7 @@ public final class PlaybackService extends Service
 		CoverCache.mCoverLoadMode = settings.getBoolean(PrefKeys.COVERLOADER_ANDROID, PrefDefaults.COVERLOADER_ANDROID) ? CoverCache.mCoverLoadMode | CoverCache.COVER_MODE_ANDROID : CoverCache.mCoverLoadMode & ~(CoverCache.COVER_MODE_ANDROID);
 		CoverCache.mCoverLoadMode = settings.getBoolean(PrefKeys.COVERLOADER_VANILLA, PrefDefaults.COVERLOADER_VANILLA) ? CoverCache.mCoverLoadMode | CoverCache.COVER_MODE_VANILLA : CoverCache.mCoverLoadMode & ~(CoverCache.COVER_MODE_VANILLA);
 		CoverCache.mCoverLoadMode = settings.getBoolean(PrefKeys.COVERLOADER_SHADOW , PrefDefaults.COVERLOADER_SHADOW)  ? CoverCache.mCoverLoadMode | CoverCache.COVER_MODE_SHADOW  : CoverCache.mCoverLoadMode & ~(CoverCache.COVER_MODE_SHADOW);
+		CoverCache.mCoverLoadMode = settings.getBoolean(PrefKeys.COVERLOADER_INLINE , PrefDefaults.COVERLOADER_INLINE)  ? CoverCache.mCoverLoadMode | CoverCache.COVER_MODE_INLINE  : CoverCache.mCoverLoadMode & ~(CoverCache.COVER_MODE_INLINE);
 
 		mHeadsetOnly = settings.getBoolean(PrefKeys.HEADSET_ONLY, PrefDefaults.HEADSET_ONLY);
 		mStockBroadcast = settings.getBoolean(PrefKeys.STOCK_BROADCAST, PrefDefaults.STOCK_BROADCAST);
@@ -470,12 +534,16 @@ public final class PlaybackService extends Service
 		mReplayGainAlbumEnabled = settings.getBoolean(PrefKeys.ENABLE_ALBUM_REPLAYGAIN, PrefDefaults.ENABLE_ALBUM_REPLAYGAIN);
 		mReplayGainBump = settings.getInt(PrefKeys.REPLAYGAIN_BUMP, PrefDefaults.REPLAYGAIN_BUMP);
 		mReplayGainUntaggedDeBump = settings.getInt(PrefKeys.REPLAYGAIN_UNTAGGED_DEBUMP, PrefDefaults.REPLAYGAIN_UNTAGGED_DEBUMP);
+		mReplayGainPrefetch = settings.getInt(PrefKeys.REPLAYGAIN_PREFETCH, PrefDefaults.REPLAYGAIN_PREFETCH);
 
 		mVolumeDuringDucking = settings.getInt(PrefKeys.VOLUME_DURING_DUCKING, PrefDefaults.VOLUME_DURING_DUCKING);
 		mIgnoreAudioFocusLoss = settings.getBoolean(PrefKeys.IGNORE_AUDIOFOCUS_LOSS, PrefDefaults.IGNORE_AUDIOFOCUS_LOSS);
 		refreshDuckingValues();
 
 		mReadaheadEnabled = settings.getBoolean(PrefKeys.ENABLE_READAHEAD, PrefDefaults.ENABLE_READAHEAD);
+		mReadahead.setLead(settings.getInt(PrefKeys.READAHEAD_LEAD, PrefDefaults.READAHEAD_LEAD));
+		mReadahead.setMode(Integer.parseInt(settings.getString(PrefKeys.READAHEAD_MODE, PrefDefaults.READAHEAD_MODE)));
+		mPlayerPoolSize = Integer.parseInt(settings.getString(PrefKeys.PLAYER_POOL_SIZE, PrefDefaults.PLAYER_POOL_SIZE));
 
 		mAutoPlPlaycounts = settings.getInt(PrefKeys.AUTOPLAYLIST_PLAYCOUNTS, PrefDefaults.AUTOPLAYLIST_PLAYCOUNTS);
 
@@ -500,6 +568,8 @@ public final class PlaybackService extends Service
 
 		updateState(state);
 		setCurrentSong(0);
+		// the songs away from the current one are still placeholders
+		mTimeline.populateInBackground();
 
 		sInstance = this;
 		synchronized (sWait) {
@@ -582,12 +652,24 @@ public final class PlaybackService extends Service
 		sInstance = null;
 
 		mLooper.quit();
+		mReplayGainPrefetcher.quit();
 
 		// clear the notification
 		stopForeground(true);
 
 		// defer wakelock and close audioFX
 		enterSleepState();
+		mJournal.close();
+
+		// outstanding prepares must not touch the released players
+		mCurrentPrepare = null;
+		mNextPrepare = null;
+
+		for (WarmPlayer warm : mWarmPlayers) {
+			warm.request = null;
+			warm.player.release();
+		}
+		mWarmPlayers.clear();
 
 		if (mMediaPlayer != null) {
 			mMediaPlayer.release();
@@ -614,6 +696,13 @@ public final class PlaybackService extends Service
 		super.onDestroy();
 	}
 
+	@Override
+	public void onTrimMemory(int level)
+	{
+		super.onTrimMemory(level);
+		ArtworkCache.trimMemory(level);
+	}
+
 	/**
 	 * Returns a new MediaPlayer object
 	 */
@@ -625,10 +714,267 @@ public final class PlaybackService extends Service
 		return mp;
 	}
 
-	public void prepareMediaPlayer(VanillaMediaPlayer mp, String path) throws IOException{
-		mp.setDataSource(path);
-		mp.prepare();
+	/**
+	 * An asynchronous prepare of a media player. The outcome is
+	 * handed to the service thread as MSG_PREPARE_DONE.
+	 *
+	 * A request is superseded (and its outcome ignored) once it is no
+	 * longer referenced by mCurrentPrepare or mNextPrepare.
+	 */
+	private class PrepareRequest implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener {
+		final VanillaMediaPlayer player;
+		final Song song;
+		/**
+		 * Whether we were playing when the song change started
+		 */
+		final boolean playing;
+		final long startTime = System.nanoTime();
+
+		PrepareRequest(VanillaMediaPlayer player, Song song, boolean playing) {
+			this.player = player;
+			this.song = song;
+			this.playing = playing;
+		}
+
+		@Override
+		public void onPrepared(MediaPlayer mp) {
+			mHandler.sendMessage(mHandler.obtainMessage(MSG_PREPARE_DONE, 1, 0, this));
+		}
+
+		@Override
+		public boolean onError(MediaPlayer mp, int what, int extra) {
+			Log.e("VanillaMusic", "MediaPlayer error while preparing: " + what + ' ' + extra);
+			mHandler.sendMessage(mHandler.obtainMessage(MSG_PREPARE_DONE, 0, 0, this));
+			return true;
+		}
+	}
+
+	/**
+	 * Sets the data source of a media player and starts to prepare it
+	 * in the background
+	 *
+	 * @param mp The media player to prepare, must be in reset() state
+	 * @param song The song to load
+	 * @param playing Whether we were playing when the song change started
+	 * @return the request, completed by onPrepareDone()
+	 */
+	private PrepareRequest prepareMediaPlayer(VanillaMediaPlayer mp, Song song, boolean playing) throws IOException {
+		long start = System.nanoTime();
+		mp.setDataSource(song.path);
+		TransitionStats.record(TransitionStats.SET_DATA_SOURCE, start);
+
+		PrepareRequest request = new PrepareRequest(mp, song, playing);
+		mp.setOnPreparedListener(request);
+		mp.setOnErrorListener(request);
+		mp.prepareAsync();
+		return request;
+	}
+
+	/**
+	 * A spare media player of the warm pool
+	 */
+	private static class WarmPlayer {
+		VanillaMediaPlayer player;
+		/**
+		 * The prepare of player in flight, null if the player
+		 * is prepared or reset
+		 */
+		PrepareRequest request;
+
+		WarmPlayer(VanillaMediaPlayer player) {
+			this.player = player;
+		}
+	}
+
+	/**
+	 * Resets a media player, superseding any prepare in flight
+	 */
+	private void resetMediaPlayer(VanillaMediaPlayer mp) {
+		if (mCurrentPrepare != null && mCurrentPrepare.player == mp)
+			mCurrentPrepare = null;
+		if (mNextPrepare != null && mNextPrepare.player == mp)
+			mNextPrepare = null;
+		for (WarmPlayer warm : mWarmPlayers) {
+			if (warm.request != null && warm.request.player == mp)
+				warm.request = null;
+		}
+		mp.setOnErrorListener(this);
+		mp.reset();
+	}
+
+	/**
+	 * Called on the service thread once a prepare request finished
+	 *
+	 * @param request The finished request
+	 * @param success false if the media player reported an error
+	 */
+	private void onPrepareDone(PrepareRequest request, boolean success) {
+		VanillaMediaPlayer mp = request.player;
+
+		if (request == mCurrentPrepare) {
+			mCurrentPrepare = null;
+			mp.setOnErrorListener(this);
+			if (success) {
+				TransitionStats.record(TransitionStats.PREPARE, request.startTime);
+				applyReplayGainTimed(mp);
+				onSongLoaded(request.song);
+			} else {
+				mp.reset();
+				onSongLoadFailed(request.song, request.playing);
+			}
+			updateNotification();
+		} else if (request == mNextPrepare) {
+			mNextPrepare = null;
+			mp.setOnErrorListener(this);
+			if (success) {
+				TransitionStats.record(TransitionStats.PREPARE, request.startTime);
+				applyReplayGainTimed(mp);
+				// links the player if it is still the next one
+				triggerGaplessUpdate();
+			} else {
+				mp.reset();
+			}
+		} else {
+			for (WarmPlayer warm : mWarmPlayers) {
+				if (request == warm.request) {
+					warm.request = null;
+					mp.setOnErrorListener(this);
+					if (success) {
+						applyReplayGain(mp);
+					} else {
+						mp.reset();
+					}
+				}
+			}
+		}
+		// else: superseded by a newer request, the player was reset already
+	}
+
+	/**
+	 * Moves a ready player holding `song' into mMediaPlayer, just like
+	 * the gapless swap in processSong(). The previous mMediaPlayer takes
+	 * its place and stays prepared, so skipping back is instant, too.
+	 *
+	 * @param song The song to look for
+	 * @return true if mMediaPlayer now holds song
+	 */
+	private boolean swapInWarmPlayer(Song song) {
+		VanillaMediaPlayer old = mMediaPlayer;
+
+		if (mNextPrepare == null && song.path.equals(mPreparedMediaPlayer.getDataSource())) {
+			parkMediaPlayer(old);
+			mMediaPlayer = mPreparedMediaPlayer;
+			mPreparedMediaPlayer = old;
+			return true;
+		}
+
+		for (WarmPlayer warm : mWarmPlayers) {
+			if (warm.request == null && song.path.equals(warm.player.getDataSource())) {
+				parkMediaPlayer(old);
+				mMediaPlayer = warm.player;
+				warm.player = old;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Rewinds the (former) current media player so that it can be used
+	 * as a spare player, the player is reset if it was not prepared
+	 */
+	private void parkMediaPlayer(VanillaMediaPlayer mp) {
+		if (mp.hasNextMediaPlayer())
+			mp.setNextMediaPlayer(null);
+
+		if (mCurrentPrepare != null || mp.getDataSource() == null) {
+			resetMediaPlayer(mp);
+		} else {
+			if (mp.isPlaying())
+				mp.pause();
+			mp.seekTo(0);
+		}
+	}
+
+	/**
+	 * Fills the spare players of the warm pool with the songs at
+	 * WARM_DELTAS, up to mPlayerPoolSize of them. Players still holding
+	 * a wanted song are kept, all others are reset.
+	 */
+	private void triggerWarmUpdate() {
+		if (mMediaPlayerInitialized != true)
+			return;
+
+		while (mWarmPlayers.size() > mPlayerPoolSize) {
+			WarmPlayer warm = mWarmPlayers.remove(mWarmPlayers.size() - 1);
+			resetMediaPlayer(warm.player);
+			warm.player.release();
+		}
+		while (mWarmPlayers.size() < mPlayerPoolSize) {
+			VanillaMediaPlayer mp = getNewMediaPlayer();
+			mp.setAudioSessionId(mMediaPlayer.getAudioSessionId());
+			mp.setDuckingFactor(((float) mVolumeDuringDucking)/100f);
+			mp.setIsDucking((mState & FLAG_DUCKING) != 0);
+			mWarmPlayers.add(new WarmPlayer(mp));
+		}
+
+		String currentPath = mMediaPlayer.getDataSource();
+		Song next = getSong(1);
+		String nextPath = (next == null ? null : next.path);
+
+		ArrayList<Song> wanted = new ArrayList<Song>(WARM_DELTAS.length);
+		for (int i = 0; i < mPlayerPoolSize && i < WARM_DELTAS.length; i++) {
+			Song song = getSong(WARM_DELTAS[i]);
+			if (song != null && !song.path.equals(currentPath) && !song.path.equals(nextPath))
+				wanted.add(song);
+		}
+
+		// keep all players which hold (or prepare) a wanted song
+		ArrayList<WarmPlayer> unused = new ArrayList<WarmPlayer>(mWarmPlayers.size());
+		for (WarmPlayer warm : mWarmPlayers) {
+			String path = warm.player.getDataSource();
+			boolean keep = false;
+			for (int i = wanted.size(); --i != -1; ) {
+				if (wanted.get(i).path.equals(path)) {
+					wanted.remove(i);
+					keep = true;
+				}
+			}
+			if (!keep)
+				unused.add(warm);
+		}
+
+		for (WarmPlayer warm : unused) {
+			resetMediaPlayer(warm.player);
+			if (wanted.isEmpty())
+				continue;
+
+			Song song = wanted.remove(0);
+			if (mNextPrepare == null && song.path.equals(mPreparedMediaPlayer.getDataSource())) {
+				// the gapless player holds this song (eg. after a skip to the next song):
+				// exchange the players, triggerGaplessUpdate() prepares the reset one
+				if (mMediaPlayer.hasNextMediaPlayer())
+					mMediaPlayer.setNextMediaPlayer(null);
+				VanillaMediaPlayer tmpPlayer = warm.player;
+				warm.player = mPreparedMediaPlayer;
+				mPreparedMediaPlayer = tmpPlayer;
+			} else {
+				try {
+					warm.request = prepareMediaPlayer(warm.player, song, false);
+				} catch (IOException e) {
+					resetMediaPlayer(warm.player);
+				}
+			}
+		}
+	}
+
+	/**
+	 * applyReplayGain(), recorded in TransitionStats
+	 */
+	private void applyReplayGainTimed(VanillaMediaPlayer mp) {
+		long start = System.nanoTime();
 		applyReplayGain(mp);
+		TransitionStats.record(TransitionStats.APPLY_REPLAY_GAIN, start);
 	}
 
 	/**
@@ -660,12 +1006,16 @@ public final class PlaybackService extends Service
 	private void refreshReplayGainValues() {
 		applyReplayGain(mMediaPlayer);
 		applyReplayGain(mPreparedMediaPlayer);
+		for (WarmPlayer warm : mWarmPlayers)
+			applyReplayGain(warm.player);
 	}
 
 	private void refreshDuckingValues() {
 		float duckingFactor = ((float) mVolumeDuringDucking)/100f;
 		mMediaPlayer.setDuckingFactor(duckingFactor);
 		mPreparedMediaPlayer.setDuckingFactor(duckingFactor);
+		for (WarmPlayer warm : mWarmPlayers)
+			warm.player.setDuckingFactor(duckingFactor);
 	}
 
 	/***
@@ -711,6 +1061,35 @@ public final class PlaybackService extends Service
 		mp.setReplayGain(rg_result);
 	}
 
+	/**
+	 * Asks the prefetcher to resolve the replay gain values
+	 * of the current and the next mReplayGainPrefetch songs
+	 */
+	private void triggerReplayGainPrefetch() {
+		if (mReplayGainPrefetch > 0 && (mReplayGainAlbumEnabled || mReplayGainTrackEnabled))
+			mReplayGainPrefetcher.prefetch(mTimeline.getUpcomingPaths(mReplayGainPrefetch));
+	}
+
+	/**
+	 * Returns the replaygain cache, for its hit and miss counters
+	 */
+	public BastpUtil getBastpUtil() {
+		return mBastpUtil;
+	}
+
+	/**
+	 * Writes the transition latencies and the counters of the
+	 * caches and readahead used during song changes to `pw'
+	 */
+	public void dumpDebugStats(PrintWriter pw) {
+		TransitionStats.dump(pw);
+		pw.println("replaygain cache: "+mBastpUtil.getCacheHits()+" hits, "+mBastpUtil.getCacheMisses()+" misses");
+		pw.println("readahead: "+(mReadahead.getThroughput() / 1024)+" KB/s, "+mReadahead.getStalls()+" stalls");
+		pw.println("bastp: "+Bastp.getSkippedFields()+" fields ("+Bastp.getSkippedBytes()+" bytes) skipped");
+		for (int i = 0; i < SINK_NAMES.length; i++)
+			pw.println(SINK_NAMES[i]+": "+mSinks[i].suppressed+" updates suppressed");
+	}
+
 	/**
 	 * Returns the (hopefully cached) replaygain
 	 * values of given file
@@ -767,19 +1146,21 @@ public final class PlaybackService extends Service
 			try {
 				if(nextSong.path.equals(mPreparedMediaPlayer.getDataSource()) == false) {
 					// Prepared MP has a different data source: We need to re-initalize
-					// it and set it as the next MP for the active media player
-					mPreparedMediaPlayer.reset();
-					prepareMediaPlayer(mPreparedMediaPlayer, nextSong.path);
-					mMediaPlayer.setNextMediaPlayer(mPreparedMediaPlayer);
+					// it, it is set as the next MP for the active media player once
+					// the prepare finished (see onPrepareDone)
+					if(mMediaPlayer.hasNextMediaPlayer())
+						mMediaPlayer.setNextMediaPlayer(null);
+					resetMediaPlayer(mPreparedMediaPlayer);
+					mNextPrepare = prepareMediaPlayer(mPreparedMediaPlayer, nextSong, false);
 				}
-				if(mMediaPlayer.hasNextMediaPlayer() == false) {
+				if(mNextPrepare == null && mMediaPlayer.hasNextMediaPlayer() == false) {
 					// We can reuse the prepared MediaPlayer but the current instance lacks
 					// a link to it
 					mMediaPlayer.setNextMediaPlayer(mPreparedMediaPlayer);
 				}
 			} catch (IOException e) {
 				mMediaPlayer.setNextMediaPlayer(null);
-				mPreparedMediaPlayer.reset();
+				resetMediaPlayer(mPreparedMediaPlayer);
 			}
 		} else {
 			if(mMediaPlayer.hasNextMediaPlayer()) {
@@ -795,7 +1176,10 @@ public final class PlaybackService extends Service
 	private void triggerReadAhead() {
 		Song song = mCurrentSong;
 		if((mState & FLAG_PLAYING) != 0 && song != null) {
-			mReadahead.setSource(song.path);
+			ArrayList<String> next = mTimeline.getUpcomingPaths(READAHEAD_NEXT_SONGS);
+			if (!next.isEmpty())
+				next.remove(0); // the current song
+			mReadahead.setSource(song, getPosition(), next);
 		} else {
 			mReadahead.pause();
 		}
@@ -851,8 +1235,11 @@ public final class PlaybackService extends Service
 		} else if (PrefKeys.MEDIA_BUTTON.equals(key) || PrefKeys.MEDIA_BUTTON_BEEP.equals(key)) {
 			MediaButtonReceiver.reloadPreference(this);
 			mRemoteControlClient.initializeRemote();
+			// the new remote must get the current song on the next event
+			mSinks[SINK_REMOTE].valid = false;
 		} else if (PrefKeys.COVER_ON_LOCKSCREEN.equals(key)) {
 			mRemoteControlClient.reloadPreference();
+			mSinks[SINK_REMOTE].valid = false;
 		} else if (PrefKeys.USE_IDLE_TIMEOUT.equals(key) || PrefKeys.IDLE_TIMEOUT.equals(key)) {
 			mIdleTimeout = settings.getBoolean(PrefKeys.USE_IDLE_TIMEOUT, PrefDefaults.USE_IDLE_TIMEOUT) ? settings.getInt(PrefKeys.IDLE_TIMEOUT, PrefDefaults.IDLE_TIMEOUT) : 0;
 			userActionTriggered();
@@ -865,6 +1252,9 @@ public final class PlaybackService extends Service
 		} else if (PrefKeys.COVERLOADER_SHADOW.equals(key)) {
 			CoverCache.mCoverLoadMode = settings.getBoolean(PrefKeys.COVERLOADER_SHADOW, PrefDefaults.COVERLOADER_SHADOW) ? CoverCache.mCoverLoadMode | CoverCache.COVER_MODE_SHADOW : CoverCache.mCoverLoadMode & ~(CoverCache.COVER_MODE_SHADOW);
 			CoverCache.evictAll();
+		} else if (PrefKeys.COVERLOADER_INLINE.equals(key)) {
+			CoverCache.mCoverLoadMode = settings.getBoolean(PrefKeys.COVERLOADER_INLINE, PrefDefaults.COVERLOADER_INLINE) ? CoverCache.mCoverLoadMode | CoverCache.COVER_MODE_INLINE : CoverCache.mCoverLoadMode & ~(CoverCache.COVER_MODE_INLINE);
+			CoverCache.evictAll();
 		} else if (PrefKeys.HEADSET_ONLY.equals(key)) {
 			mHeadsetOnly = settings.getBoolean(key, PrefDefaults.HEADSET_ONLY);
 			if (mHeadsetOnly && isSpeakerOn())
@@ -888,6 +1278,9 @@ public final class PlaybackService extends Service
 		} else if (PrefKeys.REPLAYGAIN_UNTAGGED_DEBUMP.equals(key)) {
 			mReplayGainUntaggedDeBump = settings.getInt(PrefKeys.REPLAYGAIN_UNTAGGED_DEBUMP, PrefDefaults.REPLAYGAIN_UNTAGGED_DEBUMP);
 			refreshReplayGainValues();
+		} else if (PrefKeys.REPLAYGAIN_PREFETCH.equals(key)) {
+			mReplayGainPrefetch = settings.getInt(PrefKeys.REPLAYGAIN_PREFETCH, PrefDefaults.REPLAYGAIN_PREFETCH);
+			triggerReplayGainPrefetch();
 		} else if (PrefKeys.VOLUME_DURING_DUCKING.equals(key)) {
 			mVolumeDuringDucking = settings.getInt(PrefKeys.VOLUME_DURING_DUCKING, PrefDefaults.VOLUME_DURING_DUCKING);
 			refreshDuckingValues();
@@ -895,6 +1288,13 @@ public final class PlaybackService extends Service
 			mIgnoreAudioFocusLoss = settings.getBoolean(PrefKeys.IGNORE_AUDIOFOCUS_LOSS, PrefDefaults.IGNORE_AUDIOFOCUS_LOSS);
 		} else if (PrefKeys.ENABLE_READAHEAD.equals(key)) {
 			mReadaheadEnabled = settings.getBoolean(PrefKeys.ENABLE_READAHEAD, PrefDefaults.ENABLE_READAHEAD);
+		} else if (PrefKeys.READAHEAD_LEAD.equals(key)) {
+			mReadahead.setLead(settings.getInt(PrefKeys.READAHEAD_LEAD, PrefDefaults.READAHEAD_LEAD));
+		} else if (PrefKeys.READAHEAD_MODE.equals(key)) {
+			mReadahead.setMode(Integer.parseInt(settings.getString(PrefKeys.READAHEAD_MODE, PrefDefaults.READAHEAD_MODE)));
+		} else if (PrefKeys.PLAYER_POOL_SIZE.equals(key)) {
+			mPlayerPoolSize = Integer.parseInt(settings.getString(PrefKeys.PLAYER_POOL_SIZE, PrefDefaults.PLAYER_POOL_SIZE));
+			mHandler.sendEmptyMessage(MSG_GAPLESS_UPDATE);
 		} else if (PrefKeys.AUTOPLAYLIST_PLAYCOUNTS.equals(key)) {
 			mAutoPlPlaycounts = settings.getInt(PrefKeys.AUTOPLAYLIST_PLAYCOUNTS, PrefDefaults.AUTOPLAYLIST_PLAYCOUNTS);
 		} else if (PrefKeys.SELECTED_THEME.equals(key) || PrefKeys.DISPLAY_MODE.equals(key)) {
@@ -1039,6 +1439,8 @@ public final class PlaybackService extends Service
 			boolean isDucking = (state & FLAG_DUCKING) != 0;
 			mMediaPlayer.setIsDucking(isDucking);
 			mPreparedMediaPlayer.setIsDucking(isDucking);
+			for (WarmPlayer warm : mWarmPlayers)
+				warm.player.setIsDucking(isDucking);
 		}
 	}
 
@@ -1054,20 +1456,80 @@ public final class PlaybackService extends Service
 			ArrayList<TimelineCallback> list = sCallbacks;
 			for (int i = list.size(); --i != -1; )
 				list.get(i).setSong(uptime, song);
+			mPublishSongChanged = true;
+		}
+
+		// a state change is often followed by a song change (or vice versa):
+		// publish both at once
+		if (!mHandler.hasMessages(MSG_PUBLISH_CHANGE))
+			mHandler.sendEmptyMessageDelayed(MSG_PUBLISH_CHANGE, PUBLISH_DELAY);
+	}
+
+	/**
+	 * The song and state last pushed to a sink of publishChange()
+	 */
+	private static class PublishedState {
+		boolean valid;
+		long songId;
+		long key;
+		/**
+		 * Number of updates skipped as nothing visible changed
+		 */
+		int suppressed;
+
+		/**
+		 * Records the data about to be pushed to the sink
+		 *
+		 * @param song The current song, may be null
+		 * @param key The other data the sink shows, eg. the state
+		 * @param force Push even if nothing changed
+		 * @return false if the sink already shows this data
+		 */
+		boolean update(Song song, long key, boolean force) {
+			long songId = (song == null ? -1 : song.id);
+			if (!force && valid && songId == this.songId && key == this.key) {
+				suppressed++;
+				return false;
+			}
+			this.valid = true;
+			this.songId = songId;
+			this.key = key;
+			return true;
 		}
+	}
+
+	/**
+	 * Pushes the current song and state to the widgets, the remote
+	 * control, the broadcasts and the background workers, skipping
+	 * all sinks which already show this data
+	 */
+	private void publishChange()
+	{
+		Song song = mCurrentSong;
+		int state = mState;
+		boolean playing = (state & FLAG_PLAYING) != 0;
+		boolean songChanged = mPublishSongChanged;
+		mPublishSongChanged = false;
 
-		updateWidgets();
+		if (mSinks[SINK_WIDGETS].update(song, state, false))
+			updateWidgets();
 
-		if (mReadaheadEnabled)
-			triggerReadAhead();
+		if (mSinks[SINK_REMOTE].update(song, ((long)state << 1) | (mForceNotificationVisible ? 1 : 0), false))
+			mRemoteControlClient.updateRemote(song, state, mForceNotificationVisible);
 
-		mRemoteControlClient.updateRemote(mCurrentSong, mState, mForceNotificationVisible);
+		// listeners may want to know about a restarted song, too
+		if ((mStockBroadcast || mScrobble) && mSinks[SINK_BROADCAST].update(song, playing ? 1 : 0, songChanged)) {
+			if (mStockBroadcast)
+				stockMusicBroadcast();
+			if (mScrobble)
+				scrobble();
+		}
 
-		if (mStockBroadcast)
-			stockMusicBroadcast();
-		if (mScrobble)
-			scrobble();
+		if (mReadaheadEnabled && mSinks[SINK_READAHEAD].update(song, playing ? 1 : 0, songChanged))
+			triggerReadAhead();
 
+		if (song != null && mSinks[SINK_PREFETCH].update(song, 0, false))
+			triggerReplayGainPrefetch();
 	}
 
 	/**
@@ -1286,11 +1748,14 @@ public final class PlaybackService extends Service
 	 */
 	private Song setCurrentSong(int delta)
 	{
+		long start = System.nanoTime();
+
 		if (mMediaPlayer == null)
 			return null;
 
+		// pause (instead of stop) keeps the player prepared for the warm pool
 		if (mMediaPlayer.isPlaying())
-			mMediaPlayer.stop();
+			mMediaPlayer.pause();
 
 		Song song = mTimeline.shiftCurrentSong(delta);
 		mCurrentSong = song;
@@ -1319,66 +1784,96 @@ public final class PlaybackService extends Service
 		mMediaPlayerInitialized = false;
 		mHandler.sendMessage(mHandler.obtainMessage(MSG_PROCESS_SONG, song));
 		mHandler.sendMessage(mHandler.obtainMessage(MSG_BROADCAST_CHANGE, -1, 0, new TimestampedObject(song)));
+		TransitionStats.record(TransitionStats.SET_CURRENT_SONG, start);
 		return song;
 	}
 
 	private void processSong(Song song)
 	{
+		long processStart = System.nanoTime();
+
 		/* Save our 'current' state as the try block may set the ERROR flag (which clears the PLAYING flag */
 		boolean playing = (mState & FLAG_PLAYING) != 0;
 
 		try {
 			mMediaPlayerInitialized = false;
-			mMediaPlayer.reset();
 
 			if(mPreparedMediaPlayer.isPlaying()) {
+				resetMediaPlayer(mMediaPlayer);
 				// The prepared media player is playing as the previous song
 				// reched its end 'naturally' (-> gapless)
 				// We can now swap mPreparedMediaPlayer and mMediaPlayer
 				VanillaMediaPlayer tmpPlayer = mMediaPlayer;
 				mMediaPlayer = mPreparedMediaPlayer;
 				mPreparedMediaPlayer = tmpPlayer; // this was mMediaPlayer and is in reset() state
+				onSongLoaded(song);
+			}
+			else if(swapInWarmPlayer(song)) {
+				// a spare player already holds this song
+				onSongLoaded(song);
 			}
 			else {
-				prepareMediaPlayer(mMediaPlayer, song.path);
+				// supersedes a prepare of a song we skipped away from
+				resetMediaPlayer(mMediaPlayer);
+				// finishes in onPrepareDone(): the service thread stays
+				// responsive while the file is being opened
+				mCurrentPrepare = prepareMediaPlayer(mMediaPlayer, song, playing);
 			}
+		} catch (IOException e) {
+			Log.e("VanillaMusic", "IOException", e);
+			onSongLoadFailed(song, playing);
+		}
 
+		updateNotification();
+		TransitionStats.record(TransitionStats.PROCESS_SONG, processStart);
+	}
 
-			mMediaPlayerInitialized = true;
-			// Cancel any pending gapless updates and re-send them
-			mHandler.removeMessages(MSG_GAPLESS_UPDATE);
-			mHandler.sendEmptyMessage(MSG_GAPLESS_UPDATE);
-
-			if (mPendingSeek != 0 && mPendingSeekSong == song.id) {
-				mMediaPlayer.seekTo(mPendingSeek);
-				mPendingSeek = 0;
-			}
-
-			if ((mState & FLAG_PLAYING) != 0)
-				mMediaPlayer.start();
+	/**
+	 * Called once mMediaPlayer is prepared with given song
+	 */
+	private void onSongLoaded(Song song)
+	{
+		mMediaPlayerInitialized = true;
+		// Cancel any pending gapless updates and re-send them
+		mHandler.removeMessages(MSG_GAPLESS_UPDATE);
+		mHandler.sendEmptyMessage(MSG_GAPLESS_UPDATE);
 
-			if ((mState & FLAG_ERROR) != 0) {
-				mErrorMessage = null;
-				updateState(mState & ~FLAG_ERROR);
-			}
-			mSkipBroken = 0; /* File not broken, reset skip counter */
-		} catch (IOException e) {
-			mErrorMessage = getResources().getString(R.string.song_load_failed, song.path);
-			updateState(mState | FLAG_ERROR);
-			showMirrorLinkSafeToast(mErrorMessage, Toast.LENGTH_LONG);
-			Log.e("VanillaMusic", "IOException", e);
+		if (mPendingSeek != 0 && mPendingSeekSong == song.id) {
+			mMediaPlayer.seekTo(mPendingSeek);
+			mPendingSeek = 0;
+		}
 
-			/* Automatically advance to next song IF we are currently playing or already did skip something
-			 * This will stop after skipping 10 songs to avoid endless loops (queue full of broken stuff */
-			if(mTimeline.isEndOfQueue() == false && getSong(1) != null && (playing || (mSkipBroken > 0 && mSkipBroken < 10))) {
-				mSkipBroken++;
-				mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_SKIP_BROKEN_SONG, getTimelinePosition(), 0), 1000);
-			}
+		if ((mState & FLAG_PLAYING) != 0) {
+			long start = System.nanoTime();
+			mMediaPlayer.start();
+			TransitionStats.record(TransitionStats.START, start);
+		}
 
+		if ((mState & FLAG_ERROR) != 0) {
+			mErrorMessage = null;
+			updateState(mState & ~FLAG_ERROR);
 		}
+		mSkipBroken = 0; /* File not broken, reset skip counter */
+	}
 
-		updateNotification();
+	/**
+	 * Called if given song could not be loaded into mMediaPlayer
+	 *
+	 * @param song The broken song
+	 * @param playing Whether we were playing when the song change started
+	 */
+	private void onSongLoadFailed(Song song, boolean playing)
+	{
+		mErrorMessage = getResources().getString(R.string.song_load_failed, song.path);
+		updateState(mState | FLAG_ERROR);
+		showMirrorLinkSafeToast(mErrorMessage, Toast.LENGTH_LONG);
 
+		/* Automatically advance to next song IF we are currently playing or already did skip something
+		 * This will stop after skipping 10 songs to avoid endless loops (queue full of broken stuff */
+		if(mTimeline.isEndOfQueue() == false && getSong(1) != null && (playing || (mSkipBroken > 0 && mSkipBroken < 10))) {
+			mSkipBroken++;
+			mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_SKIP_BROKEN_SONG, getTimelinePosition(), 0), 1000);
+		}
 	}
 
 	@Override
@@ -1499,6 +1994,14 @@ public final class PlaybackService extends Service
 	private static final int MSG_SKIP_BROKEN_SONG = 15;
 	private static final int MSG_GAPLESS_UPDATE = 16;
 	private static final int MSG_UPDATE_PLAYCOUNTS = 17;
+	/**
+	 * Delivers the outcome of a PrepareRequest (obj). arg1 is 1 on success.
+	 */
+	private static final int MSG_PREPARE_DONE = 18;
+	/**
+	 * Calls publishChange(), sent by broadcastChange().
+	 */
+	private static final int MSG_PUBLISH_CHANGE = 19;
 
 	@Override
 	public boolean handleMessage(Message message)
@@ -1516,9 +2019,11 @@ public final class PlaybackService extends Service
 			saveState(0);
 			break;
 		case MSG_PROCESS_SONG:
+			TransitionStats.recordMillis(TransitionStats.QUEUE_PROCESS_SONG, SystemClock.uptimeMillis() - message.getWhen());
 			processSong((Song)message.obj);
 			break;
 		case MSG_QUERY:
+			TransitionStats.recordMillis(TransitionStats.QUEUE_QUERY, SystemClock.uptimeMillis() - message.getWhen());
 			runQuery((QueryTask)message.obj);
 			break;
 		case MSG_IDLE_TIMEOUT:
@@ -1543,6 +2048,9 @@ public final class PlaybackService extends Service
 			TimestampedObject tso = (TimestampedObject)message.obj;
 			broadcastChange(message.arg1, (Song)tso.object, tso.uptime);
 			break;
+		case MSG_PUBLISH_CHANGE:
+			publishChange();
+			break;
 		case MSG_ENTER_SLEEP_STATE:
 			enterSleepState();
 			break;
@@ -1560,8 +2068,16 @@ public final class PlaybackService extends Service
 			unsetFlag(FLAG_ERROR);
 			mHandler.sendMessage(mHandler.obtainMessage(MSG_CALL_GO, 0, 0));
 			break;
-		case MSG_GAPLESS_UPDATE:
+		case MSG_GAPLESS_UPDATE: {
+			long start = System.nanoTime();
+			// before the gapless update: may take over the former next player
+			triggerWarmUpdate();
 			triggerGaplessUpdate();
+			TransitionStats.record(TransitionStats.GAPLESS_UPDATE, start);
+			break;
+		}
+		case MSG_PREPARE_DONE:
+			onPrepareDone((PrepareRequest)message.obj, message.arg1 == 1);
 			break;
 		case MSG_UPDATE_PLAYCOUNTS:
 			Song song = (Song)message.obj;
@@ -1637,6 +2153,8 @@ public final class PlaybackService extends Service
 			return;
 		long position = (long)mMediaPlayer.getDuration() * progress / 1000;
 		mMediaPlayer.seekTo((int)position);
+		if (mReadaheadEnabled)
+			triggerReadAhead(); // continue reading at the new position
 	}
 
 	@Override
@@ -1860,6 +2378,12 @@ public final class PlaybackService extends Service
 		mHandler.removeMessages(MSG_GAPLESS_UPDATE);
 		mHandler.sendEmptyMessageDelayed(MSG_GAPLESS_UPDATE, 100);
 
+		triggerReplayGainPrefetch();
+
+		// the upcoming songs may have changed
+		if (mReadaheadEnabled)
+			triggerReadAhead();
+
 		ArrayList<TimelineCallback> list = sCallbacks;
 		for (int i = list.size(); --i != -1; )
 			list.get(i).onTimelineChanged();
@@ -1943,19 +2467,14 @@ public final class PlaybackService extends Service
 		int state = 0;
 
 		try {
-			DataInputStream in = new DataInputStream(openFileInput(STATE_FILE));
-
-			if (in.readLong() == STATE_FILE_MAGIC && in.readInt() == STATE_VERSION) {
-				mPendingSeek = in.readInt();
-				mPendingSeekSong = in.readLong();
-				mTimeline.readState(in);
+			QueueJournal.QueueState saved = mJournal.load();
+			if (saved != null) {
+				mPendingSeek = saved.pendingSeek;
+				mPendingSeekSong = saved.songId;
+				mTimeline.readState(saved);
 				state |= mTimeline.getShuffleMode() << SHIFT_SHUFFLE;
 				state |= mTimeline.getFinishAction() << SHIFT_FINISH;
 			}
-
-			in.close();
-		} catch (EOFException e) {
-			Log.w("VanillaMusic", "Failed to load state", e);
 		} catch (IOException e) {
 			Log.w("VanillaMusic", "Failed to load state", e);
 		}
@@ -1964,7 +2483,8 @@ public final class PlaybackService extends Service
 	}
 
 	/**
-	 * Save the service state to disk.
+	 * Save the service state to disk. Only the changes since the last
+	 * call are written, see {@link QueueJournal}.
 	 *
 	 * @param pendingSeek The pendingSeek to store. Should be the current
 	 * MediaPlayer position or 0.
@@ -1972,14 +2492,11 @@ public final class PlaybackService extends Service
 	public void saveState(int pendingSeek)
 	{
 		try {
-			DataOutputStream out = new DataOutputStream(openFileOutput(STATE_FILE, 0));
 			Song song = mCurrentSong;
-			out.writeLong(STATE_FILE_MAGIC);
-			out.writeInt(STATE_VERSION);
-			out.writeInt(pendingSeek);
-			out.writeLong(song == null ? -1 : song.id);
-			mTimeline.writeState(out);
-			out.close();
+			QueueJournal.QueueState state = mTimeline.getQueueState();
+			state.pendingSeek = pendingSeek;
+			state.songId = (song == null ? -1 : song.id);
+			mJournal.save(state);
 		} catch (IOException e) {
 			Log.w("VanillaMusic", "Failed to save state", e);
 		}
@@ -2054,7 +2571,9 @@ public final class PlaybackService extends Service
 		RemoteViews views = new RemoteViews(getPackageName(), R.layout.notification);
 		RemoteViews expanded = new RemoteViews(getPackageName(), R.layout.notification_expanded);
 
-		Bitmap cover = song.getCover(this);
+		// the expanded notification shows the cover at 128dip, the small one at 64dip
+		int coverSize = (int)(128 * getResources().getDisplayMetrics().density);
+		Bitmap cover = ArtworkCache.getCover(this, song, coverSize);
 		if (cover == null) {
 			views.setImageViewResource(R.id.cover, R.drawable.fallback_cover);
 			expanded.setImageViewResource(R.id.cover, R.drawable.fallback_cover);
@@ -2325,6 +2844,13 @@ public final class PlaybackService extends Service
 		return mTimeline.getSongByQueuePosition(id);
 	}
 
+	/**
+	 * Returns the ids of all songs in the timeline
+	 */
+	public long[] getQueueIds() {
+		return mTimeline.getQueueIds();
+	}
+
 	/**
 	 * Do a 'hard' jump to given queue position
 	*/
@@ -33,6 +33,7 @@ public class PrefDefaults {
 	public static final boolean COVERLOADER_ANDROID = true;
 	public static final boolean COVERLOADER_VANILLA = true;
 	public static final boolean COVERLOADER_SHADOW = true;
+	public static final boolean COVERLOADER_INLINE = true;
 	public static final boolean COVER_ON_LOCKSCREEN = true;
 	public static final boolean DISABLE_LOCKSCREEN = false;
 	public static final String DISPLAY_MODE = "2";
@@ -62,7 +63,11 @@ public class PrefDefaults {
 	public static final boolean ENABLE_ALBUM_REPLAYGAIN = false;
 	public static final int     REPLAYGAIN_BUMP = 75; // seek bar is 150 -> 75 == middle == 0
 	public static final int     REPLAYGAIN_UNTAGGED_DEBUMP = 150; // seek bar is 150 -> == 0
+	public static final int     REPLAYGAIN_PREFETCH = 5;
 	public static final boolean ENABLE_READAHEAD = false;
+	public static final int     READAHEAD_LEAD = 10;
+	public static final String  READAHEAD_MODE = "0"; // ReadaheadThread.MODE_COPY
+	public static final String  PLAYER_POOL_SIZE = "1";
 	public static final String  SELECTED_THEME = "0";
 	public static final String  FILESYSTEM_BROWSE_START = "";
 	public static final int     VOLUME_DURING_DUCKING = 50;
@@ -34,6 +34,7 @@ public class PrefKeys {
 	public static final String COVERLOADER_ANDROID = "coverloader_android";
 	public static final String COVERLOADER_VANILLA = "coverloader_vanilla";
 	public static final String COVERLOADER_SHADOW = "coverloader_shadow";
+	public static final String COVERLOADER_INLINE = "coverloader_inline";
 	public static final String COVER_ON_LOCKSCREEN = "cover_on_lockscreen";
 	public static final String DISABLE_LOCKSCREEN = "disable_lockscreen";
 	public static final String DISPLAY_MODE = "display_mode";
@@ -63,7 +64,11 @@ public class PrefKeys {
 	public static final String ENABLE_ALBUM_REPLAYGAIN = "enable_album_replaygain";
 	public static final String REPLAYGAIN_BUMP = "replaygain_bump";
 	public static final String REPLAYGAIN_UNTAGGED_DEBUMP = "replaygain_untagged_debump";
+	public static final String REPLAYGAIN_PREFETCH = "replaygain_prefetch";
 	public static final String ENABLE_READAHEAD = "enable_readahead";
+	public static final String READAHEAD_LEAD = "readahead_lead";
+	public static final String READAHEAD_MODE = "readahead_mode";
+	public static final String PLAYER_POOL_SIZE = "player_pool_size";
 	public static final String SELECTED_THEME = "selected_theme";
 	public static final String FILESYSTEM_BROWSE_START = "filesystem_browse_start";
 	public static final String VOLUME_DURING_DUCKING = "volume_during_ducking";
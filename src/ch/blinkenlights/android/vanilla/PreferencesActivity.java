@@ -48,6 +48,11 @@ import android.content.Intent;
 import android.media.audiofx.AudioEffect;
 import android.net.Uri;
 import android.util.TypedValue;
+import android.widget.Toast;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -239,6 +244,90 @@ public class PreferencesActivity extends PreferenceActivity
 		}
 	}
 
+	public static class DebugFragment extends PreferenceFragment {
+		@Override
+		public void onCreate(Bundle savedInstanceState)
+		{
+			super.onCreate(savedInstanceState);
+			setPreferenceScreen(getPreferenceManager().createPreferenceScreen(getActivity()));
+		}
+
+		@Override
+		public void onResume()
+		{
+			super.onResume();
+			updateStats();
+		}
+
+		/**
+		 * Re-creates all entries using the current statistics
+		 */
+		private void updateStats() {
+			Context context = getActivity();
+			PreferenceScreen screen = getPreferenceScreen();
+			screen.removeAll();
+
+			for (int i = 0; i < TransitionStats.NAMES.length; i++) {
+				Preference pref = new Preference(context);
+				pref.setTitle(TransitionStats.NAMES[i]);
+				pref.setSummary(TransitionStats.describe(i));
+				pref.setSelectable(false);
+				screen.addPreference(pref);
+			}
+
+			Preference dump = new Preference(context);
+			dump.setTitle(R.string.debug_stats_dump_title);
+			dump.setSummary(R.string.debug_stats_dump_summary);
+			dump.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+				public boolean onPreferenceClick(Preference preference) {
+					dumpStats();
+					return true;
+				}
+			});
+			screen.addPreference(dump);
+
+			Preference reset = new Preference(context);
+			reset.setTitle(R.string.debug_stats_reset_title);
+			reset.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+				public boolean onPreferenceClick(Preference preference) {
+					TransitionStats.reset();
+					updateStats();
+					return true;
+				}
+			});
+			screen.addPreference(reset);
+		}
+
+		/**
+		 * Writes all statistics to a text file in the external
+		 * files directory of the app
+		 */
+		private void dumpStats() {
+			Context context = getActivity();
+			File dir = context.getExternalFilesDir(null);
+			if (dir == null)
+				dir = context.getFilesDir();
+			File file = new File(dir, "playback_stats.txt");
+
+			boolean failed;
+			try {
+				PrintWriter pw = new PrintWriter(new FileWriter(file));
+				if (PlaybackService.hasInstance()) {
+					PlaybackService.get(context).dumpDebugStats(pw);
+				} else {
+					TransitionStats.dump(pw);
+				}
+				failed = pw.checkError();
+				pw.close();
+			} catch (IOException e) {
+				failed = true;
+			}
+
+			String message = failed ? getString(R.string.debug_stats_dump_failed) : getString(R.string.debug_stats_dumped, file.getPath());
+			Toast.makeText(context, message, Toast.LENGTH_LONG).show();
+		}
+	}
+
 	public static class AboutFragment extends WebViewFragment {
 		@Override
 		public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState)
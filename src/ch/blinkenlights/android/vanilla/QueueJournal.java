@@ -0,0 +1,752 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.android.vanilla;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the song queue as a snapshot plus an append-only journal of
+ * all changes made since the snapshot was written.
+ *
+ * Each save diffs the queue against the last saved one and appends a
+ * single record holding a REPLACE (covering inserts and removals) or MOVE
+ * operation, a STATE operation if the position or modes changed and a
+ * SEED operation if the shuffle seed changed.
+ * The journal is folded into a new snapshot once it grows larger than
+ * the snapshot itself.
+ *
+ * Records are length prefixed and carry a CRC32: loading stops at the
+ * first incomplete or damaged record, so a torn final write only loses
+ * that last save.
+ *
+ * Snapshots are written to a temporary file which atomically replaces
+ * the old snapshot. Ids are stored as varint encoded deltas, collapsing
+ * runs of consecutive ids with equal flags into a single entry, and the
+ * body is followed by a CRC32.
+ *
+ * This class must not depend on any android classes.
+ */
+public class QueueJournal {
+	/**
+	 * Header of the snapshot file
+	 */
+	private static final long SNAPSHOT_MAGIC = 0x1533574DC74B6ECL;
+	/**
+	 * Snapshot version written before the journal existed, it is
+	 * still read to migrate the state of older releases
+	 */
+	private static final int VERSION_NO_JOURNAL = 6;
+	/**
+	 * Snapshot version written by this class: a journal stamp
+	 * followed by the compact, checksummed body ending with the
+	 * next shuffled round
+	 */
+	private static final int VERSION = 7;
+	/**
+	 * Header of the journal file
+	 */
+	private static final long JOURNAL_MAGIC = 0x1533574DC74B6EDL;
+	/**
+	 * Size of the journal header: magic and stamp
+	 */
+	private static final int JOURNAL_HEADER_SIZE = 16;
+	/**
+	 * Upper bound of a snapshot body, larger values indicate corruption
+	 */
+	private static final int MAX_SNAPSHOT_SIZE = 64 * 1024 * 1024;
+	/**
+	 * Maximum number of songs encoded in a single run
+	 */
+	private static final int RUN_MAX = 0xFFFF;
+	/**
+	 * The journal is never compacted while smaller than this
+	 */
+	private static final int MIN_COMPACT_SIZE = 16 * 1024;
+	/**
+	 * Replaces a range of songs: start, removed count, inserted count
+	 * followed by the id and flags of each inserted song
+	 */
+	private static final int OP_REPLACE = 1;
+	/**
+	 * Moves a single song: from, to (both in the list without the song)
+	 */
+	private static final int OP_MOVE = 2;
+	/**
+	 * The non-list state: position, finish action, shuffle mode,
+	 * pending seek and the id of the current song
+	 */
+	private static final int OP_STATE = 3;
+	/**
+	 * The next shuffled round: seed, domain bits and start position
+	 */
+	private static final int OP_SEED = 4;
+
+	/**
+	 * The persisted state of the queue
+	 */
+	public static class QueueState {
+		/**
+		 * Ids of all songs, -1 for unknown entries
+		 */
+		public long[] ids;
+		/**
+		 * Flags of all songs
+		 */
+		public int[] flags;
+		/**
+		 * Number of used entries in ids and flags
+		 */
+		public int size;
+		public int position;
+		public int finishAction;
+		public int shuffleMode;
+		public int pendingSeek;
+		public long songId = -1;
+		/**
+		 * Seed of the next shuffled round, 0 if unknown
+		 */
+		public long shuffleSeed;
+		/**
+		 * Permutation domain of the next shuffled round, 0 if not picked yet
+		 */
+		public int shuffleBits;
+		/**
+		 * Domain position of the first song of the next shuffled round
+		 */
+		public long shuffleStart;
+
+		public QueueState(int capacity) {
+			ids = new long[capacity];
+			flags = new int[capacity];
+		}
+
+		/**
+		 * Returns true if the non-list state equals the one of `other'
+		 */
+		boolean sameState(QueueState other) {
+			return position == other.position && finishAction == other.finishAction && shuffleMode == other.shuffleMode
+			    && pendingSeek == other.pendingSeek && songId == other.songId;
+		}
+
+		/**
+		 * Returns true if the next shuffled round equals the one of `other'
+		 */
+		boolean sameRound(QueueState other) {
+			return shuffleSeed == other.shuffleSeed && shuffleBits == other.shuffleBits && shuffleStart == other.shuffleStart;
+		}
+
+		/**
+		 * Returns true if entry i equals entry j of `other'
+		 */
+		boolean sameSong(int i, QueueState other, int j) {
+			return ids[i] == other.ids[j] && flags[i] == other.flags[j];
+		}
+
+		/**
+		 * Replaces `removed' entries at `start' with the first `inserted'
+		 * entries of ids and flags
+		 */
+		void replace(int start, int removed, long[] newIds, int[] newFlags, int inserted) {
+			int newSize = size - removed + inserted;
+			if (newSize > ids.length) {
+				ids = Arrays.copyOf(ids, newSize + newSize / 2);
+				flags = Arrays.copyOf(flags, ids.length);
+			}
+			int tail = size - start - removed;
+			System.arraycopy(ids, start + removed, ids, start + inserted, tail);
+			System.arraycopy(flags, start + removed, flags, start + inserted, tail);
+			System.arraycopy(newIds, 0, ids, start, inserted);
+			System.arraycopy(newFlags, 0, flags, start, inserted);
+			size = newSize;
+		}
+
+		/**
+		 * Moves the entry at `from' to `to'
+		 */
+		void move(int from, int to) {
+			long id = ids[from];
+			int flag = flags[from];
+			if (from < to) {
+				System.arraycopy(ids, from + 1, ids, from, to - from);
+				System.arraycopy(flags, from + 1, flags, from, to - from);
+			} else {
+				System.arraycopy(ids, to, ids, to + 1, from - to);
+				System.arraycopy(flags, to, flags, to + 1, from - to);
+			}
+			ids[to] = id;
+			flags[to] = flag;
+		}
+	}
+
+	private final File mSnapshotFile;
+	private final File mJournalFile;
+	private final Random mRandom = new Random();
+	/**
+	 * The state as stored on disk, null if unknown
+	 */
+	private QueueState mSaved;
+	/**
+	 * Stamp of the current snapshot and journal
+	 */
+	private long mStamp;
+	/**
+	 * Size of the snapshot and the journal in bytes
+	 */
+	private long mSnapshotLength;
+	private long mJournalLength;
+	/**
+	 * Set if the journal must be folded into the snapshot on the next save
+	 */
+	private boolean mNeedCompact;
+	/**
+	 * The open journal, null if it was not opened yet
+	 */
+	private DataOutputStream mJournal;
+	/**
+	 * Buffer used to build records
+	 */
+	private final ByteArrayOutputStream mRecord = new ByteArrayOutputStream(256);
+	private final CRC32 mCrc = new CRC32();
+
+	/**
+	 * Creates a new journal
+	 *
+	 * @param snapshotFile The snapshot to use
+	 * @param journalFile The journal to use
+	 */
+	public QueueJournal(File snapshotFile, File journalFile) {
+		mSnapshotFile = snapshotFile;
+		mJournalFile = journalFile;
+	}
+
+	/**
+	 * Reads the snapshot and replays the journal on top of it
+	 *
+	 * @return the saved state, null if nothing was saved
+	 */
+	public synchronized QueueState load() throws IOException {
+		if (!mSnapshotFile.exists())
+			return null;
+
+		QueueState state;
+		int version;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mSnapshotFile)));
+		try {
+			if (in.readLong() != SNAPSHOT_MAGIC)
+				return null;
+			version = in.readInt();
+			switch (version) {
+			case VERSION:
+				mStamp = in.readLong();
+				state = readCompactSnapshot(in);
+				break;
+			case VERSION_NO_JOURNAL:
+				mStamp = 0;
+				state = readPlainSnapshot(in);
+				break;
+			default:
+				return null;
+			}
+		} finally {
+			in.close();
+		}
+		mSnapshotLength = mSnapshotFile.length();
+
+		if (version != VERSION_NO_JOURNAL && mJournalFile.exists())
+			replayJournal(state);
+		// the journal is not open for appending: start over with a
+		// fresh snapshot on the next save
+		closeJournal();
+		mNeedCompact = true;
+
+		mSaved = copyOf(state);
+		return state;
+	}
+
+	/**
+	 * Persists the given state, either by appending the changes since
+	 * the last save to the journal or by writing a new snapshot
+	 *
+	 * @param state The state to save. It must not be modified after this call.
+	 */
+	public synchronized void save(QueueState state) throws IOException {
+		if (mSaved == null || mNeedCompact || mJournalLength > Math.max(MIN_COMPACT_SIZE, mSnapshotLength)) {
+			compact(state);
+			return;
+		}
+
+		try {
+			appendChanges(state);
+		} catch (IOException e) {
+			// the journal may be damaged now: start over
+			compact(state);
+		}
+	}
+
+	/**
+	 * Closes the journal
+	 */
+	public synchronized void close() {
+		closeJournal();
+	}
+
+	/**
+	 * Writes a new snapshot of `state' and starts a new, empty journal
+	 */
+	private void compact(QueueState state) throws IOException {
+		closeJournal();
+		mSaved = null;
+
+		long stamp = mRandom.nextLong();
+		byte[] body = encodeSnapshot(state);
+		mCrc.reset();
+		mCrc.update(body, 0, body.length);
+
+		File tmp = new File(mSnapshotFile.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			out.writeLong(SNAPSHOT_MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(stamp);
+			out.writeInt(body.length);
+			out.write(body);
+			out.writeInt((int)mCrc.getValue());
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		if (!tmp.renameTo(mSnapshotFile)) {
+			tmp.delete();
+			throw new IOException("failed to replace "+mSnapshotFile);
+		}
+		// an old journal is ignored from now on: its stamp does not match
+		mStamp = stamp;
+		mSnapshotLength = mSnapshotFile.length();
+
+		DataOutputStream journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mJournalFile)));
+		journal.writeLong(JOURNAL_MAGIC);
+		journal.writeLong(stamp);
+		journal.flush();
+		mJournal = journal;
+		mJournalLength = JOURNAL_HEADER_SIZE;
+
+		mSaved = state;
+		mNeedCompact = false;
+	}
+
+	/**
+	 * Appends the records needed to turn mSaved into `state'
+	 */
+	private void appendChanges(QueueState state) throws IOException {
+		if (mJournal == null)
+			throw new IOException("journal is not open");
+
+		QueueState saved = mSaved;
+		int oldSize = saved.size;
+		int newSize = state.size;
+		int max = Math.min(oldSize, newSize);
+
+		int prefix = 0;
+		while (prefix < max && saved.sameSong(prefix, state, prefix))
+			prefix++;
+		int suffix = 0;
+		while (suffix < max - prefix && saved.sameSong(oldSize - 1 - suffix, state, newSize - 1 - suffix))
+			suffix++;
+
+		int removed = oldSize - prefix - suffix;
+		int inserted = newSize - prefix - suffix;
+		boolean sameState = saved.sameState(state);
+		boolean sameSeed = saved.sameRound(state);
+		if (removed == 0 && inserted == 0 && sameState && sameSeed)
+			return;
+
+		DataOutputStream out = beginRecord();
+		if (removed == inserted && removed > 1 && isMove(saved, state, prefix, removed, true)) {
+			writeMove(out, prefix, prefix + removed - 1);
+		} else if (removed == inserted && removed > 1 && isMove(saved, state, prefix, removed, false)) {
+			writeMove(out, prefix + removed - 1, prefix);
+		} else if (removed != 0 || inserted != 0) {
+			out.writeByte(OP_REPLACE);
+			out.writeInt(prefix);
+			out.writeInt(removed);
+			out.writeInt(inserted);
+			for (int i = prefix; i != prefix + inserted; i++) {
+				out.writeLong(state.ids[i]);
+				out.writeInt(state.flags[i]);
+			}
+		}
+
+		if (!sameState) {
+			out.writeByte(OP_STATE);
+			out.writeInt(state.position);
+			out.writeInt(state.finishAction);
+			out.writeInt(state.shuffleMode);
+			out.writeInt(state.pendingSeek);
+			out.writeLong(state.songId);
+		}
+
+		if (!sameSeed) {
+			out.writeByte(OP_SEED);
+			out.writeLong(state.shuffleSeed);
+			out.writeInt(state.shuffleBits);
+			out.writeLong(state.shuffleStart);
+		}
+		endRecord();
+
+		mJournal.flush();
+		mSaved = state;
+	}
+
+	/**
+	 * Returns true if the `len' entries at `start' of `to' equal
+	 * the ones of `from' with a single entry moved from the first to
+	 * the last position (down) or vice versa
+	 */
+	private static boolean isMove(QueueState from, QueueState to, int start, int len, boolean down) {
+		int last = start + len - 1;
+		if (down) {
+			if (!from.sameSong(start, to, last))
+				return false;
+			for (int i = start; i != last; i++) {
+				if (!from.sameSong(i + 1, to, i))
+					return false;
+			}
+		} else {
+			if (!from.sameSong(last, to, start))
+				return false;
+			for (int i = start + 1; i != last + 1; i++) {
+				if (!from.sameSong(i - 1, to, i))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeMove(DataOutputStream out, int from, int to) throws IOException {
+		out.writeByte(OP_MOVE);
+		out.writeInt(from);
+		out.writeInt(to);
+	}
+
+	/**
+	 * Starts a new record
+	 *
+	 * @return the stream to write the operations to
+	 */
+	private DataOutputStream beginRecord() {
+		mRecord.reset();
+		return new DataOutputStream(mRecord);
+	}
+
+	/**
+	 * Appends the record built since beginRecord() to the journal
+	 */
+	private void endRecord() throws IOException {
+		byte[] payload = mRecord.toByteArray();
+		mCrc.reset();
+		mCrc.update(payload, 0, payload.length);
+
+		DataOutputStream journal = mJournal;
+		journal.writeInt(payload.length);
+		journal.write(payload);
+		journal.writeInt((int)mCrc.getValue());
+		mJournalLength += payload.length + 8;
+	}
+
+	/**
+	 * Applies all intact records of the journal to `state'
+	 *
+	 * @return the number of replayed records
+	 */
+	private int replayJournal(QueueState state) throws IOException {
+		int records = 0;
+		long length = mJournalFile.length();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mJournalFile)));
+		try {
+			if (in.readLong() != JOURNAL_MAGIC || in.readLong() != mStamp)
+				return 0; // belongs to an older snapshot
+
+			long pos = JOURNAL_HEADER_SIZE;
+			while (pos + 8 <= length) {
+				int len = in.readInt();
+				if (len <= 0 || pos + 8 + len > length)
+					break; // torn record
+
+				byte[] payload = new byte[len];
+				in.readFully(payload);
+				mCrc.reset();
+				mCrc.update(payload, 0, len);
+				if (in.readInt() != (int)mCrc.getValue())
+					break; // damaged record
+
+				if (!applyRecord(state, payload))
+					break;
+				pos += len + 8;
+				records++;
+			}
+		} catch (EOFException e) {
+			// torn record: use what we got
+		} finally {
+			in.close();
+		}
+		return records;
+	}
+
+	/**
+	 * Applies all operations of a record to `state'
+	 *
+	 * @return false if the record is invalid for this state
+	 */
+	private static boolean applyRecord(QueueState state, byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		while (in.available() != 0) {
+			if (!applyOperation(state, in))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Applies a single operation to `state'
+	 *
+	 * @return false if the operation is invalid for this state
+	 */
+	private static boolean applyOperation(QueueState state, DataInputStream in) throws IOException {
+		switch (in.readByte()) {
+		case OP_REPLACE: {
+			int start = in.readInt();
+			int removed = in.readInt();
+			int inserted = in.readInt();
+			if (start < 0 || removed < 0 || inserted < 0 || start + removed > state.size)
+				return false;
+			long[] ids = new long[inserted];
+			int[] flags = new int[inserted];
+			for (int i = 0; i != inserted; i++) {
+				ids[i] = in.readLong();
+				flags[i] = in.readInt();
+			}
+			state.replace(start, removed, ids, flags, inserted);
+			return true;
+		}
+		case OP_MOVE: {
+			int from = in.readInt();
+			int to = in.readInt();
+			if (from < 0 || to < 0 || from >= state.size || to >= state.size)
+				return false;
+			state.move(from, to);
+			return true;
+		}
+		case OP_STATE:
+			state.position = in.readInt();
+			state.finishAction = in.readInt();
+			state.shuffleMode = in.readInt();
+			state.pendingSeek = in.readInt();
+			state.songId = in.readLong();
+			return true;
+		case OP_SEED:
+			state.shuffleSeed = in.readLong();
+			state.shuffleBits = in.readInt();
+			state.shuffleStart = in.readLong();
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the body of a VERSION_NO_JOURNAL snapshot, following the header
+	 */
+	private static QueueState readPlainSnapshot(DataInputStream in) throws IOException {
+		int pendingSeek = in.readInt();
+		long songId = in.readLong();
+		int n = in.readInt();
+		QueueState state = new QueueState(Math.max(n, 0));
+		for (int i = 0; i < n; i++) {
+			long id = in.readLong();
+			state.ids[i] = id;
+			state.flags[i] = (id == -1 ? 0 : in.readInt());
+		}
+		state.size = Math.max(n, 0);
+		state.position = in.readInt();
+		state.finishAction = in.readInt();
+		state.shuffleMode = in.readInt();
+		state.pendingSeek = pendingSeek;
+		state.songId = songId;
+		return state;
+	}
+
+	/**
+	 * Reads the body of a VERSION snapshot, following the header
+	 */
+	private static QueueState readCompactSnapshot(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_SNAPSHOT_SIZE)
+			throw new IOException("invalid snapshot length "+length);
+		byte[] body = new byte[length];
+		in.readFully(body);
+
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, length);
+		if (in.readInt() != (int)crc.getValue())
+			throw new IOException("snapshot checksum mismatch");
+
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(body));
+		int pendingSeek = (int)readSignedVarLong(data);
+		long songId = readSignedVarLong(data);
+		int n = (int)readVarLong(data);
+		if (n < 0 || n > (long)length * RUN_MAX)
+			throw new IOException("invalid queue size "+n);
+
+		QueueState state = new QueueState(n);
+		long id = 0;
+		int i = 0;
+		while (i != n) {
+			// a run: delta to the id preceding it, length and flags
+			id += readSignedVarLong(data);
+			int run = (int)readVarLong(data);
+			int flags = (int)readVarLong(data);
+			if (run <= 0 || run > n - i)
+				throw new IOException("invalid run length "+run);
+			for (int end = i + run; i != end; i++) {
+				state.ids[i] = id++;
+				state.flags[i] = flags;
+			}
+			id--;
+		}
+		state.size = n;
+		state.position = (int)readVarLong(data);
+		state.finishAction = (int)readVarLong(data);
+		state.shuffleMode = (int)readVarLong(data);
+		state.shuffleSeed = data.readLong();
+		state.shuffleBits = (int)readVarLong(data);
+		state.shuffleStart = readVarLong(data);
+		state.pendingSeek = pendingSeek;
+		state.songId = songId;
+		return state;
+	}
+
+	/**
+	 * Returns the compact snapshot body of `state'
+	 */
+	private static byte[] encodeSnapshot(QueueState state) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(64 + state.size * 4);
+		DataOutputStream out = new DataOutputStream(buf);
+		writeSignedVarLong(out, state.pendingSeek);
+		writeSignedVarLong(out, state.songId);
+		writeVarLong(out, state.size);
+
+		long[] ids = state.ids;
+		int[] flags = state.flags;
+		long last = 0;
+		for (int i = 0; i != state.size; ) {
+			int run = 1;
+			while (run < RUN_MAX && i + run != state.size && ids[i + run] == ids[i] + run && flags[i + run] == flags[i])
+				run++;
+			writeSignedVarLong(out, ids[i] - last);
+			writeVarLong(out, run);
+			writeVarLong(out, flags[i] & 0xFFFFFFFFL);
+			last = ids[i] + run - 1;
+			i += run;
+		}
+
+		writeVarLong(out, state.position & 0xFFFFFFFFL);
+		writeVarLong(out, state.finishAction & 0xFFFFFFFFL);
+		writeVarLong(out, state.shuffleMode & 0xFFFFFFFFL);
+		out.writeLong(state.shuffleSeed);
+		writeVarLong(out, state.shuffleBits & 0xFFFFFFFFL);
+		writeVarLong(out, state.shuffleStart);
+		return buf.toByteArray();
+	}
+
+	/**
+	 * Writes an unsigned LEB128 value
+	 */
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+
+	/**
+	 * Writes a zigzag encoded LEB128 value
+	 */
+	private static void writeSignedVarLong(DataOutputStream out, long value) throws IOException {
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("varint too long");
+	}
+
+	private static long readSignedVarLong(DataInputStream in) throws IOException {
+		long value = readVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static QueueState copyOf(QueueState state) {
+		QueueState copy = new QueueState(0);
+		copy.ids = Arrays.copyOf(state.ids, state.size);
+		copy.flags = Arrays.copyOf(state.flags, state.size);
+		copy.size = state.size;
+		copy.position = state.position;
+		copy.finishAction = state.finishAction;
+		copy.shuffleMode = state.shuffleMode;
+		copy.pendingSeek = state.pendingSeek;
+		copy.songId = state.songId;
+		copy.shuffleSeed = state.shuffleSeed;
+		copy.shuffleBits = state.shuffleBits;
+		copy.shuffleStart = state.shuffleStart;
+		return copy;
+	}
+
+	private void closeJournal() {
+		if (mJournal != null) {
+			try {
+				mJournal.close();
+			} catch (IOException e) {
+				// nothing to do: the next save starts a new journal
+			}
+			mJournal = null;
+		}
+	}
+}
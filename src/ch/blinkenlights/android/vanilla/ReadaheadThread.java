@@ -22,22 +22,80 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
 import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Reads the currently playing file ahead of the playback position.
+ *
+ * The read rate follows the bitrate of the file (derived from its size and
+ * duration): we read until we are `lead' seconds ahead of the playback
+ * position and back off until half of this lead was consumed. While
+ * we are far enough ahead, the heads of the next songs in the queue are
+ * read (within a per-song and a total budget) so that gapless transitions
+ * do not start on cold storage.
+ *
+ * The data is either copied into a scratch array (MODE_COPY), read into
+ * a direct buffer (MODE_DIRECT) or mapped with one byte of each page
+ * being touched (MODE_MMAP): all of them fill the page cache, the latter
+ * two without copying the data into the java heap. MODE_MMAP maps large
+ * windows of each file, which are reused for many runs and unmapped as
+ * soon as they were consumed.
+ */
 class ReadaheadThread implements Handler.Callback {
+	/**
+	 * Readahead modes, see setMode()
+	 */
+	public static final int MODE_COPY = 0;
+	public static final int MODE_DIRECT = 1;
+	public static final int MODE_MMAP = 2;
 
 	/**
 	 * How many bytes we are going to read per run
 	 */
 	private static final int BYTES_PER_READ = 32768;
 	/**
-	 * How many milliseconds to wait between reads. 125*32768 = ~256kb/s. This should be fast enough for flac files
+	 * How many bytes we are going to touch per run in MODE_MMAP
+	 */
+	private static final int BYTES_PER_MAP = 262144;
+	/**
+	 * Size of the windows mapped in MODE_MMAP
+	 */
+	private static final int MAP_WINDOW_SIZE = 8 * 1024 * 1024;
+	/**
+	 * We touch one byte every PAGE_SIZE bytes of a mapping
+	 */
+	private static final int PAGE_SIZE = 4096;
+	/**
+	 * Rate to assume for files without duration: 32768 bytes every 125ms = ~256kb/s
 	 */
-	private static final int MS_DELAY_PER_READ = 125;
+	private static final int FALLBACK_BYTES_PER_SEC = 262144;
+	/**
+	 * Longest time to sleep while we are far enough ahead
+	 */
+	private static final int MAX_DELAY = 5000;
+	/**
+	 * How many bytes of the head of each upcoming song to read
+	 */
+	private static final long NEXT_BYTES_PER_SONG = 2 * 1024 * 1024;
+	/**
+	 * How many bytes to read of all upcoming songs
+	 */
+	private static final long NEXT_BYTES_TOTAL = 4 * 1024 * 1024;
+	/**
+	 * Reads taking longer than this (in ms) are counted as a stall
+	 */
+	private static final int STALL_THRESHOLD = 250;
 	/**
 	 * Our message handler
 	 */
@@ -54,6 +112,70 @@ class ReadaheadThread implements Handler.Callback {
 	 * Scratch space to read junk data
 	 */
 	private byte[] mScratch;
+	/**
+	 * Buffer used by MODE_DIRECT, allocated on first use
+	 */
+	private ByteBuffer mDirectBuffer;
+	/**
+	 * Sum of all touched bytes in MODE_MMAP: only kept so
+	 * the reads can not be optimized away
+	 */
+	private int mTouched;
+	/**
+	 * Mapped windows of mFis and mNextFis in MODE_MMAP
+	 */
+	private final MapWindow mWindow = new MapWindow();
+	private final MapWindow mNextWindow = new MapWindow();
+	/**
+	 * The current readahead mode
+	 */
+	private volatile int mMode = MODE_COPY;
+	/**
+	 * How far (in ms) we would like to be ahead of playback, 0 to read as fast as possible
+	 */
+	private volatile int mLeadMs = 10000;
+	/**
+	 * Estimated bitrate of mFis in bytes per second
+	 */
+	private long mBytesPerSec;
+	/**
+	 * Number of bytes read from mFis
+	 */
+	private long mOffset;
+	/**
+	 * true if mFis was read up to its end
+	 */
+	private boolean mFinished;
+	/**
+	 * Heads of the upcoming songs to read, in order
+	 */
+	private ArrayList<Head> mNext = new ArrayList<Head>();
+	/**
+	 * The open file of the first unfinished entry in mNext
+	 */
+	private FileInputStream mNextFis;
+	/**
+	 * Playback position and the uptime at which it was valid
+	 */
+	private long mPlayPosition;
+	private long mPlayUptime;
+	/**
+	 * Bytes and time (ms) spent reading mFis, used to calculate the throughput
+	 */
+	private long mStatBytes;
+	private long mStatTime;
+	/**
+	 * true if playback caught up with us
+	 */
+	private boolean mBehind;
+	/**
+	 * Last measured throughput in bytes per second
+	 */
+	private volatile int mThroughput;
+	/**
+	 * Number of slow reads and times playback caught up with the readahead
+	 */
+	private volatile int mStalls;
 
 
 	public ReadaheadThread() {
@@ -72,14 +194,140 @@ class ReadaheadThread implements Handler.Callback {
 	}
 
 	/**
-	 * Starts a new readahead operation. Will resume if `path' equals
+	 * Starts a new readahead operation. Will resume if `song' equals
 	 * the currently open file
 	 *
-	 * @param path The path to read ahead
+	 * @param song The song to read ahead
+	 * @param position The current playback position in song
+	 * @param next The paths of the songs following `song', their heads are read once
+	 *  we are far enough ahead in `song'
 	 */
-	public void setSource(String path) {
+	public void setSource(Song song, int position, List<String> next) {
 		pause(); // cancell all in-flight rpc's
-		mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_SET_PATH, path), 1000);
+		Source source = new Source(song.path, song.duration, position, SystemClock.uptimeMillis(), next);
+		mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_SET_PATH, source), 1000);
+	}
+
+	/**
+	 * Sets how far we should read ahead of the playback position
+	 *
+	 * @param seconds The lead in seconds, 0 to read whole files as fast as possible
+	 */
+	public void setLead(int seconds) {
+		mLeadMs = seconds * 1000;
+	}
+
+	/**
+	 * Sets how data is pulled into the page cache
+	 *
+	 * @param mode One of MODE_COPY, MODE_DIRECT or MODE_MMAP
+	 */
+	public void setMode(int mode) {
+		mMode = mode;
+	}
+
+	/**
+	 * Returns the throughput of the last readahead in bytes per second
+	 */
+	public int getThroughput() {
+		return mThroughput;
+	}
+
+	/**
+	 * Returns the number of slow reads and how often playback
+	 * overtook the readahead
+	 */
+	public int getStalls() {
+		return mStalls;
+	}
+
+	/**
+	 * Arguments of MSG_SET_PATH
+	 */
+	private static class Source {
+		final String path;
+		final long duration;
+		final long position;
+		final long uptime;
+		final List<String> next;
+
+		Source(String path, long duration, long position, long uptime, List<String> next) {
+			this.path = path;
+			this.duration = duration;
+			this.position = position;
+			this.uptime = uptime;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * The head of an upcoming song
+	 */
+	private static class Head {
+		final String path;
+		final long limit;
+		long offset;
+
+		Head(String path, long limit) {
+			this.path = path;
+			this.limit = limit;
+		}
+	}
+
+	/**
+	 * A read-only mapping of a part of a file
+	 */
+	private static class MapWindow {
+		/**
+		 * Hidden NioUtils.freeDirectBuffer(): unmaps a buffer right
+		 * away instead of waiting for the garbage collector
+		 */
+		private static Method sFree;
+		private static boolean sFreeResolved;
+
+		MappedByteBuffer map;
+		long start;
+
+		/**
+		 * Returns true if [offset, offset+len) is inside of the mapping
+		 */
+		boolean contains(long offset, int len) {
+			return map != null && offset >= start && offset + len <= start + map.capacity();
+		}
+
+		/**
+		 * Replaces the current mapping by one of `len' bytes at `offset'
+		 */
+		void map(FileChannel channel, long offset, long len) throws IOException {
+			release();
+			map = channel.map(FileChannel.MapMode.READ_ONLY, offset, len);
+			start = offset;
+		}
+
+		/**
+		 * Drops the current mapping, unmapping it if the platform allows it
+		 */
+		void release() {
+			if (map == null)
+				return;
+
+			if (!sFreeResolved) {
+				sFreeResolved = true;
+				try {
+					sFree = Class.forName("java.nio.NioUtils").getMethod("freeDirectBuffer", ByteBuffer.class);
+				} catch (Exception e) {
+					// not available: the buffer is unmapped once it was collected
+				}
+			}
+			if (sFree != null) {
+				try {
+					sFree.invoke(null, map);
+				} catch (Exception e) {
+					sFree = null;
+				}
+			}
+			map = null;
+		}
 	}
 
 	private static final int MSG_SET_PATH = 1;
@@ -88,17 +336,12 @@ class ReadaheadThread implements Handler.Callback {
 	public boolean handleMessage(Message message) {
 		switch (message.what) {
 			case MSG_SET_PATH: {
-				String path = (String)message.obj;
+				Source source = (Source)message.obj;
+				String path = source.path;
 
 				if (mFis != null && mPath.equals(path) == false) {
 					// current file does not match requested one: clean it
-					try {
-						mFis.close();
-					} catch (IOException e) {
-						Log.e("VanillaMusic", "Failed to close file: "+e);
-					}
-					mFis = null;
-					mPath = null;
+					closeFile();
 				}
 
 				if (mFis == null) {
@@ -107,27 +350,103 @@ class ReadaheadThread implements Handler.Callback {
 						FileInputStream fis = new FileInputStream(path);
 						mFis = fis;
 						mPath = path;
+						mOffset = 0;
+						mFinished = false;
+						mStatBytes = 0;
+						mStatTime = 0;
+						mBehind = false;
+						// this may have been an upcoming song: skip what we already read
+						for (Head head : mNext) {
+							if (head.path.equals(path))
+								mOffset = head.offset;
+						}
 					} catch (FileNotFoundException e) {
 						Log.e("VanillaMusic", "Failed to open file "+path+": "+e);
 					}
 				}
 
+				setNext(source.next);
+
 				if (mFis != null) {
+					mPlayPosition = source.position;
+					mPlayUptime = source.uptime;
+					mBytesPerSec = FALLBACK_BYTES_PER_SEC;
+					try {
+						long size = mFis.getChannel().size();
+						if (source.duration > 0 && size > 0)
+							mBytesPerSec = Math.max(1, size * 1000 / source.duration);
+						// skip data which was already played, eg. after a seek
+						long playOffset = bytesAt(source.position);
+						if (playOffset > mOffset + BYTES_PER_READ) {
+							mOffset = playOffset;
+						}
+					} catch (IOException e) {
+						// keep the defaults
+					}
 					mHandler.sendEmptyMessage(MSG_READ_CHUNK);
 				}
 				break;
 			}
 			case MSG_READ_CHUNK: {
+				if (mFinished) {
+					// nothing left in the current song: read the upcoming ones
+					if (readNext())
+						mHandler.sendEmptyMessage(MSG_READ_CHUNK);
+					break;
+				}
+
+				long position = mPlayPosition + SystemClock.uptimeMillis() - mPlayUptime;
+				int leadMs = mLeadMs;
+
+				if (mOffset < bytesAt(position)) {
+					if (!mBehind && mOffset > 0) {
+						mStalls++;
+						Log.d("VanillaMusic", "Readahead for "+mPath+" fell behind playback");
+					}
+					mBehind = true;
+				} else {
+					mBehind = false;
+				}
+
+				if (leadMs > 0) {
+					long aheadMs = mOffset * 1000 / mBytesPerSec - position;
+					if (aheadMs >= leadMs) {
+						if (readNext()) {
+							// used the spare time to read an upcoming song, check again
+							mHandler.sendEmptyMessage(MSG_READ_CHUNK);
+						} else {
+							// far enough ahead: sleep until half of the lead was played
+							long delay = Math.min(MAX_DELAY, aheadMs - leadMs / 2);
+							mHandler.sendEmptyMessageDelayed(MSG_READ_CHUNK, delay);
+						}
+						break;
+					}
+				}
+
 				int bytesRead = -1;
+				long startTime = SystemClock.uptimeMillis();
 				try {
-					bytesRead = mFis.read(mScratch);
+					bytesRead = readChunk(mFis, mOffset, mWindow);
 				} catch (IOException e) {
 					// fs error or eof: stop in any case
 				}
+				long readTime = SystemClock.uptimeMillis() - startTime;
+
 				if (bytesRead >= 0) {
-					mHandler.sendEmptyMessageDelayed(MSG_READ_CHUNK, MS_DELAY_PER_READ);
+					mOffset += bytesRead;
+					mStatBytes += bytesRead;
+					mStatTime += readTime;
+					mThroughput = (int)(mStatBytes * 1000 / Math.max(1, mStatTime));
+					if (readTime > STALL_THRESHOLD) {
+						mStalls++;
+						Log.d("VanillaMusic", "Readahead for "+mPath+" stalled for "+readTime+" ms");
+					}
+					// we are behind our lead: continue right away
+					mHandler.sendEmptyMessage(MSG_READ_CHUNK);
 				} else {
-					Log.d("VanillaMusic", "Readahead for "+mPath+" finished");
+					Log.d("VanillaMusic", "Readahead for "+mPath+" finished: "+mStatBytes+" bytes, "+(mThroughput / 1024)+" KB/s, "+mStalls+" stalls total");
+					mFinished = true;
+					mHandler.sendEmptyMessage(MSG_READ_CHUNK);
 				}
 			}
 			default: {
@@ -137,4 +456,146 @@ class ReadaheadThread implements Handler.Callback {
 		return true;
 	}
 
+	/**
+	 * Replaces the list of upcoming songs, progress of songs
+	 * which are still upcoming is kept
+	 *
+	 * @param paths The paths of the upcoming songs
+	 */
+	private void setNext(List<String> paths) {
+		ArrayList<Head> next = new ArrayList<Head>(paths.size());
+		long budget = NEXT_BYTES_TOTAL;
+		for (String path : paths) {
+			if (budget <= 0)
+				break;
+			Head head = new Head(path, Math.min(NEXT_BYTES_PER_SONG, budget));
+			for (Head old : mNext) {
+				if (old.path.equals(path))
+					head.offset = old.offset;
+			}
+			budget -= head.limit;
+			next.add(head);
+		}
+		closeNext();
+		mNext = next;
+	}
+
+	/**
+	 * Reads a chunk of the first unfinished upcoming song
+	 *
+	 * @return false if there was nothing left to read
+	 */
+	private boolean readNext() {
+		for (Head head : mNext) {
+			if (head.offset >= head.limit)
+				continue;
+
+			int bytesRead = -1;
+			try {
+				if (mNextFis == null)
+					mNextFis = new FileInputStream(head.path);
+				bytesRead = readChunk(mNextFis, head.offset, mNextWindow);
+			} catch (IOException e) {
+				// unreadable: skip this song
+			}
+
+			if (bytesRead > 0) {
+				head.offset += bytesRead;
+			} else {
+				head.offset = head.limit;
+			}
+			if (head.offset >= head.limit)
+				closeNext();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Pulls the data at `offset' into the page cache using the
+	 * current mode
+	 *
+	 * @param fis The file to read
+	 * @param offset Where to start reading
+	 * @param window The mapped window of this file, used in MODE_MMAP
+	 * @return the number of bytes covered, -1 on EOF
+	 */
+	private int readChunk(FileInputStream fis, long offset, MapWindow window) throws IOException {
+		FileChannel channel = fis.getChannel();
+		int mode = mMode;
+		if (mode != MODE_MMAP)
+			window.release();
+
+		switch (mode) {
+			case MODE_MMAP: {
+				long remaining = channel.size() - offset;
+				if (remaining <= 0) {
+					window.release();
+					return -1;
+				}
+				int len = (int)Math.min(BYTES_PER_MAP, remaining);
+				if (!window.contains(offset, len))
+					window.map(channel, offset, Math.min(MAP_WINDOW_SIZE, remaining));
+				MappedByteBuffer map = window.map;
+				int base = (int)(offset - window.start);
+				int sum = 0;
+				for (int i = 0; i < len; i += PAGE_SIZE)
+					sum += map.get(base + i);
+				mTouched += sum;
+				return len;
+			}
+			case MODE_DIRECT: {
+				if (mDirectBuffer == null)
+					mDirectBuffer = ByteBuffer.allocateDirect(BYTES_PER_READ);
+				mDirectBuffer.clear();
+				return channel.read(mDirectBuffer, offset);
+			}
+			default: {
+				// plain sequential reads, only seeking if we skipped
+				// data or another mode was used before
+				if (channel.position() != offset)
+					channel.position(offset);
+				return fis.read(mScratch);
+			}
+		}
+	}
+
+	/**
+	 * Returns the byte offset of the playback position
+	 *
+	 * @param position The position in ms
+	 */
+	private long bytesAt(long position) {
+		return position * mBytesPerSec / 1000;
+	}
+
+	/**
+	 * Closes the file of the upcoming song being read
+	 */
+	private void closeNext() {
+		mNextWindow.release();
+		if (mNextFis != null) {
+			try {
+				mNextFis.close();
+			} catch (IOException e) {
+				Log.e("VanillaMusic", "Failed to close file: "+e);
+			}
+			mNextFis = null;
+		}
+	}
+
+	/**
+	 * Closes the current file
+	 */
+	private void closeFile() {
+		mWindow.release();
+		try {
+			mFis.close();
+		} catch (IOException e) {
+			Log.e("VanillaMusic", "Failed to close file: "+e);
+		}
+		mFis = null;
+		mPath = null;
+	}
+
 }
@@ -133,7 +133,7 @@ public class RemoteControlImplLp implements RemoteControl.Client {
 		if (song != null) {
 			Bitmap bitmap = null;
 			if (mShowCover == 1 && (isPlaying || keepPaused)) {
-				bitmap = song.getCover(mContext);
+				bitmap = ArtworkCache.getCover(mContext, song, CoverCache.SIZE_LARGE);
 			}
 
 			session.setMetadata(new MediaMetadata.Builder()
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.android.vanilla;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+
+import java.util.List;
+
+/**
+ * Resolves the ReplayGain values of upcoming queue entries on a
+ * background thread, so that applyReplayGain() hits a warm cache
+ * and never has to parse a file on the playback thread.
+ */
+class ReplayGainPrefetcher implements Handler.Callback {
+	/**
+	 * Our message handler
+	 */
+	private final Handler mHandler;
+	/**
+	 * The cache to fill
+	 */
+	private final BastpUtil mBastpUtil;
+
+	public ReplayGainPrefetcher(BastpUtil bastpUtil) {
+		mBastpUtil = bastpUtil;
+		HandlerThread handlerThread = new HandlerThread("ReplayGainPrefetcher", Process.THREAD_PRIORITY_BACKGROUND);
+		handlerThread.start();
+		mHandler = new Handler(handlerThread.getLooper(), this);
+	}
+
+	/**
+	 * Replaces any pending prefetch request with `paths'
+	 *
+	 * @param paths The files to look up, in order of urgency
+	 */
+	public void prefetch(List<String> paths) {
+		mHandler.removeMessages(MSG_PREFETCH);
+		mHandler.sendMessage(mHandler.obtainMessage(MSG_PREFETCH, paths));
+	}
+
+	/**
+	 * Stops the background thread, pending requests are dropped
+	 */
+	public void quit() {
+		mHandler.removeMessages(MSG_PREFETCH);
+		mHandler.getLooper().quit();
+	}
+
+	private static final int MSG_PREFETCH = 1;
+	@Override
+	public boolean handleMessage(Message message) {
+		switch (message.what) {
+			case MSG_PREFETCH: {
+				@SuppressWarnings("unchecked")
+				List<String> paths = (List<String>)message.obj;
+				for (String path : paths) {
+					if (mHandler.hasMessages(MSG_PREFETCH))
+						break; // queue changed again: the new request supersedes this one
+					mBastpUtil.prefetch(path);
+				}
+				break;
+			}
+			default: {
+				break;
+			}
+		}
+		return true;
+	}
+
+}
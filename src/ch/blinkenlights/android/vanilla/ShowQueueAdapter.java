@@ -19,9 +19,14 @@ package ch.blinkenlights.android.vanilla;
 
 import android.content.Context;
 import android.app.Activity;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.util.LruCache;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.view.LayoutInflater;
 import android.widget.TextView;
 
@@ -31,19 +36,61 @@ import android.text.style.ForegroundColorSpan;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Lists the songs of the queue. Only the ids of the queue are kept: the
+ * songs of the displayed rows are queried page by page on a worker thread.
+ */
 public class ShowQueueAdapter
-	extends ArrayAdapter<Song>
+	extends BaseAdapter
+	implements Handler.Callback
 	 {
+	/**
+	 * Number of songs queried at once
+	 */
+	private static final int PAGE_SIZE = 64;
+	/**
+	 * Maximum number of queried songs kept in mSongs
+	 */
+	private static final int CACHE_SIZE = 512;
 	
 	private int mResource;
 	private int mHighlightRow;
 	private Context mContext;
+	/**
+	 * The ids of the queue
+	 */
+	private long[] mIds = new long[0];
+	/**
+	 * The songs queried so far, by id
+	 */
+	private final LruCache<Long, Song> mSongs = new LruCache<Long, Song>(CACHE_SIZE);
+	/**
+	 * Ids which are being queried
+	 */
+	private final HashSet<Long> mPending = new HashSet<Long>();
+	/**
+	 * A Handler running on the UI thread.
+	 */
+	private final Handler mUiHandler;
+	/**
+	 * A Handler running on a worker thread.
+	 */
+	private final Handler mWorkerHandler;
 
-	public ShowQueueAdapter(Context context, int resource) {
-		super(context, resource);
+	/**
+	 * @param context The activity to inflate the rows with
+	 * @param resource The layout of a row
+	 * @param workerLooper A Looper running on a worker thread.
+	 */
+	public ShowQueueAdapter(Context context, int resource, Looper workerLooper) {
 		mResource = resource;
 		mContext = context;
 		mHighlightRow = -1;
+		mUiHandler = new Handler(this);
+		mWorkerHandler = new Handler(workerLooper, this);
 	}
 
 	/**
@@ -54,6 +101,40 @@ public class ShowQueueAdapter
 		mHighlightRow = pos;
 	}
 
+	/**
+	 * Replaces the listed queue
+	 *
+	 * @param ids The ids of all songs in the queue
+	 */
+	public void setIds(long[] ids) {
+		mIds = ids;
+		notifyDataSetChanged();
+	}
+
+	@Override
+	public int getCount() {
+		return mIds.length;
+	}
+
+	/**
+	 * Returns the song at given position, which is not filled
+	 * if it was not queried yet
+	 */
+	@Override
+	public Song getItem(int position) {
+		long id = mIds[position];
+		Song song = mSongs.get(id);
+		if (song == null) {
+			requestPage(position);
+			song = new Song(id);
+		}
+		return song;
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return position;
+	}
 
 	@Override
 	public View getView(int position, View convertView, ViewGroup parent) {
@@ -69,13 +150,17 @@ public class ShowQueueAdapter
 
 		Song song = getItem(position);
 
-		if (song != null) { // unlikely to fail but seems to happen in the wild.
+		if (song.isFilled()) {
 			SpannableStringBuilder sb = new SpannableStringBuilder(song.title);
 			sb.append('\n');
 			sb.append(song.album+", "+song.artist);
 			sb.setSpan(new ForegroundColorSpan(Color.GRAY), song.title.length() + 1, sb.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
 			row.getTextView().setText(sb);
 			row.getCoverView().setCover(MediaUtils.TYPE_ALBUM, song.albumId, null);
+		} else {
+			// not queried yet (or gone from the MediaStore)
+			row.getTextView().setText(null);
+			row.getCoverView().setCover(MediaUtils.TYPE_ALBUM, 0, null);
 		}
 
 		row.highlightRow(position == mHighlightRow);
@@ -83,4 +168,84 @@ public class ShowQueueAdapter
 		return row;
 	}
 
+	/**
+	 * Queries the songs of the page containing `position' which are
+	 * neither known nor being queried.
+	 */
+	private void requestPage(int position) {
+		int from = position - position % PAGE_SIZE;
+		int to = Math.min(mIds.length, from + PAGE_SIZE);
+		long[] ids = new long[to - from];
+		int count = 0;
+		for (int i = from; i != to; ++i) {
+			long id = mIds[i];
+			if (mSongs.get(id) == null && mPending.add(id))
+				ids[count++] = id;
+		}
+
+		if (count != 0) {
+			Handler handler = mWorkerHandler;
+			handler.sendMessage(handler.obtainMessage(MSG_QUERY_SONGS, count, 0, ids));
+		}
+	}
+
+	/**
+	 * Query the first arg1 songs of the ids passed in obj.
+	 *
+	 * Runs on worker thread.
+	 */
+	private static final int MSG_QUERY_SONGS = 0;
+	/**
+	 * Add the songs passed in obj to mSongs.
+	 *
+	 * Runs on UI thread.
+	 */
+	private static final int MSG_COMMIT_SONGS = 1;
+
+	@Override
+	public boolean handleMessage(Message message) {
+		switch (message.what) {
+		case MSG_QUERY_SONGS: {
+			long[] ids = (long[])message.obj;
+			int count = message.arg1;
+			ArrayList<Song> songs = new ArrayList<Song>(count);
+			HashSet<Long> missing = new HashSet<Long>();
+			for (int i = 0; i != count; ++i)
+				missing.add(ids[i]);
+
+			Cursor cursor = MediaUtils.queryIds(mContext.getContentResolver(), ids, 0, count, Song.FILLED_PROJECTION);
+			if (cursor != null) {
+				while (cursor.moveToNext()) {
+					Song song = new Song(-1);
+					song.populate(cursor);
+					songs.add(song);
+					missing.remove(song.id);
+				}
+				cursor.close();
+			}
+			// list the others as unfilled songs, so they are not queried again
+			for (long id : missing)
+				songs.add(new Song(id));
+
+			Handler handler = mUiHandler;
+			handler.sendMessage(handler.obtainMessage(MSG_COMMIT_SONGS, songs));
+			break;
+		}
+		case MSG_COMMIT_SONGS: {
+			@SuppressWarnings("unchecked")
+			ArrayList<Song> songs = (ArrayList<Song>)message.obj;
+			for (Song song : songs) {
+				mSongs.put(song.id, song);
+				mPending.remove(song.id);
+			}
+			notifyDataSetChanged();
+			break;
+		}
+		default:
+			return false;
+		}
+
+		return true;
+	}
+
 }
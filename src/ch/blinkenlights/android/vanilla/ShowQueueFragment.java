@@ -51,7 +51,7 @@ public class ShowQueueFragment extends Fragment
 		Context context = getActivity();
 
 		mListView    = (DragSortListView) view.findViewById(R.id.list);
-		mListAdapter = new ShowQueueAdapter(context, R.layout.draggable_row);
+		mListAdapter = new ShowQueueAdapter(context, R.layout.draggable_row, ((PlaybackActivity)context).mLooper);
 		mListView.setAdapter(mListAdapter);
 		mListView.setDropListener(this);
 		mListView.setRemoveListener(this);
@@ -95,7 +95,7 @@ public class ShowQueueFragment extends Fragment
 	@Override
 	public void onCreateContextMenu(ContextMenu menu, View listView, ContextMenu.ContextMenuInfo absInfo) {
 		AdapterView.AdapterContextMenuInfo info = (AdapterView.AdapterContextMenuInfo)absInfo;
-		Song song = mService.getSongByQueuePosition(info.position);
+		Song song = mListAdapter.getItem(info.position);
 
 		Intent intent = new Intent();
 		intent.putExtra("id", song.id);
@@ -121,7 +121,11 @@ public class ShowQueueFragment extends Fragment
 		int itemId = item.getItemId();
 		int pos = intent.getIntExtra("position", -1);
 
-		Song song = mService.getSongByQueuePosition(pos);
+		Song song = null;
+		if (pos >= 0 && pos < mListAdapter.getCount())
+			song = mListAdapter.getItem(pos);
+		if (song != null && !song.isFilled())
+			song = null; // not queried yet: enqueueFromSong() ignores null
 		switch (item.getItemId()) {
 			case CTX_MENU_PLAY:
 				onItemClick(null, null, pos, -1);
@@ -182,16 +186,12 @@ public class ShowQueueFragment extends Fragment
 	public void refreshSongQueueList(final boolean scroll) {
 		getActivity().runOnUiThread(new Runnable(){
 			public void run() {
-				int i, stotal, spos;
-				stotal = mService.getTimelineLength();   /* Total number of songs in queue */
+				int spos;
+				long[] ids = mService.getQueueIds();     /* All songs in queue, by id      */
 				spos   = mService.getTimelinePosition(); /* Current position in queue      */
 
-				mListAdapter.clear();                    /* Flush all existing entries...  */
-				mListAdapter.highlightRow(spos);         /* and highlight current position */
-
-				for(i=0 ; i<stotal; i++) {
-					mListAdapter.add(mService.getSongByQueuePosition(i));
-				}
+				mListAdapter.highlightRow(spos);         /* highlight current position...  */
+				mListAdapter.setIds(ids);                /* and replace all entries        */
 
 				if(scroll)
 					scrollToCurrentSong(spos);
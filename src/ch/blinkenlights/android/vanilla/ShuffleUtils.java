@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.blinkenlights.android.vanilla;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Shuffle algorithms used by MediaUtils.
+ *
+ * This class must not depend on any android classes: it is also
+ * compiled into the plain JVM 'core' module to be benchmarked.
+ */
+public final class ShuffleUtils {
+	/**
+	 * Returns the group (eg. album id) of an item
+	 */
+	public interface GroupKey<T> {
+		long getGroup(T item);
+	}
+
+	/**
+	 * Shuffle an array using Fisher-Yates algorithm.
+	 *
+	 * @param list The array. It will be shuffled in place.
+	 * @param random The random number generator to use
+	 */
+	public static void shuffle(long[] list, Random random)
+	{
+		for (int i = list.length; --i != -1; ) {
+			int j = random.nextInt(i + 1);
+			long tmp = list[j];
+			list[j] = list[i];
+			list[i] = tmp;
+		}
+	}
+
+	/**
+	 * Returns the number of bits of each half of the smallest
+	 * permutation domain holding `size' entries: the domain of
+	 * permute() is [0, 4^bits).
+	 *
+	 * @param size The number of entries to permute
+	 */
+	public static int domainBits(int size)
+	{
+		int bits = 1;
+		while ((1L << (2 * bits)) < size)
+			bits++;
+		return bits;
+	}
+
+	/**
+	 * Returns the entry at `position' of a pseudo random permutation of
+	 * the domain [0, 4^bits) which is fully defined by `seed'.
+	 *
+	 * The permutation is a 4 round Feistel network over the two halves
+	 * of `bits' bits each. No memory is needed and every position is
+	 * mapped independently, so callers can look up single entries of a
+	 * shuffled list without building it.
+	 *
+	 * A list of `size' entries is shuffled by walking the positions of
+	 * a domain >= size and skipping the entries >= size, see
+	 * nextPosition(). As the domain does not depend on the size, the
+	 * entries of the list keep their relative order when entries are
+	 * appended while the list fits into the domain.
+	 *
+	 * @param seed Defines the permutation
+	 * @param position The position to map, 0 <= position < 4^bits
+	 * @param bits The domain, see domainBits()
+	 * @return the permuted position, 0 <= result < 4^bits
+	 */
+	public static long permute(long seed, long position, int bits)
+	{
+		long mask = (1L << bits) - 1;
+		long left = position >>> bits;
+		long right = position & mask;
+		for (int round = 0; round != 4; round++) {
+			long next = left ^ (mix(seed + round * 0x9E3779B97F4A7C15L + right) & mask);
+			left = right;
+			right = next;
+		}
+		return (left << bits) | right;
+	}
+
+	/**
+	 * Returns the first position at or after `position' whose entry
+	 * of permute() is < size, wrapping around at the end of the domain.
+	 * This takes less than 4 lookups on average if the domain was
+	 * picked by domainBits(size).
+	 *
+	 * @param seed Defines the permutation
+	 * @param position The position to start at, 0 <= position < 4^bits
+	 * @param bits The domain, see domainBits()
+	 * @param size The number of entries to permute, <= 4^bits
+	 * @return the position, -1 if size is 0
+	 */
+	public static long nextPosition(long seed, long position, int bits, int size)
+	{
+		if (size <= 0)
+			return -1;
+		long mask = (1L << (2 * bits)) - 1;
+		while (permute(seed, position, bits) >= size)
+			position = (position + 1) & mask;
+		return position;
+	}
+
+	/**
+	 * The round function of permute(): the finalizer of SplitMix64
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Shuffles the groups of a list while preserving the natural
+	 * order of items inside each group.
+	 *
+	 * @param list The list to shuffle in place. Sorting the list must
+	 *             place all items of a group next to each other.
+	 * @param key Returns the group of an item
+	 * @param random The random number generator to use
+	 */
+	public static <T extends Comparable<? super T>> void shuffleGroups(List<T> list, GroupKey<T> key, Random random)
+	{
+		int size = list.size();
+		if (size < 2)
+			return;
+
+		List<T> tempList = new ArrayList<T>(list);
+		Collections.sort(tempList);
+
+		// Build map of group to start index in sorted list
+		Map<Long, Integer> groupStartIndices = new HashMap<Long, Integer>();
+		int index = 0;
+		for (T item : tempList) {
+			long group = key.getGroup(item);
+			if (!groupStartIndices.containsKey(group)) {
+				groupStartIndices.put(group, index);
+			}
+			index++;
+		}
+
+		//Extract group list and shuffle
+		List<Long> shuffledGroups = new ArrayList<Long>(groupStartIndices.keySet());
+		Collections.shuffle(shuffledGroups, random);
+
+		//Build list from group list
+		list.clear();
+		for (Long group : shuffledGroups) {
+			int itemIndex = groupStartIndices.get(group);
+			T item = tempList.get(itemIndex);
+			do {
+				list.add(item);
+				itemIndex++;
+				if (itemIndex < size) {
+					item = tempList.get(itemIndex);
+				} else {
+					break;
+				}
+			} while (group == key.getGroup(item));
+		}
+	}
+}
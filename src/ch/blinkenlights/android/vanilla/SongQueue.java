@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.android.vanilla;
+
+import java.util.Arrays;
+
+/**
+ * The song ids and flags of the timeline, kept in primitive arrays.
+ *
+ * The arrays contain a gap at the position of the last edit: inserting
+ * or removing songs only moves the entries between the previous and the
+ * current edit position, so repeated edits around the current song are
+ * cheap even for huge queues.
+ *
+ * This class must not depend on any android classes: it is also
+ * compiled into the plain JVM 'core' module to be benchmarked.
+ */
+public final class SongQueue {
+	private long[] mIds;
+	private int[] mFlags;
+	/**
+	 * First index of the gap
+	 */
+	private int mGapStart;
+	/**
+	 * First index after the gap
+	 */
+	private int mGapEnd;
+
+	/**
+	 * Creates an empty queue
+	 *
+	 * @param capacity The initial capacity
+	 */
+	public SongQueue(int capacity)
+	{
+		mIds = new long[capacity];
+		mFlags = new int[capacity];
+		mGapStart = 0;
+		mGapEnd = capacity;
+	}
+
+	/**
+	 * Creates a copy of another queue
+	 */
+	public SongQueue(SongQueue other)
+	{
+		this(other.size());
+		other.copyTo(mIds, mFlags);
+		mGapStart = mIds.length;
+	}
+
+	/**
+	 * Returns the number of songs in the queue
+	 */
+	public int size()
+	{
+		return mIds.length - (mGapEnd - mGapStart);
+	}
+
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	/**
+	 * Returns the id of the song at given position
+	 */
+	public long getId(int pos)
+	{
+		return mIds[index(pos)];
+	}
+
+	/**
+	 * Returns the flags of the song at given position
+	 */
+	public int getFlags(int pos)
+	{
+		return mFlags[index(pos)];
+	}
+
+	/**
+	 * Replaces the flags of the song at given position
+	 */
+	public void setFlags(int pos, int flags)
+	{
+		mFlags[index(pos)] = flags;
+	}
+
+	/**
+	 * Appends a song to the end of the queue
+	 */
+	public void add(long id, int flags)
+	{
+		insert(size(), id, flags);
+	}
+
+	/**
+	 * Inserts a song at given position
+	 */
+	public void insert(int pos, long id, int flags)
+	{
+		checkPosition(pos, size());
+		makeGap(pos, 1);
+		mIds[mGapStart] = id;
+		mFlags[mGapStart] = flags;
+		mGapStart++;
+	}
+
+	/**
+	 * Inserts `count' songs at given position
+	 */
+	public void insert(int pos, long[] ids, int[] flags, int count)
+	{
+		checkPosition(pos, size());
+		makeGap(pos, count);
+		System.arraycopy(ids, 0, mIds, mGapStart, count);
+		System.arraycopy(flags, 0, mFlags, mGapStart, count);
+		mGapStart += count;
+	}
+
+	/**
+	 * Removes the song at given position
+	 */
+	public void remove(int pos)
+	{
+		removeRange(pos, pos + 1);
+	}
+
+	/**
+	 * Removes the songs from `from' (inclusive) to `to' (exclusive)
+	 */
+	public void removeRange(int from, int to)
+	{
+		checkPosition(to, size());
+		checkPosition(from, to);
+		moveGap(from);
+		mGapEnd += to - from;
+	}
+
+	/**
+	 * Removes all songs
+	 */
+	public void clear()
+	{
+		mGapStart = 0;
+		mGapEnd = mIds.length;
+	}
+
+	/**
+	 * Moves the song at `from' to `to'
+	 */
+	public void move(int from, int to)
+	{
+		checkPosition(to, size() - 1);
+		long id = getId(from);
+		int flags = getFlags(from);
+		remove(from);
+		insert(to, id, flags);
+	}
+
+	/**
+	 * Swaps the songs at given positions
+	 */
+	public void swap(int a, int b)
+	{
+		int i = index(a);
+		int j = index(b);
+		long id = mIds[i];
+		mIds[i] = mIds[j];
+		mIds[j] = id;
+		int flags = mFlags[i];
+		mFlags[i] = mFlags[j];
+		mFlags[j] = flags;
+	}
+
+	/**
+	 * Returns the first position of a song with given id, -1 if there is none
+	 */
+	public int indexOf(long id)
+	{
+		for (int i = 0; i != mGapStart; i++) {
+			if (mIds[i] == id)
+				return i;
+		}
+		for (int i = mGapEnd; i != mIds.length; i++) {
+			if (mIds[i] == id)
+				return i - (mGapEnd - mGapStart);
+		}
+		return -1;
+	}
+
+	/**
+	 * Copies all ids and flags into the given arrays, which must be
+	 * large enough to hold size() entries
+	 */
+	public void copyTo(long[] ids, int[] flags)
+	{
+		int tail = mIds.length - mGapEnd;
+		System.arraycopy(mIds, 0, ids, 0, mGapStart);
+		System.arraycopy(mIds, mGapEnd, ids, mGapStart, tail);
+		System.arraycopy(mFlags, 0, flags, 0, mGapStart);
+		System.arraycopy(mFlags, mGapEnd, flags, mGapStart, tail);
+	}
+
+	/**
+	 * Copies all ids into the given array, which must be large enough
+	 * to hold size() entries
+	 */
+	public void copyIdsTo(long[] ids)
+	{
+		System.arraycopy(mIds, 0, ids, 0, mGapStart);
+		System.arraycopy(mIds, mGapEnd, ids, mGapStart, mIds.length - mGapEnd);
+	}
+
+	/**
+	 * Returns true if `other' contains the same songs in the same order
+	 */
+	@Override
+	public boolean equals(Object other)
+	{
+		if (!(other instanceof SongQueue))
+			return false;
+		SongQueue queue = (SongQueue)other;
+		int size = size();
+		if (queue.size() != size)
+			return false;
+		for (int i = 0; i != size; i++) {
+			if (getId(i) != queue.getId(i) || getFlags(i) != queue.getFlags(i))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int hash = 1;
+		for (int i = 0, size = size(); i != size; i++) {
+			long id = getId(i);
+			hash = 31 * hash + (int)(id ^ (id >>> 32));
+			hash = 31 * hash + getFlags(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Maps a position to an index of the arrays
+	 */
+	private int index(int pos)
+	{
+		if (pos < 0 || pos >= size())
+			throw new IndexOutOfBoundsException("Invalid position "+pos+", size is "+size());
+		return pos < mGapStart ? pos : pos + mGapEnd - mGapStart;
+	}
+
+	private static void checkPosition(int pos, int max)
+	{
+		if (pos < 0 || pos > max)
+			throw new IndexOutOfBoundsException("Invalid position "+pos+", maximum is "+max);
+	}
+
+	/**
+	 * Moves the gap to `pos' and grows it to hold at least `count' entries
+	 */
+	private void makeGap(int pos, int count)
+	{
+		if (mGapEnd - mGapStart < count) {
+			int size = size();
+			int capacity = Math.max(size + count, mIds.length + (mIds.length >> 1) + 16);
+			int tail = mIds.length - mGapEnd;
+			long[] ids = Arrays.copyOf(mIds, capacity);
+			int[] flags = Arrays.copyOf(mFlags, capacity);
+			System.arraycopy(mIds, mGapEnd, ids, capacity - tail, tail);
+			System.arraycopy(mFlags, mGapEnd, flags, capacity - tail, tail);
+			mIds = ids;
+			mFlags = flags;
+			mGapEnd = capacity - tail;
+		}
+		moveGap(pos);
+	}
+
+	/**
+	 * Moves the gap to start at `pos'
+	 */
+	private void moveGap(int pos)
+	{
+		int gap = mGapEnd - mGapStart;
+		if (pos < mGapStart) {
+			int len = mGapStart - pos;
+			System.arraycopy(mIds, pos, mIds, pos + gap, len);
+			System.arraycopy(mFlags, pos, mFlags, pos + gap, len);
+		} else if (pos > mGapStart) {
+			int len = pos - mGapStart;
+			System.arraycopy(mIds, mGapEnd, mIds, mGapStart, len);
+			System.arraycopy(mFlags, mGapEnd, mFlags, mGapStart, len);
+		}
+		mGapStart = pos;
+		mGapEnd = pos + gap;
+	}
+}
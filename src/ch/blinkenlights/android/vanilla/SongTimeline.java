@@ -26,16 +26,15 @@ package ch.blinkenlights.android.vanilla;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
-import android.net.Uri;
+import android.os.Process;
 import android.provider.MediaStore;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
+import android.util.LruCache;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.ListIterator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
 import junit.framework.Assert;
 
 /**
@@ -210,13 +209,72 @@ public final class SongTimeline {
 	 * @see SongTimeline#shiftCurrentSong(int)
 	 */
 	public static final int SHIFT_NEXT_ALBUM = 2;
+	/**
+	 * Number of songs before the current one populated by readState()
+	 */
+	private static final int RESTORE_BEHIND = 2;
+	/**
+	 * Number of songs after the current one populated by readState()
+	 */
+	private static final int RESTORE_AHEAD = 8;
+	/**
+	 * Maximum number of songs checked by a single MediaStore query
+	 */
+	private static final int POPULATE_PAGE_SIZE = 250;
+	/**
+	 * Number of songs populated around a song which is not in mHydrated
+	 */
+	private static final int POPULATE_ON_DEMAND = 32;
+	/**
+	 * Maximum number of Song objects kept in mHydrated
+	 */
+	private static final int HYDRATED_CACHE_SIZE = 256;
+	/**
+	 * Largest permutation domain of SHUFFLE_SONGS: 4^16 positions
+	 * hold any queue
+	 */
+	private static final int MAX_SHUFFLE_BITS = 16;
+	/**
+	 * How often the public getters populate missing songs and retry
+	 * before returning an unpopulated song
+	 */
+	private static final int POPULATE_PASSES = 3;
+	/**
+	 * Columns needed to group songs by album
+	 */
+	private static final String[] ALBUM_PROJECTION = {
+		MediaStore.Audio.Media._ID,
+		MediaStore.Audio.Media.ALBUM_ID,
+		MediaStore.Audio.Media.TRACK,
+	};
 
 	private final Context mContext;
 	/**
-	 * All the songs currently contained in the timeline. Each Song object
-	 * should be unique, even if it refers to the same media.
+	 * The ids and flags of all songs currently contained in the timeline.
+	 */
+	private SongQueue mSongs = new SongQueue(12);
+	/**
+	 * Populated songs of recently played positions, by cacheKey().
+	 * All other songs only exist as ids in mSongs.
 	 */
-	private ArrayList<Song> mSongs = new ArrayList<Song>(12);
+	private final LruCache<Long, Song> mHydrated = new LruCache<Long, Song>(HYDRATED_CACHE_SIZE);
+	/**
+	 * Cache keys of the songs getSongAt() found missing in mHydrated. They
+	 * are populated by populatePending() once the lock is released.
+	 */
+	private final HashSet<Long> mMissing = new HashSet<Long>();
+	/**
+	 * The song appended next by FINISH_RANDOM, picked by populatePending()
+	 */
+	private Song mRandomSong;
+	/**
+	 * Set if getSong() needed mRandomSong while it was not picked yet
+	 */
+	private boolean mNeedRandom;
+	/**
+	 * Set if getSong() needed mShuffleCache while it was not built yet
+	 */
+	private boolean mNeedRound;
 	/**
 	 * The position of the current song (i.e. the playing song).
 	 */
@@ -231,21 +289,52 @@ public final class SongTimeline {
 	 */
 	private int mFinishAction;
 	/**
-	 * Prepared (shuffled) replacement playlist
+	 * Defines the order of the next shuffled round: the round walks the
+	 * domain positions p from mShuffleStart on, wrapping around, and
+	 * plays the song at ShuffleUtils.permute(mShuffleSeed, p, mShuffleBits)
+	 * of mSongs unless that is >= size. Renewed whenever a round was
+	 * built from it.
 	 */
-	private ArrayList<Song> mShuffleCache;
+	private long mShuffleSeed;
+	/**
+	 * Permutation domain of the next shuffled round, 0 if not picked yet.
+	 * It is kept while songs are added, so the songs keep their order
+	 * in the round, until the queue outgrows it.
+	 */
+	private int mShuffleBits;
+	/**
+	 * Domain position of the first song of the next shuffled round, so
+	 * the song announced as the next one is the one actually played
+	 */
+	private long mShuffleStart;
+	/**
+	 * Prepared replacement playlist of SHUFFLE_ALBUMS, which can not be
+	 * derived from single positions as it groups songs by album
+	 */
+	private SongQueue mShuffleCache;
 	/**
 	 * Hash code of mSongs while mShuffleCache was generated
 	 */
 	private int mShuffleTicket;
+	/**
+	 * Songs restored by readState() which populateInBackground() still
+	 * has to check
+	 */
+	private SongQueue mUnverified;
 
 	// for saveActiveSongs()
-	private Song mSavedPrevious;
-	private Song mSavedCurrent;
-	private Song mSavedNext;
+	private long mSavedPrevious;
+	private long mSavedCurrent;
+	private long mSavedNext;
 	private int mSavedPos;
 	private int mSavedSize;
 
+	// returned by getChangedSongs()
+	private static final int CHANGED_PREVIOUS = 0x1;
+	private static final int CHANGED_CURRENT = 0x2;
+	private static final int CHANGED_NEXT = 0x4;
+	private static final int CHANGED_POSITION = 0x8;
+
 	/**
 	 * Interface to respond to timeline changes.
 	 */
@@ -279,150 +368,339 @@ public final class SongTimeline {
 	public SongTimeline(Context context)
 	{
 		mContext = context;
+		renewShuffleSeed();
 	}
 
 	/**
-	 * Compares the ids of songs.
+	 * Initializes the timeline with the given saved state. The state should
+	 * have been created by {@link SongTimeline#getQueueState()}.
+	 *
+	 * Only the songs around the current position are populated from the
+	 * MediaStore, all other songs are populated once they are accessed.
+	 *
+	 * @param state The state to restore.
 	 */
-	public static class IdComparator implements Comparator<Song> {
-		@Override
-		public int compare(Song a, Song b)
-		{
-			if (a.id == b.id)
-				return 0;
-			if (a.id > b.id)
-				return 1;
-			return -1;
+	public void readState(QueueJournal.QueueState state)
+	{
+		int n = state.size;
+		int pos = Math.abs(state.position);
+		SongQueue songs = new SongQueue(n);
+		for (int i = 0; i != n; ++i) {
+			long id = state.ids[i];
+			if (id == -1) {
+				if (i < state.position)
+					pos--;
+				continue;
+			}
+			songs.add(id, state.flags[i] & ~(~0 << Song.FLAG_COUNT));
+		}
+		pos = Math.min(songs.size(), pos);
+
+		// Populate the neighbourhood of the current song, including the
+		// songs the queue wraps around to, so playback can start right away.
+		// This happens before taking the lock as it queries the MediaStore.
+		int size = songs.size();
+		int from = Math.max(0, pos - RESTORE_BEHIND);
+		int to = Math.min(size, pos + RESTORE_AHEAD + 1);
+		boolean populated = false;
+		if (size != 0) {
+			HashSet<Long> keys = new HashSet<Long>();
+			for (int i = from; i != to; ++i)
+				keys.add(cacheKey(songs.getId(i), songs.getFlags(i)));
+			keys.add(cacheKey(songs.getId(0), songs.getFlags(0)));
+			keys.add(cacheKey(songs.getId(size - 1), songs.getFlags(size - 1)));
+			populated = hydrate(keys);
 		}
-	}
 
-	/**
-	 * Compares the flags of songs.
-	 */
-	public static class FlagComparator implements Comparator<Song> {
-		@Override
-		public int compare(Song a, Song b)
-		{
-			return a.flags - b.flags;
+		synchronized (this) {
+			mSongs = songs;
+			mCurrentPos = pos;
+			mFinishAction = state.finishAction;
+			mShuffleMode = state.shuffleMode;
+			if (state.shuffleSeed != 0) {
+				mShuffleSeed = state.shuffleSeed;
+				mShuffleBits = state.shuffleBits;
+				mShuffleStart = state.shuffleStart;
+			}
+			mShuffleCache = null;
+
+			// Guard against corruption
+			if (mFinishAction < 0 || mFinishAction >= FINISH_ICONS.length)
+				mFinishAction = 0;
+			if (mShuffleMode < 0 || mShuffleMode >= SHUFFLE_ICONS.length)
+				mShuffleMode = 0;
+			if (mShuffleBits < 0 || mShuffleBits > MAX_SHUFFLE_BITS || mShuffleStart < 0 || mShuffleStart >= 1L << (2 * mShuffleBits))
+				mShuffleBits = 0;
+
+			if (songs.isEmpty())
+				return;
+
+			if (populated) {
+				HashSet<Long> missing = new HashSet<Long>();
+				for (int i = from; i != to; ++i) {
+					Song song = mHydrated.get(cacheKey(songs.getId(i), songs.getFlags(i)));
+					if (song != null && !song.isFilled())
+						missing.add(songs.getId(i));
+				}
+				removeIds(missing);
+			}
+
+			// Let the background check whether the other songs still exist
+			mUnverified = new SongQueue(songs);
 		}
 	}
 
 	/**
-	 * Initializes the timeline with data read from the stream. Data should have
-	 * been saved by a call to {@link SongTimeline#writeState(DataOutputStream)}.
-	 *
-	 * @param in The stream to read from.
+	 * Removes all songs restored by readState() which no longer exist in the
+	 * MediaStore. Runs in bounded batches on a background thread.
 	 */
-	public void readState(DataInputStream in) throws IOException
+	public void populateInBackground()
 	{
+		final SongQueue pending;
 		synchronized (this) {
-			int n = in.readInt();
-			if (n > 0) {
-				ArrayList<Song> songs = new ArrayList<Song>(n);
-
-				// Fill the selection with the ids of all the saved songs
-				// and initialize the timeline with unpopulated songs.
-				StringBuilder selection = new StringBuilder("_ID IN (");
-				for (int i = 0; i != n; ++i) {
-					long id = in.readLong();
-					if (id == -1)
-						continue;
-
-					// Add the index to the flags so we can sort
-					int flags = in.readInt() & ~(~0 << Song.FLAG_COUNT) | i << Song.FLAG_COUNT;
-					songs.add(new Song(id, flags));
-
-					if (i != 0)
-						selection.append(',');
-					selection.append(id);
-				}
-				selection.append(')');
-
-				// Sort songs by id---this is the order the query will
-				// return its results in.
-				Collections.sort(songs, new IdComparator());
+			pending = mUnverified;
+			mUnverified = null;
+		}
+		if (pending == null || pending.isEmpty())
+			return;
 
+		Thread thread = new Thread("SongTimelinePopulate") {
+			@Override
+			public void run()
+			{
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 				ContentResolver resolver = mContext.getContentResolver();
-				Uri media = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-
-				Cursor cursor = MediaUtils.queryResolver(resolver, media, Song.FILLED_PROJECTION, selection.toString(), null, "_id");
-				if (cursor != null) {
-					if (cursor.getCount() != 0) {
-						cursor.moveToNext();
-
-						// Loop through timeline entries, looking for a row
-						// that matches the id. One row may match multiple
-						// entries.
-						Iterator<Song> it = songs.iterator();
-						while (it.hasNext()) {
-							Song e = it.next();
-							while (cursor.getLong(0) < e.id && !cursor.isLast())
-								cursor.moveToNext();
-							if (cursor.getLong(0) == e.id)
-								e.populate(cursor);
-						}
-					}
-
+				long[] ids = new long[pending.size()];
+				pending.copyIdsTo(ids);
+
+				HashSet<Long> missing = new HashSet<Long>();
+				for (int i = 0; i < ids.length; i += POPULATE_PAGE_SIZE) {
+					int end = Math.min(ids.length, i + POPULATE_PAGE_SIZE);
+					Cursor cursor = MediaUtils.queryIds(resolver, ids, i, end, Song.EMPTY_PROJECTION);
+					if (cursor == null)
+						return; // MediaStore is unavailable: keep the songs
+
+					HashSet<Long> found = new HashSet<Long>();
+					while (cursor.moveToNext())
+						found.add(cursor.getLong(0));
 					cursor.close();
 
-					// The query may have returned zero results or we might 
-					// have failed to populate some songs: Get rid of all
-					// uninitialized items
-					Iterator<Song> it = songs.iterator();
-					while (it.hasNext()) {
-						Song e = it.next();
-						if (e.isFilled() == false) {
-							it.remove();
-						}
+					for (int j = i; j != end; ++j) {
+						if (!found.contains(ids[j]))
+							missing.add(ids[j]);
 					}
+				}
 
-					// Revert to the order the songs were saved in.
-					Collections.sort(songs, new FlagComparator());
+				if (!missing.isEmpty()) {
+					int changes;
+					synchronized (SongTimeline.this) {
+						saveActiveSongs();
+						removeIds(missing);
+						changes = getChangedSongs();
+					}
+					broadcastChangedSongs(changes);
+					changed();
+				}
+			}
+		};
+		thread.start();
+	}
 
-					mSongs = songs;
+	/**
+	 * Returns the key of a song in mHydrated. Positions holding a song
+	 * added by FINISH_RANDOM get their own Song object, as the flags of
+	 * a Song must match the flags of its position.
+	 */
+	private static long cacheKey(long id, int flags)
+	{
+		return id << 1 | (flags & Song.FLAG_RANDOM);
+	}
+
+	/**
+	 * Populates the songs with the given cache keys and adds them to
+	 * mHydrated. Songs which no longer exist in the MediaStore are added
+	 * unfilled. Must be called without the timeline lock.
+	 *
+	 * @return false if the MediaStore could not be queried
+	 */
+	private boolean hydrate(Set<Long> keys)
+	{
+		long[] ids = new long[keys.size()];
+		int n = 0;
+		for (long key : keys) {
+			if ((key & Song.FLAG_RANDOM) == 0 || !keys.contains(key & ~Song.FLAG_RANDOM))
+				ids[n++] = key >>> 1;
+		}
+
+		ContentResolver resolver = mContext.getContentResolver();
+		ArrayList<Song> songs = new ArrayList<Song>(n);
+		for (int i = 0; i < n; i += POPULATE_PAGE_SIZE) {
+			Cursor cursor = MediaUtils.queryIds(resolver, ids, i, Math.min(n, i + POPULATE_PAGE_SIZE), Song.FILLED_PROJECTION);
+			if (cursor == null)
+				return false;
+
+			while (cursor.moveToNext()) {
+				for (int flags = 0; flags <= Song.FLAG_RANDOM; flags += Song.FLAG_RANDOM) {
+					if (keys.contains(cacheKey(cursor.getLong(0), flags))) {
+						Song song = new Song(-1);
+						song.populate(cursor);
+						song.flags = flags;
+						songs.add(song);
+					}
 				}
 			}
+			cursor.close();
+		}
 
-			mCurrentPos = Math.min(mSongs == null ? 0 : mSongs.size(), Math.abs(in.readInt()));
-			mFinishAction = in.readInt();
-			mShuffleMode = in.readInt();
+		synchronized (this) {
+			HashSet<Long> missing = new HashSet<Long>(keys);
+			for (Song song : songs) {
+				long key = cacheKey(song.id, song.flags);
+				missing.remove(key);
+				// keep songs which were added meanwhile: they may know FLAG_NO_COVER
+				if (mHydrated.get(key) == null)
+					mHydrated.put(key, song);
+			}
+			for (long key : missing) {
+				// removed from the MediaStore: the caller will skip it
+				if (mHydrated.get(key) == null)
+					mHydrated.put(key, new Song(key >>> 1, (int)(key & Song.FLAG_RANDOM)));
+			}
+		}
+		return true;
+	}
 
-			// Guard against corruption
-			if (mFinishAction < 0 || mFinishAction >= FINISH_ICONS.length)
-				mFinishAction = 0;
-			if (mShuffleMode < 0 || mShuffleMode >= SHUFFLE_ICONS.length)
-				mShuffleMode = 0;
+	/**
+	 * Runs the MediaStore queries requested while the lock was held:
+	 * populates the songs in mMissing, picks the next random song and
+	 * builds the next round of SHUFFLE_ALBUMS. Must be called without the
+	 * timeline lock.
+	 */
+	private void populatePending()
+	{
+		HashSet<Long> missing;
+		boolean random;
+		boolean round;
+		synchronized (this) {
+			missing = new HashSet<Long>(mMissing);
+			random = mNeedRandom && mRandomSong == null;
+			round = mNeedRound;
+			mMissing.clear();
+			mNeedRandom = false;
+			mNeedRound = false;
 		}
+
+		if (!missing.isEmpty())
+			hydrate(missing);
+		if (random) {
+			Song song = MediaUtils.randomSong(mContext.getContentResolver());
+			synchronized (this) {
+				if (mRandomSong == null)
+					mRandomSong = song;
+			}
+		}
+		if (round)
+			prepareShuffleRound(mShuffleMode);
 	}
 
 	/**
-	 * Writes the current songs and state to the given stream.
+	 * Returns true if populatePending() has work to do. Must be called
+	 * with the timeline lock held.
+	 */
+	private boolean hasPending()
+	{
+		return !mMissing.isEmpty() || mNeedRandom || mNeedRound;
+	}
+
+	/**
+	 * Returns the song at given position of `queue' if it is in mHydrated.
+	 * Otherwise, adds it and its neighbours to mMissing and returns an
+	 * unfilled song. Must be called with the timeline lock held.
+	 *
+	 * The flags of the returned song always match the flags of its position:
+	 * FLAG_NO_COVER found out by either of them is copied to the other one.
 	 *
-	 * @param out The stream to write to.
+	 * @return the song, which is not filled if it does not exist
+	 * in the MediaStore or was not populated yet
 	 */
-	public void writeState(DataOutputStream out) throws IOException
+	private Song getSongAt(SongQueue queue, int pos)
 	{
-		// Must update PlaybackService.STATE_VERSION when changing behavior
-		// here.
-		synchronized (this) {
-			ArrayList<Song> songs = mSongs;
+		long id = queue.getId(pos);
+		int flags = queue.getFlags(pos);
+		Song song = mHydrated.get(cacheKey(id, flags));
+		if (song == null) {
+			int from = Math.max(0, pos - POPULATE_ON_DEMAND / 4);
+			int to = Math.min(queue.size(), from + POPULATE_ON_DEMAND);
+			for (int i = from; i != to && mMissing.size() < HYDRATED_CACHE_SIZE; ++i) {
+				long key = cacheKey(queue.getId(i), queue.getFlags(i));
+				if (mHydrated.get(key) == null)
+					mMissing.add(key);
+			}
+			return new Song(id, flags);
+		}
 
-			int size = songs.size();
-			out.writeInt(size);
+		if (song.flags != flags) {
+			flags |= song.flags;
+			song.flags = flags;
+			queue.setFlags(pos, flags);
+		}
+		return song;
+	}
 
-			for (int i = 0; i != size; ++i) {
-				Song song = songs.get(i);
-				if (song == null) {
-					out.writeLong(-1);
-				} else {
-					out.writeLong(song.id);
-					out.writeInt(song.flags);
-				}
+	/**
+	 * Removes all songs with one of the given ids from the timeline, keeping
+	 * the current position. Must be called with the timeline lock held.
+	 *
+	 * @param ids The ids to remove.
+	 */
+	private void removeIds(Set<Long> ids)
+	{
+		SongQueue songs = mSongs;
+		for (int i = songs.size(); --i != -1; ) {
+			long id = songs.getId(i);
+			if (ids.contains(id)) {
+				if (i < mCurrentPos)
+					--mCurrentPos;
+				songs.remove(i);
 			}
+		}
+		for (long id : ids)
+			forget(id);
+
+		if (mCurrentPos >= songs.size())
+			mCurrentPos = 0;
+	}
 
-			out.writeInt(mCurrentPos);
-			out.writeInt(mFinishAction);
-			out.writeInt(mShuffleMode);
+	/**
+	 * Removes all Song objects of the given id from mHydrated. Must be
+	 * called with the timeline lock held.
+	 */
+	private void forget(long id)
+	{
+		mHydrated.remove(cacheKey(id, 0));
+		mHydrated.remove(cacheKey(id, Song.FLAG_RANDOM));
+	}
+
+	/**
+	 * Returns a copy of the current songs and state, to be persisted
+	 * by {@link QueueJournal#save(QueueJournal.QueueState)}.
+	 */
+	public QueueJournal.QueueState getQueueState()
+	{
+		// Must update QueueJournal.VERSION when changing behavior
+		// here.
+		synchronized (this) {
+			int size = mSongs.size();
+			QueueJournal.QueueState state = new QueueJournal.QueueState(size);
+			mSongs.copyTo(state.ids, state.flags);
+			state.size = size;
+			state.position = mCurrentPos;
+			state.finishAction = mFinishAction;
+			state.shuffleMode = mShuffleMode;
+			state.shuffleSeed = mShuffleSeed;
+			state.shuffleBits = mShuffleBits;
+			state.shuffleStart = mShuffleStart;
+			return state;
 		}
 	}
 
@@ -465,17 +743,24 @@ public final class SongTimeline {
 		if (mode == mShuffleMode)
 			return;
 
+		prepareShuffleRound(mode);
+
+		int changes;
 		synchronized (this) {
 			saveActiveSongs();
 			mShuffleMode = mode;
 			if (mode != SHUFFLE_NONE && mFinishAction != FINISH_RANDOM && !mSongs.isEmpty()) {
-				ArrayList<Song> songs = getShuffledTimeline(false);
-				mCurrentPos = songs.indexOf(mSavedCurrent);
-				mSongs = songs;
+				SongQueue songs = getShuffledTimeline();
+				if (songs != null) {
+					mCurrentPos = Math.max(0, songs.indexOf(mSavedCurrent));
+					mSongs = songs;
+					renewShuffleSeed();
+				}
 			}
-			broadcastChangedSongs();
+			changes = getChangedSongs();
 		}
 
+		broadcastChangedSongs(changes);
 		changed();
 	}
 
@@ -485,31 +770,184 @@ public final class SongTimeline {
 	 */
 	public void setFinishAction(int action)
 	{
-		saveActiveSongs();
-		mFinishAction = action;
-		broadcastChangedSongs();
+		int changes;
+		synchronized (this) {
+			saveActiveSongs();
+			mFinishAction = action;
+			changes = getChangedSongs();
+		}
+		broadcastChangedSongs(changes);
 		changed();
 	}
 
 	/**
-	 * Returns a shuffled (according to mShuffleMode) version
-	 * of the timeline. The returned result will get cached
+	 * Picks a new order for the next shuffled round
+	 */
+	private void renewShuffleSeed()
+	{
+		long seed;
+		do {
+			seed = MediaUtils.getRandom().nextLong();
+		} while (seed == 0); // 0 means 'no seed' in the saved state
+		mShuffleSeed = seed;
+		mShuffleBits = 0;
+		mShuffleCache = null;
+		latchShuffleRound();
+	}
+
+	/**
+	 * Picks the domain and the first song of the next round of
+	 * SHUFFLE_SONGS, unless the current ones still fit the timeline.
+	 * Must be called with the timeline lock held.
+	 */
+	private void latchShuffleRound()
+	{
+		int size = mSongs.size();
+		if (size == 0)
+			return;
+
+		if (mShuffleBits == 0 || (1L << (2 * mShuffleBits)) < size) {
+			mShuffleBits = ShuffleUtils.domainBits(size);
+			mShuffleStart = 0;
+		}
+		// moves on if the first song was removed from the end of the queue
+		mShuffleStart = ShuffleUtils.nextPosition(mShuffleSeed, mShuffleStart, mShuffleBits, size);
+	}
+
+	/**
+	 * Returns the timeline in the order of the next shuffled round
+	 * (according to mShuffleMode and mShuffleSeed). Callers using the
+	 * result as the new timeline must call renewShuffleSeed().
 	 *
-	 * @param cached the function may return a cached version if true
-	 * @return a *copy* of a shuffled version of the timeline
+	 * The timeline is stored in playback order, so entering a round of
+	 * SHUFFLE_SONGS still materialises a full copy of the queue: O(size)
+	 * time and memory, once per round. Only the peek at the first song
+	 * of the round (getFirstShuffledSong()) is a single lookup.
+	 *
+	 * @return a new copy of the shuffled timeline, null if the round of
+	 * SHUFFLE_ALBUMS was not built by prepareShuffleRound()
 	 */
-	private ArrayList<Song> getShuffledTimeline(boolean cached)
+	private SongQueue getShuffledTimeline()
 	{
-		if (cached == false)
+		if (mShuffleMode == SHUFFLE_ALBUMS) {
+			// hand out the cached round itself: it is about to be replaced
+			SongQueue albums = getShuffledAlbums();
 			mShuffleCache = null;
+			return albums;
+		}
+
+		latchShuffleRound();
+		SongQueue songs = mSongs;
+		int size = songs.size();
+		long mask = (1L << (2 * mShuffleBits)) - 1;
+		SongQueue shuffled = new SongQueue(size);
+		for (long i = 0; i <= mask && shuffled.size() != size; ++i) {
+			long pos = ShuffleUtils.permute(mShuffleSeed, (mShuffleStart + i) & mask, mShuffleBits);
+			if (pos < size)
+				shuffled.add(songs.getId((int)pos), songs.getFlags((int)pos));
+		}
+		return shuffled;
+	}
+
+	/**
+	 * Returns the first song of the next shuffled round. If the round of
+	 * SHUFFLE_ALBUMS was not built yet, this is the first song of the
+	 * timeline, as the timeline keeps its order when wrapping around
+	 * without a round.
+	 */
+	private Song getFirstShuffledSong()
+	{
+		if (mShuffleMode == SHUFFLE_ALBUMS) {
+			SongQueue albums = getShuffledAlbums();
+			return getSongAt(albums == null ? mSongs : albums, 0);
+		}
+		latchShuffleRound();
+		return getSongAt(mSongs, (int)ShuffleUtils.permute(mShuffleSeed, mShuffleStart, mShuffleBits));
+	}
+
+	/**
+	 * Returns the cached next round of SHUFFLE_ALBUMS, which must not be
+	 * modified. If it was not built yet, asks populatePending() to build it
+	 * and returns null. Must be called with the timeline lock held.
+	 */
+	private SongQueue getShuffledAlbums()
+	{
+		if (mShuffleCache == null)
+			mNeedRound = true;
+		return mShuffleCache;
+	}
+
+	/**
+	 * Builds the next round of SHUFFLE_ALBUMS from a copy of the timeline,
+	 * unless it is cached already or `mode' does not shuffle albums.
+	 * Must be called without the timeline lock, as it queries the album of
+	 * every song.
+	 *
+	 * @param mode The shuffle mode the round is needed for
+	 */
+	private void prepareShuffleRound(int mode)
+	{
+		SongQueue songs;
+		long seed;
+		synchronized (this) {
+			if (mode != SHUFFLE_ALBUMS || mShuffleCache != null || mSongs.isEmpty())
+				return;
+			songs = new SongQueue(mSongs);
+			seed = mShuffleSeed;
+		}
+
+		SongQueue round = shuffleAlbums(songs, new Random(seed));
+
+		synchronized (this) {
+			// the round is outdated if the timeline changed meanwhile
+			if (mShuffleCache == null && mShuffleSeed == seed && mSongs.equals(songs)) {
+				mShuffleCache = round;
+				mShuffleTicket = songs.hashCode();
+			}
+		}
+	}
 
-		if (mShuffleCache == null) {
-			ArrayList<Song> songs = new ArrayList<Song>(mSongs);
-			MediaUtils.shuffle(songs, mShuffleMode == SHUFFLE_ALBUMS);
-			mShuffleCache = songs;
-			mShuffleTicket = mSongs.hashCode();
+	/**
+	 * Returns a copy of `queue' with its albums shuffled. Only the album
+	 * and track number of each song are queried.
+	 */
+	private SongQueue shuffleAlbums(SongQueue queue, Random random)
+	{
+		int size = queue.size();
+		long[] ids = new long[size];
+		queue.copyIdsTo(ids);
+
+		ContentResolver resolver = mContext.getContentResolver();
+		HashMap<Long, Song> albums = new HashMap<Long, Song>();
+		for (int i = 0; i < size; i += POPULATE_PAGE_SIZE) {
+			Cursor cursor = MediaUtils.queryIds(resolver, ids, i, Math.min(size, i + POPULATE_PAGE_SIZE), ALBUM_PROJECTION);
+			if (cursor == null)
+				continue;
+			while (cursor.moveToNext()) {
+				Song song = new Song(cursor.getLong(0));
+				song.albumId = cursor.getLong(1);
+				song.trackNumber = cursor.getInt(2);
+				albums.put(song.id, song);
+			}
+			cursor.close();
+		}
+
+		ArrayList<Song> songs = new ArrayList<Song>(size);
+		for (int i = 0; i != size; ++i) {
+			Song song = new Song(queue.getId(i), queue.getFlags(i));
+			Song album = albums.get(song.id);
+			if (album != null) {
+				song.albumId = album.albumId;
+				song.trackNumber = album.trackNumber;
+			}
+			songs.add(song);
 		}
-		return new ArrayList<Song>(mShuffleCache);
+		MediaUtils.shuffle(songs, true, random);
+
+		SongQueue shuffled = new SongQueue(size);
+		for (Song song : songs)
+			shuffled.add(song.id, song.flags);
+		return shuffled;
 	}
 
 	/**
@@ -518,14 +956,22 @@ public final class SongTimeline {
 	 */
 	private void reshuffleTimeline()
 	{
+		prepareShuffleRound(mShuffleMode);
+
+		int changes;
 		synchronized (this) {
 			saveActiveSongs();
-			ArrayList<Song> songs = getShuffledTimeline(false);
-			int newPosition = songs.indexOf(mSavedCurrent);
-			Collections.swap(songs, newPosition, mCurrentPos);
-			mSongs = songs;
-			broadcastChangedSongs();
+			SongQueue songs = getShuffledTimeline();
+			if (songs != null) {
+				int newPosition = songs.indexOf(mSavedCurrent);
+				if (newPosition != -1)
+					songs.swap(newPosition, mCurrentPos);
+				mSongs = songs;
+				renewShuffleSeed();
+			}
+			changes = getChangedSongs();
 		}
+		broadcastChangedSongs(changes);
 		changed();
 	}
 
@@ -533,53 +979,70 @@ public final class SongTimeline {
 	 * Returns the song <code>delta</code> places away from the current
 	 * position. Returns null if there is a problem retrieving the song.
 	 *
+	 * Songs which are not populated yet are queried from the MediaStore
+	 * after releasing the lock, then the lookup is repeated.
+	 *
 	 * @param delta The offset from the current position. Must be -1, 0, or 1.
 	 */
 	public Song getSong(int delta)
 	{
 		Assert.assertTrue(delta >= -1 && delta <= 1);
 
-		ArrayList<Song> timeline = mSongs;
-		Song song;
+		for (int pass = 1; ; ++pass) {
+			synchronized (this) {
+				Song song = getSongLocked(delta);
+				if (pass == POPULATE_PASSES || !hasPending())
+					return song;
+			}
+			populatePending();
+		}
+	}
 
-		synchronized (this) {
-			int pos = mCurrentPos + delta;
-			int size = timeline.size();
+	/**
+	 * Implementation of getSong(), which must be called with the timeline
+	 * lock held. Returns an unfilled song if the song was not populated yet,
+	 * or null if the random song of FINISH_RANDOM was not picked yet.
+	 */
+	private Song getSongLocked(int delta)
+	{
+		SongQueue timeline = mSongs;
+		int pos = mCurrentPos + delta;
+		int size = timeline.size();
+		Song song;
 
-			if (pos < 0) {
-				if (size == 0 || mFinishAction == FINISH_RANDOM)
-					return null;
-				song = timeline.get(Math.max(0, size - 1));
-			} else if (pos > size) {
+		if (pos < 0) {
+			if (size == 0 || mFinishAction == FINISH_RANDOM)
 				return null;
-			} else if (pos == size) {
-				if (mFinishAction == FINISH_RANDOM) {
-					song = MediaUtils.randomSong(mContext.getContentResolver());
-					if (song == null)
-						return null;
-					timeline.add(song);
-					// Keep the queue at 20 items to avoid growing forever
-					// Note that we do not broadcast the addition of this song, as it
-					// was virtually 'always there'
-					shrinkQueue(20);
-				} else {
-					if (size == 0)
-						// empty queue
-						return null;
-					else if (mShuffleMode != SHUFFLE_NONE)
-						song = getShuffledTimeline(true).get(0);
-					else
-						song = timeline.get(0);
+			song = getSongAt(timeline, Math.max(0, size - 1));
+		} else if (pos > size) {
+			return null;
+		} else if (pos == size) {
+			if (mFinishAction == FINISH_RANDOM) {
+				song = mRandomSong;
+				if (song == null) {
+					mNeedRandom = true;
+					return null;
 				}
+				mRandomSong = null;
+				timeline.add(song.id, song.flags);
+				mHydrated.put(cacheKey(song.id, song.flags), song);
+				// Keep the queue at 20 items to avoid growing forever
+				// Note that we do not broadcast the addition of this song, as it
+				// was virtually 'always there'
+				shrinkQueue(20);
 			} else {
-				song = timeline.get(pos);
+				if (size == 0)
+					// empty queue
+					return null;
+				else if (mShuffleMode != SHUFFLE_NONE)
+					song = getFirstShuffledSong();
+				else
+					song = getSongAt(timeline, 0);
 			}
+		} else {
+			song = getSongAt(timeline, pos);
 		}
 
-		if (song == null)
-			// we have no songs in the library
-			return null;
-
 		return song;
 	}
 
@@ -596,7 +1059,12 @@ public final class SongTimeline {
 
 		if (mFinishAction != FINISH_RANDOM && pos == mSongs.size()) {
 			if (mShuffleMode != SHUFFLE_NONE && !mSongs.isEmpty()) {
-				mSongs = getShuffledTimeline(true);
+				// keep the order if the round of SHUFFLE_ALBUMS is not built
+				SongQueue songs = getShuffledTimeline();
+				if (songs != null) {
+					mSongs = songs;
+					renewShuffleSeed();
+				}
 			}
 
 			pos = 0;
@@ -610,15 +1078,48 @@ public final class SongTimeline {
 		mCurrentPos = pos;
 	}
 	
+	/**
+	 * Returns the paths of the current song and of up to `count' songs
+	 * following it, in playback order. The queue wraps around if it
+	 * is repeated in order, random songs are never included.
+	 *
+	 * @param count How many upcoming songs to return
+	 */
+	public ArrayList<String> getUpcomingPaths(int count)
+	{
+		for (int pass = 1; ; ++pass) {
+			synchronized (this) {
+				ArrayList<String> paths = new ArrayList<String>(count + 1);
+				SongQueue timeline = mSongs;
+				int size = timeline.size();
+				boolean wrap = mFinishAction == FINISH_REPEAT && mShuffleMode == SHUFFLE_NONE;
+				for (int i = 0; i <= count && i < size; i++) {
+					int pos = mCurrentPos + i;
+					if (pos >= size) {
+						if (!wrap)
+							break;
+						pos -= size;
+					}
+					paths.add(getSongAt(timeline, pos).path);
+				}
+				if (pass == POPULATE_PASSES || !hasPending())
+					return paths;
+			}
+			populatePending();
+		}
+	}
+
 	/**
 	 * Hard-Jump to given queue position
 	*/
 	public Song setCurrentQueuePosition(int pos) {
+		int changes;
 		synchronized (this) {
 			saveActiveSongs();
 			mCurrentPos = pos;
-			broadcastChangedSongs();
+			changes = getChangedSongs();
 		}
+		broadcastChangedSongs(changes);
 		changed();
 		return getSong(0);
 	}
@@ -627,12 +1128,28 @@ public final class SongTimeline {
 	 * Returns 'Song' at given position in queue
 	*/
 	public Song getSongByQueuePosition(int id) {
-		Song song = null;
+		for (int pass = 1; ; ++pass) {
+			synchronized (this) {
+				Song song = null;
+				if (mSongs.size() > id)
+					song = getSongAt(mSongs, id);
+				if (pass == POPULATE_PASSES || !hasPending())
+					return song;
+			}
+			populatePending();
+		}
+	}
+
+	/**
+	 * Returns the ids of all songs in the queue, in queue order. Does not
+	 * query the MediaStore.
+	 */
+	public long[] getQueueIds() {
 		synchronized (this) {
-			if (mSongs.size() > id)
-				song = mSongs.get(id);
+			long[] ids = new long[mSongs.size()];
+			mSongs.copyIdsTo(ids);
+			return ids;
 		}
-		return song;
 	}
 	
 	/**
@@ -643,22 +1160,19 @@ public final class SongTimeline {
 	 */
 	public Song shiftCurrentSong(int delta)
 	{
-		synchronized (this) {
-			if (delta == SHIFT_KEEP_SONG) {
-				// void
-			}
-			else if (delta == SHIFT_PREVIOUS_SONG || delta == SHIFT_NEXT_SONG) {
+		// build the next round of SHUFFLE_ALBUMS if the shift may wrap around
+		if (delta == SHIFT_NEXT_ALBUM || (delta == SHIFT_NEXT_SONG && mCurrentPos + 1 >= mSongs.size()))
+			prepareShuffleRound(mShuffleMode);
+
+		if (delta == SHIFT_KEEP_SONG) {
+			// void
+		}
+		else if (delta == SHIFT_PREVIOUS_SONG || delta == SHIFT_NEXT_SONG) {
+			synchronized (this) {
 				shiftCurrentSongInternal(delta);
-			} else {
-				Song song = getSong(0);
-				long currentAlbum = song.albumId;
-				long currentSong = song.id;
-				delta = delta > 0 ? 1 : -1;
-				do {
-					shiftCurrentSongInternal(delta);
-					song = getSong(0);
-				} while (currentAlbum == song.albumId && currentSong != song.id);
 			}
+		} else {
+			shiftCurrentAlbum(delta > 0 ? 1 : -1);
 		}
 
 		if (delta != SHIFT_KEEP_SONG)
@@ -666,6 +1180,41 @@ public final class SongTimeline {
 		return getSong(0);
 	}
 
+	/**
+	 * Moves to the first song of the next or previous album. Stops at songs
+	 * which are not populated yet to populate them without holding the lock,
+	 * then continues from there.
+	 *
+	 * @param delta -1 to move to the previous album or 1 for the next.
+	 */
+	private void shiftCurrentAlbum(int delta)
+	{
+		Song song = getSong(0);
+		if (song == null)
+			return;
+		long currentAlbum = song.albumId;
+		long currentSong = song.id;
+
+		boolean shift = true;
+		for (int pass = 1; ; ++pass) {
+			synchronized (this) {
+				mMissing.clear();
+				do {
+					if (shift)
+						shiftCurrentSongInternal(delta);
+					shift = true;
+					song = getSongLocked(0);
+				} while (mMissing.isEmpty() && song != null && currentAlbum == song.albumId && currentSong != song.id);
+
+				if (mMissing.isEmpty() || pass == POPULATE_PASSES)
+					return;
+			}
+			// check the populated song before moving on
+			populatePending();
+			shift = false;
+		}
+	}
+
 	/**
 	 * Run the given query and add the results to the song timeline.
 	 *
@@ -702,8 +1251,9 @@ public final class SongTimeline {
 			return 0;
 		}
 
-		ArrayList<Song> timeline = mSongs;
+		int changes;
 		synchronized (this) {
+			SongQueue timeline = mSongs;
 			saveActiveSongs();
 
 			switch (mode) {
@@ -714,13 +1264,14 @@ public final class SongTimeline {
 				if (mFinishAction == FINISH_RANDOM) {
 					int j = timeline.size();
 					while (--j > mCurrentPos) {
-						if (timeline.get(j).isRandom())
+						if ((timeline.getFlags(j) & Song.FLAG_RANDOM) != 0)
 							timeline.remove(j);
 					}
 				}
 				break;
 			case MODE_FLUSH_AND_PLAY_NEXT:
-				timeline.subList(mCurrentPos + 1, timeline.size()).clear();
+				if (mCurrentPos + 1 < timeline.size())
+					timeline.removeRange(mCurrentPos + 1, timeline.size());
 				break;
 			case MODE_PLAY:
 			case MODE_PLAY_POS_FIRST:
@@ -734,6 +1285,7 @@ public final class SongTimeline {
 
 			int start = timeline.size();
 
+			ArrayList<Song> songs = new ArrayList<Song>(count);
 			Song jumpSong = null;
 			int addAtPos = mCurrentPos + 1;
 
@@ -755,7 +1307,7 @@ public final class SongTimeline {
 					continue;
 				}
 
-				timeline.add(addAtPos++, song);
+				songs.add(song);
 				added++;
 
 				if (jumpSong == null) {
@@ -785,20 +1337,29 @@ public final class SongTimeline {
 			cursor.close();
 
 			if (mShuffleMode != SHUFFLE_NONE)
-				MediaUtils.shuffle(timeline.subList(start, timeline.size()), mShuffleMode == SHUFFLE_ALBUMS);
+				MediaUtils.shuffle(songs, mShuffleMode == SHUFFLE_ALBUMS);
 
 			if (jumpSong != null) {
-				int jumpPos = timeline.indexOf(jumpSong);
-				if (jumpPos != start) {
-					// Get the sublist twice to avoid a ConcurrentModificationException.
-					timeline.addAll(timeline.subList(start, jumpPos));
-					timeline.subList(start, jumpPos).clear();
-				}
+				// start with the song to jump to and wrap around
+				Collections.rotate(songs, -songs.indexOf(jumpSong));
 			}
 
-			broadcastChangedSongs();
+			long[] ids = new long[added];
+			int[] flags = new int[added];
+			for (int j = 0; j != added; ++j) {
+				Song song = songs.get(j);
+				ids[j] = song.id;
+				flags[j] = song.flags;
+				// the first songs are likely to be played soon
+				if (j < RESTORE_AHEAD)
+					mHydrated.put(cacheKey(song.id, song.flags), song);
+			}
+			timeline.insert(addAtPos, ids, flags, added);
+
+			changes = getChangedSongs();
 		}
 
+		broadcastChangedSongs(changes);
 		changed();
 
 		return added;
@@ -809,9 +1370,9 @@ public final class SongTimeline {
 	 */
 	private void shrinkQueue(int len) {
 		synchronized (this) {
-			while (mCurrentPos > len) {
-				mSongs.remove(0);
-				mCurrentPos--;
+			if (mCurrentPos > len) {
+				mSongs.removeRange(0, mCurrentPos - len);
+				mCurrentPos = len;
 			}
 		}
 		changed();
@@ -822,13 +1383,15 @@ public final class SongTimeline {
 	 */
 	public void clearQueue()
 	{
+		int changes;
 		synchronized (this) {
 			saveActiveSongs();
 			if (mCurrentPos + 1 < mSongs.size())
-				mSongs.subList(mCurrentPos + 1, mSongs.size()).clear();
-			broadcastChangedSongs();
+				mSongs.removeRange(mCurrentPos + 1, mSongs.size());
+			changes = getChangedSongs();
 		}
 
+		broadcastChangedSongs(changes);
 		changed();
 	}
 
@@ -837,52 +1400,73 @@ public final class SongTimeline {
 	 */
 	public void emptyQueue()
 	{
+		int changes;
 		synchronized (this) {
 			saveActiveSongs();
 			mSongs.clear();
 			mCurrentPos = 0;
-			broadcastChangedSongs();
+			changes = getChangedSongs();
 		}
 
+		broadcastChangedSongs(changes);
 		changed();
 	}
 
 	/**
-	 * Save the active songs for use with broadcastChangedSongs().
+	 * Save the ids of the active songs for use with getChangedSongs().
+	 * Must be called with the timeline lock held.
 	 *
-	 * @see SongTimeline#broadcastChangedSongs()
+	 * @see SongTimeline#getChangedSongs()
 	 */
 	private void saveActiveSongs()
 	{
-		mSavedPrevious = getSong(-1);
-		mSavedCurrent = getSong(0);
-		mSavedNext = getSong(+1);
+		mSavedPrevious = Song.getId(getSongLocked(-1));
+		mSavedCurrent = Song.getId(getSongLocked(0));
+		mSavedNext = Song.getId(getSongLocked(+1));
 		mSavedPos = mCurrentPos;
 		mSavedSize = mSongs.size();
 	}
 
 	/**
-	 * Broadcast the active songs that have changed since the last call to
-	 * saveActiveSongs()
+	 * Returns which active songs have changed since the last call to
+	 * saveActiveSongs(), to be passed to broadcastChangedSongs() once
+	 * the timeline lock is released. Must be called with the timeline
+	 * lock held.
 	 *
-	 * @see SongTimeline#saveActiveSongs()
+	 * @return a combination of the CHANGED_* flags
 	 */
-	private void broadcastChangedSongs()
+	private int getChangedSongs()
 	{
-		if (mCallback == null) return;
+		int changes = 0;
+		if (mSavedPrevious != Song.getId(getSongLocked(-1)))
+			changes |= CHANGED_PREVIOUS;
+		if (mSavedCurrent != Song.getId(getSongLocked(0)))
+			changes |= CHANGED_CURRENT;
+		if (mSavedNext != Song.getId(getSongLocked(+1)))
+			changes |= CHANGED_NEXT;
+		if (mCurrentPos != mSavedPos || mSongs.size() != mSavedSize)
+			changes |= CHANGED_POSITION;
+		return changes;
+	}
 
-		Song previous = getSong(-1);
-		Song current = getSong(0);
-		Song next = getSong(+1);
+	/**
+	 * Broadcast the active songs that have changed. Must be called without
+	 * the timeline lock, as the songs may have to be populated.
+	 *
+	 * @param changes The changes returned by getChangedSongs()
+	 */
+	private void broadcastChangedSongs(int changes)
+	{
+		if (mCallback == null) return;
 
-		if (Song.getId(mSavedPrevious) != Song.getId(previous))
-			mCallback.activeSongReplaced(-1, previous);
-		if (Song.getId(mSavedNext) != Song.getId(next))
-			mCallback.activeSongReplaced(1, next);
-		if (Song.getId(mSavedCurrent) != Song.getId(current))
-			mCallback.activeSongReplaced(0, current);
+		if ((changes & CHANGED_PREVIOUS) != 0)
+			mCallback.activeSongReplaced(-1, getSong(-1));
+		if ((changes & CHANGED_NEXT) != 0)
+			mCallback.activeSongReplaced(1, getSong(+1));
+		if ((changes & CHANGED_CURRENT) != 0)
+			mCallback.activeSongReplaced(0, getSong(0));
 
-		if (mCurrentPos != mSavedPos || mSongs.size() != mSavedSize)
+		if ((changes & CHANGED_POSITION) != 0)
 			mCallback.positionInfoChanged();
 	}
 
@@ -893,26 +1477,27 @@ public final class SongTimeline {
 	 */
 	public void removeSong(long id)
 	{
+		int changes;
 		synchronized (this) {
 			saveActiveSongs();
 
-			ArrayList<Song> songs = mSongs;
-			ListIterator<Song> it = songs.listIterator();
-			while (it.hasNext()) {
-				int i = it.nextIndex();
-				if (Song.getId(it.next()) == id) {
+			SongQueue songs = mSongs;
+			for (int i = songs.size(); --i != -1; ) {
+				if (songs.getId(i) == id) {
 					if (i < mCurrentPos)
 						--mCurrentPos;
-					it.remove();
+					songs.remove(i);
 				}
 			}
+			forget(id);
 
-			if (getSong(1) == null)
+			if (mCurrentPos >= songs.size())
 				mCurrentPos = 0;
 
-			broadcastChangedSongs();
+			changes = getChangedSongs();
 		}
 
+		broadcastChangedSongs(changes);
 		changed();
 	}
 
@@ -921,8 +1506,9 @@ public final class SongTimeline {
 	 * @param pos index to use
 	 */
 	public void removeSongPosition(int pos) {
+		int changes;
 		synchronized (this) {
-			ArrayList<Song> songs = mSongs;
+			SongQueue songs = mSongs;
 
 			if (songs.size() <= pos) // may happen if we race with purge()
 				return;
@@ -932,11 +1518,12 @@ public final class SongTimeline {
 			songs.remove(pos);
 			if (pos < mCurrentPos)
 				mCurrentPos--;
-			if (getSong(1) == null) // wrap around if this was the last song
+			if (mCurrentPos >= songs.size()) // wrap around if this was the last song
 				mCurrentPos = 0;
 
-			broadcastChangedSongs();
+			changes = getChangedSongs();
 		}
+		broadcastChangedSongs(changes);
 		changed();
 	}
 
@@ -946,16 +1533,16 @@ public final class SongTimeline {
 	 * @param to index to move to
 	 */
 	public void moveSongPosition(int from, int to) {
+		int changes;
 		synchronized (this) {
-			ArrayList<Song> songs = mSongs;
+			SongQueue songs = mSongs;
 
 			if (songs.size() <= from || songs.size() <= to) // may happen if we race with purge()
 				return;
 
 			saveActiveSongs();
 
-			Song tmp = songs.remove(from);
-			songs.add(to, tmp);
+			songs.move(from, to);
 
 			if (mCurrentPos == from) {
 				mCurrentPos = to; // active song was dragged to 'to'
@@ -965,8 +1552,9 @@ public final class SongTimeline {
 				mCurrentPos--;
 			}
 
-			broadcastChangedSongs();
+			changes = getChangedSongs();
 		}
+		broadcastChangedSongs(changes);
 		changed();
 	}
 
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ch.blinkenlights.android.vanilla;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import ch.blinkenlights.bastp.Bastp;
+import ch.blinkenlights.bastp.TagRecord;
+
+import java.io.File;
+
+/**
+ * Persistent index of parsed bastp tags.
+ *
+ * Entries are keyed by path and are only considered to be valid
+ * while the mtime and size of the file did not change: stale entries
+ * are re-parsed on the next lookup.
+ */
+public class TagIndex extends SQLiteOpenHelper {
+	/**
+	 * SQLite table to use
+	 */
+	private final static String TABLE_NAME = "tagindex";
+	/**
+	 * The field groups we parse and store
+	 */
+	private final static int INDEXED_FIELDS = TagRecord.FIELD_GAIN | TagRecord.FIELD_DURATION | TagRecord.FIELD_CORE;
+	/**
+	 * Projection of all columns in the database
+	 */
+	private final static String[] FULL_PROJECTION = {"mtime", "size", "type", "duration", "track_gain", "album_gain", "track_peak", "album_peak",
+	                                                 "r128_base", "r128_track", "r128_album", "title", "artist", "album"};
+	/**
+	 * Parser used on index misses
+	 */
+	private final Bastp mBastp = new Bastp();
+
+	/**
+	 * Creates a new TagIndex instance
+	 *
+	 * @param context The context to use
+	 */
+	public TagIndex(Context context) {
+		super(context, "tagindex.db", null, 1 /* version */);
+	}
+
+	/**
+	 * Called by SQLiteOpenHelper to create the database schema
+	 */
+	@Override
+	public void onCreate(SQLiteDatabase dbh) {
+		dbh.execSQL("CREATE TABLE "+TABLE_NAME+" (path TEXT, mtime INTEGER, size INTEGER, type TEXT, duration INTEGER, "
+		           +"track_gain REAL, album_gain REAL, track_peak REAL, album_peak REAL, "
+		           +"r128_base INTEGER, r128_track INTEGER, r128_album INTEGER, title TEXT, artist TEXT, album TEXT);");
+		dbh.execSQL("CREATE UNIQUE INDEX idx ON "+TABLE_NAME+" (path);");
+	}
+
+	/**
+	 * Called by SqLiteOpenHelper if the database needs an upgrade
+	 */
+	@Override
+	public void onUpgrade(SQLiteDatabase dbh, int oldVersion, int newVersion) {
+		// first db -> nothing to upgrade
+	}
+
+	/**
+	 * Returns the tags of given file, either from the index or
+	 * by parsing the file if the index has no (valid) entry.
+	 * Files which could not be parsed are not indexed and will be
+	 * parsed again on the next lookup
+	 *
+	 * @param path the file to look up
+	 * @return the tags of the file, never null
+	 */
+	public TagRecord getTags(String path) {
+		File file = new File(path);
+		long mtime = file.lastModified();
+		long size = file.length();
+
+		if (mtime == 0) {
+			// file does not exist (or is unreadable): nothing to index
+			return mBastp.getTags(path, INDEXED_FIELDS);
+		}
+
+		TagRecord tags = get(path, mtime, size);
+		if (tags == null) {
+			tags = mBastp.getTags(path, INDEXED_FIELDS);
+			// bastp only sets a type if the file could be parsed: failures
+			// (eg. storage not ready) must not be cached until the file changes
+			if (tags.type != null)
+				put(path, mtime, size, tags);
+		}
+		return tags;
+	}
+
+	/**
+	 * Drops all indexed entries
+	 */
+	public void evictAll() {
+		getWritableDatabase().delete(TABLE_NAME, "1", null);
+	}
+
+	/**
+	 * Returns the indexed tags of path, null if there is no entry
+	 * or if the entry does not match the given mtime and size
+	 */
+	private TagRecord get(String path, long mtime, long size) {
+		TagRecord tags = null;
+
+		SQLiteDatabase dbh = getReadableDatabase();
+		Cursor cursor = dbh.query(TABLE_NAME, FULL_PROJECTION, "path=?", new String[] { path }, null, null, null);
+		if (cursor != null) {
+			if (cursor.moveToFirst() && cursor.getLong(0) == mtime && cursor.getLong(1) == size) {
+				tags = new TagRecord(INDEXED_FIELDS);
+				tags.type = cursor.getString(2);
+				tags.duration = cursor.getLong(3);
+				tags.trackGain = getFloat(cursor, 4);
+				tags.albumGain = getFloat(cursor, 5);
+				tags.trackPeak = getFloat(cursor, 6);
+				tags.albumPeak = getFloat(cursor, 7);
+				tags.r128BaseGain = cursor.getInt(8);
+				tags.r128TrackGain = cursor.getInt(9);
+				tags.r128AlbumGain = cursor.getInt(10);
+				addString(tags, "TITLE", cursor, 11);
+				addString(tags, "ARTIST", cursor, 12);
+				addString(tags, "ALBUM", cursor, 13);
+			}
+			cursor.close();
+		}
+		return tags;
+	}
+
+	/**
+	 * Stores tags of path, replacing any existing entry
+	 */
+	private void put(String path, long mtime, long size, TagRecord tags) {
+		ContentValues values = new ContentValues();
+		values.put("path"      , path);
+		values.put("mtime"     , mtime);
+		values.put("size"      , size);
+		values.put("type"      , tags.type);
+		values.put("duration"  , tags.duration);
+		putFloat(values, "track_gain", tags.trackGain);
+		putFloat(values, "album_gain", tags.albumGain);
+		putFloat(values, "track_peak", tags.trackPeak);
+		putFloat(values, "album_peak", tags.albumPeak);
+		values.put("r128_base" , tags.r128BaseGain);
+		values.put("r128_track", tags.r128TrackGain);
+		values.put("r128_album", tags.r128AlbumGain);
+		values.put("title"     , tags.get("TITLE"));
+		values.put("artist"    , tags.get("ARTIST"));
+		values.put("album"     , tags.get("ALBUM"));
+
+		getWritableDatabase().insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+	}
+
+	/**
+	 * SQLite has no NaN: unset floats are stored as NULL
+	 */
+	private static void putFloat(ContentValues values, String key, float value) {
+		if (Float.isNaN(value)) {
+			values.putNull(key);
+		} else {
+			values.put(key, value);
+		}
+	}
+
+	private static float getFloat(Cursor cursor, int column) {
+		return cursor.isNull(column) ? Float.NaN : cursor.getFloat(column);
+	}
+
+	private static void addString(TagRecord tags, String key, Cursor cursor, int column) {
+		if (!cursor.isNull(column))
+			tags.add(key, cursor.getString(column));
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.android.vanilla;
+
+import java.io.PrintWriter;
+
+/**
+ * Latency histograms of the stages of a song change in PlaybackService.
+ *
+ * All values are recorded in microseconds.
+ */
+public final class TransitionStats {
+	/**
+	 * setCurrentSong(), up to queuing MSG_PROCESS_SONG
+	 */
+	public static final int SET_CURRENT_SONG = 0;
+	/**
+	 * processSong(), including all of the stages below
+	 */
+	public static final int PROCESS_SONG = 1;
+	/**
+	 * VanillaMediaPlayer.setDataSource()
+	 */
+	public static final int SET_DATA_SOURCE = 2;
+	/**
+	 * VanillaMediaPlayer.prepare()
+	 */
+	public static final int PREPARE = 3;
+	/**
+	 * applyReplayGain()
+	 */
+	public static final int APPLY_REPLAY_GAIN = 4;
+	/**
+	 * VanillaMediaPlayer.start()
+	 */
+	public static final int START = 5;
+	/**
+	 * triggerGaplessUpdate()
+	 */
+	public static final int GAPLESS_UPDATE = 6;
+	/**
+	 * Time MSG_PROCESS_SONG spent in the handler queue
+	 */
+	public static final int QUEUE_PROCESS_SONG = 7;
+	/**
+	 * Time MSG_QUERY spent in the handler queue
+	 */
+	public static final int QUEUE_QUERY = 8;
+	/**
+	 * Names of all stages, used by dump()
+	 */
+	public static final String[] NAMES = { "setCurrentSong", "processSong", "setDataSource", "prepare",
+	                                       "applyReplayGain", "start", "triggerGaplessUpdate",
+	                                       "queue MSG_PROCESS_SONG", "queue MSG_QUERY" };
+
+	private static final LatencyHistogram[] sHistograms = new LatencyHistogram[NAMES.length];
+	static {
+		for (int i = 0; i < sHistograms.length; i++)
+			sHistograms[i] = new LatencyHistogram();
+	}
+
+	private TransitionStats() {
+	}
+
+	/**
+	 * Records the time passed since `startNanos'
+	 *
+	 * @param stage One of the stage constants
+	 * @param startNanos The start of the stage, as returned by System.nanoTime()
+	 */
+	public static void record(int stage, long startNanos) {
+		sHistograms[stage].record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	/**
+	 * Records a latency given in milliseconds
+	 *
+	 * @param stage One of the stage constants
+	 * @param millis The latency in milliseconds
+	 */
+	public static void recordMillis(int stage, long millis) {
+		sHistograms[stage].record(millis * 1000);
+	}
+
+	/**
+	 * Returns the histogram of a stage
+	 *
+	 * @param stage One of the stage constants
+	 */
+	public static LatencyHistogram get(int stage) {
+		return sHistograms[stage];
+	}
+
+	/**
+	 * Returns a one line summary of a stage, eg.
+	 * "p50=1.2ms p95=4.0ms p99=9.9ms max=12.0ms (n=42)"
+	 *
+	 * @param stage One of the stage constants
+	 */
+	public static String describe(int stage) {
+		LatencyHistogram h = sHistograms[stage];
+		return String.format("p50=%s p95=%s p99=%s max=%s (n=%d)", formatMicros(h.getPercentile(0.5)),
+			formatMicros(h.getPercentile(0.95)), formatMicros(h.getPercentile(0.99)), formatMicros(h.getMax()), h.getCount());
+	}
+
+	/**
+	 * Writes the summary of all stages to `pw'
+	 */
+	public static void dump(PrintWriter pw) {
+		for (int i = 0; i < NAMES.length; i++)
+			pw.println(NAMES[i]+": "+describe(i));
+	}
+
+	/**
+	 * Drops all recorded values
+	 */
+	public static void reset() {
+		for (LatencyHistogram h : sHistograms)
+			h.reset();
+	}
+
+	private static String formatMicros(long micros) {
+		return String.format("%.1fms", micros / 1000.0);
+	}
+}
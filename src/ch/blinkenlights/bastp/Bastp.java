@@ -18,23 +18,122 @@
 
 package ch.blinkenlights.bastp;
 
-import ch.blinkenlights.bastp.OggFile;
-import ch.blinkenlights.bastp.FlacFile;
 import java.io.RandomAccessFile;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class Bastp {
-	
+	/* totals of TagRecord.skippedFields and skippedBytes of all parses */
+	private static final AtomicLong skipped_fields = new AtomicLong();
+	private static final AtomicLong skipped_bytes = new AtomicLong();
+	/* all known formats, the first match wins */
+	private static final CopyOnWriteArrayList<Format> formats = new CopyOnWriteArrayList<Format>();
+
+	static {
+		register(new Format("fLaC") {
+			public void parse(WindowedReader s, TagRecord tags) throws IOException {
+				(new FlacFile()).getTags(s, tags);
+				tags.type = "FLAC";
+			}
+		});
+		register(new Format("OggS") {
+			public void parse(WindowedReader s, TagRecord tags) throws IOException {
+				// This may be an Opus OR an Ogg Vorbis file
+				// (the base gain is always set for opus streams)
+				(new OpusFile()).getTags(s, tags);
+				if (tags.r128BaseGain != TagRecord.UNSET) {
+					tags.type = "OPUS";
+				} else {
+					(new OggFile()).getTags(s, tags);
+					tags.type = "OGG";
+				}
+			}
+		});
+		register(new Format("\u00ff\u00fb") { /* aka 0xfffb in real languages */
+			public void parse(WindowedReader s, TagRecord tags) throws IOException {
+				(new LameHeader()).getTags(s, tags);
+				tags.type = "MP3/Lame";
+			}
+		});
+		register(new Format("ID3") {
+			public void parse(WindowedReader s, TagRecord tags) throws IOException {
+				ID3v2File id3 = new ID3v2File();
+				id3.getTags(s, tags);
+				/* add tags from lame header if not already present */
+				if(tags.wants(TagRecord.FIELD_GAIN | TagRecord.FIELD_DURATION)) {
+					LameHeader lame = new LameHeader();
+					lame.parseLameHeader(s, id3.getHeaderLength(s), tags);
+					/* no frame count in the lame header: look at the frames */
+					if(tags.wants(TagRecord.FIELD_DURATION) && tags.duration == TagRecord.UNSET)
+						lame.sampleFrames(s, id3.getHeaderLength(s), tags);
+				}
+				tags.type = "MP3/ID3v2";
+			}
+		});
+		register(new Format(new long[] { 4 }, new String[] { "ftyp" }) {
+			public void parse(WindowedReader s, TagRecord tags) throws IOException {
+				(new Mp4File()).getTags(s, tags);
+				tags.type = "MP4";
+			}
+		});
+		register(new Format(new long[] { 0, 8 }, new String[] { "RIFF", "WAVE" }) {
+			public void parse(WindowedReader s, TagRecord tags) throws IOException {
+				(new RiffFile(false)).getTags(s, tags);
+				tags.type = "WAV";
+			}
+		});
+		register(new Format(new long[] { 0, 8 }, new String[] { "FORM", "AIF" }) { /* AIFF and AIFC */
+			public void parse(WindowedReader s, TagRecord tags) throws IOException {
+				(new RiffFile(true)).getTags(s, tags);
+				tags.type = "AIFF";
+			}
+		});
+	}
+
+	/*
+	** Returns the number of fields skipped by all parses
+	** of this process due to the safety caps in Common
+	*/
+	public static long getSkippedFields() {
+		return skipped_fields.get();
+	}
+
+	/*
+	** Returns the total size of all skipped fields
+	*/
+	public static long getSkippedBytes() {
+		return skipped_bytes.get();
+	}
+
+	/*
+	** Adds a new format to the registry, checked
+	** after all formats registered so far
+	*/
+	public static void register(Format format) {
+		formats.add(format);
+	}
+
+	/* reusable reader, holds the window buffer of this instance */
+	private final WindowedReader reader = new WindowedReader();
+
 	public Bastp() {
 	}
 	
-	public HashMap getTags(String fname) {
-		HashMap tags = new HashMap();
+	public TagRecord getTags(String fname) {
+		return getTags(fname, TagRecord.FIELD_ALL);
+	}
+
+	/*
+	** Parses 'fname', only looking at the TagRecord.FIELD_* groups
+	** given in 'fields'
+	*/
+	public TagRecord getTags(String fname, int fields) {
+		TagRecord tags = new TagRecord(fields);
 		try {
 			RandomAccessFile ra = new RandomAccessFile(fname, "r");
-			tags = getTags(ra);
+			tags = getTags(ra, fields);
 			ra.close();
 		}
 		catch(Exception e) {
@@ -44,55 +143,36 @@ public class Bastp {
 		return tags;
 	}
 	
-	public HashMap getTags(RandomAccessFile s) {
-		HashMap tags = new HashMap();
-		byte[] file_ff = new byte[4];
-		
+	public TagRecord getTags(RandomAccessFile ra) {
+		return getTags(ra, TagRecord.FIELD_ALL);
+	}
+
+	public synchronized TagRecord getTags(RandomAccessFile ra, int fields) {
+		TagRecord tags = new TagRecord(fields);
 		try {
-			s.read(file_ff);
-			String magic = new String(file_ff);
-			if(magic.equals("fLaC")) {
-				tags = (new FlacFile()).getTags(s);
-				tags.put("type", "FLAC");
-			}
-			else if(magic.equals("OggS")) {
-				// This may be an Opus OR an Ogg Vorbis file
-				tags = (new OpusFile()).getTags(s);
-				if (tags.size() > 0) {
-					tags.put("type", "OPUS");
-				} else {
-					tags = (new OggFile()).getTags(s);
-					tags.put("type", "OGG");
-				}
-			}
-			else if(file_ff[0] == -1 && file_ff[1] == -5) { /* aka 0xfffb in real languages */
-				tags = (new LameHeader()).getTags(s);
-				tags.put("type", "MP3/Lame");
+			reader.open(ra.getChannel());
+			getTags(reader, tags);
+			if (tags.skippedFields != 0) {
+				skipped_fields.addAndGet(tags.skippedFields);
+				skipped_bytes.addAndGet(tags.skippedBytes);
 			}
-			else if(magic.substring(0,3).equals("ID3")) {
-				tags = (new ID3v2File()).getTags(s);
-				if(tags.containsKey("_hdrlen")) {
-					Long hlen = Long.parseLong( tags.get("_hdrlen").toString(), 10 );
-					HashMap lameInfo = (new LameHeader()).parseLameHeader(s, hlen);
-					/* add tags from lame header if not already present */
-					inheritTag("REPLAYGAIN_TRACK_GAIN", lameInfo, tags);
-					inheritTag("REPLAYGAIN_ALBUM_GAIN", lameInfo, tags);
-					inheritTag("duration", lameInfo, tags);
-				}
-				tags.put("type", "MP3/ID3v2");
-			}
-
 		}
 		catch (IOException e) {
+			tags = new TagRecord(fields); /* do not return half parsed records */
+		}
+		finally {
+			reader.close();
 		}
 		return tags;
 	}
-	
-	private void inheritTag(String key, HashMap from, HashMap to) {
-		if(!to.containsKey(key) && from.containsKey(key)) {
-			to.put(key, from.get(key));
+
+	private void getTags(WindowedReader s, TagRecord tags) throws IOException {
+		for (Format format : formats) {
+			if (format.matches(s)) {
+				format.parse(s, tags);
+				break;
+			}
 		}
 	}
 	
 }
-
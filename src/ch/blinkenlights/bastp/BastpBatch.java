@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.bastp;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/*
+** Parses the tags of many files at once using a bounded
+** pool of worker threads.
+**
+** Each worker owns its own Bastp instance (and thus its own read window)
+** and pulls the next path from the job, so a job never occupies more
+** than 'threads' workers, regardless of its size.
+**
+** Batching is opt-in and callers pick the pool size: with a warm page
+** cache on a single core the workers only add overhead compared to
+** sequential getTags calls (see BastpBatchBenchmark in core/), they
+** pay off if there are several cores or cold storage to overlap.
+*/
+public class BastpBatch {
+
+	public interface Callback {
+		/*
+		** Called from a worker thread once 'path' (at 'index' of
+		** the submitted list) was parsed
+		*/
+		void onTagsParsed(int index, String path, TagRecord tags);
+	}
+
+	/*
+	** Handle of a submitted list of paths
+	*/
+	public static class Job {
+		private final List<String> paths;
+		private final int fields;
+		private final Callback callback;
+		private final TagRecord[] results;
+		private final AtomicInteger next = new AtomicInteger();
+		private final CountDownLatch finished;
+		private volatile boolean cancelled;
+
+		private Job(List<String> paths, int fields, Callback callback, int workers) {
+			this.paths = paths;
+			this.fields = fields;
+			this.callback = callback;
+			this.results = new TagRecord[paths.size()];
+			this.finished = new CountDownLatch(workers);
+		}
+
+		/*
+		** Stops the job: files not yet picked up by a worker are skipped
+		*/
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public boolean isDone() {
+			return finished.getCount() == 0;
+		}
+
+		/*
+		** Waits for the job to finish and returns the results in the
+		** order of the submitted paths. Entries of files skipped due
+		** to cancel() are null.
+		*/
+		public TagRecord[] await() throws InterruptedException {
+			finished.await();
+			return results;
+		}
+
+		/*
+		** Parses files until the job is exhausted, cancelled
+		** or the worker got interrupted by shutdown()
+		*/
+		private void work(Bastp bastp) {
+			try {
+				int i;
+				while (!cancelled && !Thread.currentThread().isInterrupted() && (i = next.getAndIncrement()) < results.length) {
+					String path = paths.get(i);
+					TagRecord tags;
+					try {
+						tags = bastp.getTags(path, fields);
+					} catch (RuntimeException e) {
+						tags = new TagRecord(fields); // a broken file must not kill the job
+					}
+					results[i] = tags;
+					if (callback != null)
+						callback.onTagsParsed(i, path, tags);
+				}
+			} finally {
+				finished.countDown();
+			}
+		}
+	}
+
+	private final int threads;
+	private final ExecutorService pool;
+	private final ThreadLocal<Bastp> parsers = new ThreadLocal<Bastp>() {
+		@Override
+		protected Bastp initialValue() {
+			return new Bastp();
+		}
+	};
+
+	public BastpBatch(int threads) {
+		this.threads = threads;
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "BastpBatch-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/*
+	** Queues 'paths' for parsing and returns immediately.
+	** 'callback' may be null if only Job.await() is used.
+	*/
+	public Job submit(List<String> paths, int fields, Callback callback) {
+		int workers = Math.max(1, Math.min(threads, paths.size()));
+		Job job = new Job(paths, fields, callback, workers);
+		for (int i = 0; i < workers; i++) {
+			pool.execute(new Worker(job));
+		}
+		return job;
+	}
+
+	/*
+	** Parses 'paths' and blocks until all of them are done
+	*/
+	public TagRecord[] getTags(List<String> paths, int fields) throws InterruptedException {
+		return submit(paths, fields, null).await();
+	}
+
+	/*
+	** Stops all workers and cancels all jobs which did not finish yet
+	*/
+	public void shutdown() {
+		for (Runnable r : pool.shutdownNow()) {
+			// never started: release anyone waiting on this job
+			Job job = ((Worker)r).job;
+			job.cancel();
+			job.finished.countDown();
+		}
+	}
+
+	private class Worker implements Runnable {
+		final Job job;
+
+		Worker(Job job) {
+			this.job = job;
+		}
+
+		@Override
+		public void run() {
+			job.work(parsers.get());
+		}
+	}
+
+}
@@ -19,12 +19,27 @@
 package ch.blinkenlights.bastp;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
-import java.util.Vector;
 
 public class Common {
-	private static final long MAX_PKT_SIZE = 524288;
+	private static final int MAX_KEY_SIZE = 64;
+	/* Safety caps: a broken (or hostile) file must not be able to make us allocate much */
+	public static final int MAX_FIELD_SIZE = 4096;    // larger fields (except pictures) are skipped
+	public static final int MAX_PARSE_ALLOC = 65536;  // total size of all fields read by a single parse
+	public static final int MAX_FIELDS = 128;         // maximal number of free-form values per parse
+
+	/* Vorbis keys with a known field group, compared in place against the raw key */
+	private static final String[] VORBIS_KEYS = {
+		"TITLE", "ARTIST", "ALBUM",
+		"REPLAYGAIN_TRACK_GAIN", "REPLAYGAIN_ALBUM_GAIN", "REPLAYGAIN_TRACK_PEAK", "REPLAYGAIN_ALBUM_PEAK",
+		"R128_TRACK_GAIN", "R128_ALBUM_GAIN",
+		"METADATA_BLOCK_PICTURE",
+	};
+	private static final int[] VORBIS_KEY_FIELDS = {
+		TagRecord.FIELD_CORE, TagRecord.FIELD_CORE, TagRecord.FIELD_CORE,
+		TagRecord.FIELD_GAIN, TagRecord.FIELD_GAIN, TagRecord.FIELD_GAIN, TagRecord.FIELD_GAIN,
+		TagRecord.FIELD_GAIN, TagRecord.FIELD_GAIN,
+		TagRecord.FIELD_PICTURE,
+	};
 
 	public void xdie(String reason) throws IOException {
 		throw new IOException(reason);
@@ -70,47 +85,241 @@ public class Common {
 		System.out.println("DBUG "+s);
 	}
 
-	public HashMap parse_vorbis_comment(RandomAccessFile s, long offset, long payload_len) throws IOException {
-		HashMap tags = new HashMap();
-		int comments   = 0;                // number of found comments 
-		int xoff       = 0;                // offset within 'scratch'
-		int can_read   = (int)(payload_len > MAX_PKT_SIZE ? MAX_PKT_SIZE : payload_len);
-		byte[] scratch = new byte[can_read];
+	/*
+	** Parses the vorbis comment starting at 'offset' of packet 'p' into 'tags'
+	** Comments are streamed through two small, fixed buffers: the key is
+	** compared in place and the value is only read (and decoded) if the
+	** key is wanted, so the tag size does not affect memory usage.
+	** A comment running past the end of the packet ends the parse,
+	** everything found up to this point is kept
+	*/
+	public void parse_vorbis_comment(PacketReader p, long offset, TagRecord tags) throws IOException {
+		if(!tags.wants(TagRecord.FIELD_GAIN | TagRecord.FIELD_CORE | TagRecord.FIELD_OTHER | TagRecord.FIELD_PICTURE))
+			return; // nothing in here is of any interest
+
+		byte[] key_buf = new byte[MAX_KEY_SIZE];
+		byte[] val_buf = null;               // allocated on first use
+		long   xoff    = offset;             // current position in packet
+		long   end     = p.length();         // end of the comment block
+		int comments   = 0;                  // number of found comments
 
-		// seek to given position and slurp in the payload
-		s.seek(offset);
-		s.read(scratch);
 		// skip vendor string in format: [LEN][VENDOR_STRING] 
-		xoff    += 4 + b2le32(scratch, xoff); // 4 = LEN = 32bit int 
-		comments = b2le32(scratch, xoff);
+		xoff    += 4 + (p.le32(xoff) & 0xFFFFFFFFL); // 4 = LEN = 32bit int 
+		if(xoff+4 > end)
+			xdie("vendor string out of bounds");
+		comments = p.le32(xoff);
 		xoff    += 4;
 
 		for(int i=0; i<comments; i++) {
+			if(xoff+4 > end)
+				break; // truncated packet
 			
-			int clen = (int)b2le32(scratch, xoff);
-			xoff += 4+clen;
+			long clen = p.le32(xoff) & 0xFFFFFFFFL;
+			long cpos = xoff+4;
+			xoff = cpos+clen;
 			
-			if(xoff > scratch.length)
-				xdie("string out of bounds");
+			if(xoff > end)
+				break; // string out of bounds
 			
-			String   tag_raw = new String(scratch, xoff-clen, clen);
-			String[] tag_vec = tag_raw.split("=",2);
-			String   tag_key = tag_vec[0].toUpperCase();
+			// peek at the start of the comment to find its key
+			int klen = p.read(cpos, key_buf, 0, (int)Math.min(clen, key_buf.length));
+			int keq  = 0;
+			while(keq < klen && key_buf[keq] != '=')
+				keq++;
+			if(keq == klen)
+				continue; // no key or insanely long one
+
+			int known     = find_vorbis_key(key_buf, keq);
+			int tag_field = (known != -1 ? VORBIS_KEY_FIELDS[known] : get_field(key_buf, keq));
+			if(!tags.wants(tag_field))
+				continue; // skipped by length, the key was never turned into a string
+
+			long vpos = cpos+keq+1;
+			long vlen = clen-keq-1;
+			if(tag_field == TagRecord.FIELD_PICTURE) {
+				// just remember where it is: the value is a base64 encoded FLAC picture block,
+				// which may be split over several ogg pages
+				if(vlen > 0) {
+					long[] regions = (p.contiguous(vpos) >= vlen ? null : p.regions(vpos, vlen));
+					set_picture(tags, p.offset(vpos), vlen, regions, get_base64_picture_type(p, vpos, vlen), true);
+				}
+				continue;
+			}
+
+			if(!claim_budget(tags, vlen))
+				continue;
+
+			if(val_buf == null)
+				val_buf = new byte[MAX_FIELD_SIZE];
+			p.read(vpos, val_buf, 0, (int)vlen);
+			String tag_key = (known != -1 ? VORBIS_KEYS[known] : new String(key_buf, 0, keq, "ISO-8859-1").toUpperCase());
+			addTagEntry(tags, tag_key, new String(val_buf, 0, (int)vlen, "UTF-8"));
+		}
+	}
+
+	/*
+	** Returns true if a field of 'len' bytes may be read and charges it
+	** to the budget of this parse. Fields exceeding any of the caps are
+	** counted as skipped and must not be read by the caller
+	*/
+	public boolean claim_budget(TagRecord tags, long len) {
+		if(len > MAX_FIELD_SIZE || tags.allocated + len > MAX_PARSE_ALLOC || tags.size() >= MAX_FIELDS) {
+			tags.skippedFields++;
+			tags.skippedBytes += len;
+			return false;
+		}
+		tags.allocated += len;
+		return true;
+	}
+
+	/*
+	** Returns the index of the raw 'key' in VORBIS_KEYS, -1 if
+	** it is not a known key. Vorbis keys are case insensitive
+	*/
+	private int find_vorbis_key(byte[] key, int len) {
+		for(int i=0; i<VORBIS_KEYS.length; i++) {
+			if(VORBIS_KEYS[i].length() == len && key_starts_with(key, len, VORBIS_KEYS[i]))
+				return i;
+		}
+		return -1;
+	}
+
+	/*
+	** Returns the TagRecord field group of a raw vorbis key
+	** which is not part of VORBIS_KEYS
+	*/
+	private int get_field(byte[] key, int len) {
+		if(key_starts_with(key, len, "REPLAYGAIN_") || key_starts_with(key, len, "R128_"))
+			return TagRecord.FIELD_GAIN;
+		return TagRecord.FIELD_OTHER;
+	}
+
+	/*
+	** Case insensitive check if the raw 'key' starts
+	** with the (uppercase) 'prefix'
+	*/
+	private boolean key_starts_with(byte[] key, int len, String prefix) {
+		int plen = prefix.length();
+		if(plen > len)
+			return false;
+		for(int i=0; i<plen; i++) {
+			int c = key[i];
+			if(c >= 'a' && c <= 'z')
+				c -= 'a' - 'A';
+			if(c != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	** Records the location of an embedded picture
+	** Front covers are preferred over any other picture type
+	*/
+	public void set_picture(TagRecord tags, long offset, long length, int type, boolean base64) {
+		set_picture(tags, offset, length, null, type, base64);
+	}
+
+	/*
+	** Same as above for a picture split into 'regions', as
+	** returned by PacketReader.regions(). Null if it is contiguous
+	*/
+	public void set_picture(TagRecord tags, long offset, long length, long[] regions, int type, boolean base64) {
+		if(length <= 0)
+			return;
+		if(tags.pictureOffset != TagRecord.UNSET && (tags.pictureType == TagRecord.PICTURE_FRONT_COVER || type != TagRecord.PICTURE_FRONT_COVER))
+			return; // keep what we have
+
+		tags.pictureOffset = offset;
+		tags.pictureLength = length;
+		tags.pictureRegions = regions;
+		tags.pictureType = type;
+		tags.pictureBase64 = base64;
+	}
+
+	/*
+	** Decodes the picture type of a base64 encoded
+	** FLAC picture block (the first 32 bit BE integer)
+	*/
+	private int get_base64_picture_type(PacketReader p, long offset, long length) throws IOException {
+		final String b64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		if(length < 8)
+			return TagRecord.UNSET;
 
-			addTagEntry(tags, tag_key, tag_vec[1]);
+		long bits = 0;
+		for(int i=0; i<8; i++) { // 8 chars -> 6 bytes
+			int v = b64.indexOf(p.u8(offset+i));
+			if(v < 0)
+				return TagRecord.UNSET;
+			bits = (bits << 6) | v;
 		}
-		return tags;
+		return (int)(bits >> 16);
 	}
 
-	public void addTagEntry(HashMap tags, String key, String value) {
-		if(tags.containsKey(key)) {
-			((Vector)tags.get(key)).add(value); // just add to existing vector
+	/*
+	** Stores 'value' in the record: well known keys are converted
+	** into their typed fields, the first value found wins
+	*/
+	public void addTagEntry(TagRecord tags, String key, String value) {
+		if(key.equals("REPLAYGAIN_TRACK_GAIN")) {
+			if(Float.isNaN(tags.trackGain))
+				tags.trackGain = parse_float(value);
+		}
+		else if(key.equals("REPLAYGAIN_ALBUM_GAIN")) {
+			if(Float.isNaN(tags.albumGain))
+				tags.albumGain = parse_float(value);
+		}
+		else if(key.equals("REPLAYGAIN_TRACK_PEAK")) {
+			if(Float.isNaN(tags.trackPeak))
+				tags.trackPeak = parse_float(value);
+		}
+		else if(key.equals("REPLAYGAIN_ALBUM_PEAK")) {
+			if(Float.isNaN(tags.albumPeak))
+				tags.albumPeak = parse_float(value);
+		}
+		else if(key.equals("R128_TRACK_GAIN")) {
+			if(tags.r128TrackGain == TagRecord.UNSET)
+				tags.r128TrackGain = parse_q78(value);
+		}
+		else if(key.equals("R128_ALBUM_GAIN")) {
+			if(tags.r128AlbumGain == TagRecord.UNSET)
+				tags.r128AlbumGain = parse_q78(value);
 		}
 		else {
-			Vector vx = new Vector();
-			vx.add(value);
-			tags.put(key, vx);
+			tags.add(key, value);
 		}
 	}
-	
+
+	/*
+	** Returns the first number found in given string, such as
+	** '-6.5' in '-6.50 dB' or NaN if there was none
+	*/
+	public float parse_float(String raw) {
+		int len = raw.length();
+		int start = 0;
+		while(start < len && !is_number_char(raw.charAt(start)))
+			start++;
+		int end = start;
+		while(end < len && is_number_char(raw.charAt(end)))
+			end++;
+
+		try {
+			return Float.parseFloat(raw.substring(start, end));
+		} catch(NumberFormatException e) {
+			return Float.NaN;
+		}
+	}
+
+	/*
+	** Parses an R128 (Q7.8) gain value
+	*/
+	private int parse_q78(String raw) {
+		float v = parse_float(raw);
+		return (Float.isNaN(v) ? TagRecord.UNSET : Math.round(v));
+	}
+
+	private boolean is_number_char(char c) {
+		return (c >= '0' && c <= '9') || c == '.' || c == '-';
+	}
+
 }
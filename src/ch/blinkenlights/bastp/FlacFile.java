@@ -18,69 +18,63 @@
 package ch.blinkenlights.bastp;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
-import java.util.Enumeration;
 
 
 public class FlacFile extends Common {
 	private static final int FLAC_TYPE_STREAMINFO = 0; // Basic info about the stream
 	private static final int FLAC_TYPE_COMMENT = 4;   // ID of 'VorbisComment's
+	private static final int FLAC_TYPE_PICTURE = 6;   // Embedded picture
 	
 	public FlacFile() {
 	}
 	
-	public HashMap getTags(RandomAccessFile s) throws IOException {
+	public void getTags(WindowedReader s, TagRecord tags) throws IOException {
 		int xoff  = 4;  // skip file magic
 		int retry = 64;
 		int r[];
 		boolean need_infos = true;
-		boolean need_tags = true;
-		HashMap infos = new HashMap();
-		HashMap tags = new HashMap();
+		boolean need_tags = tags.wants(TagRecord.FIELD_GAIN | TagRecord.FIELD_CORE | TagRecord.FIELD_OTHER);
+		boolean need_picture = tags.wants(TagRecord.FIELD_PICTURE);
 		
 		for(; retry > 0; retry--) {
 			r = parse_metadata_block(s, xoff);
 			if(r[2] == FLAC_TYPE_STREAMINFO) {
-				infos = parse_streaminfo_block(s, xoff+r[0], r[1]);
+				parse_streaminfo_block(s, xoff+r[0], r[1], tags);
 				need_infos = false;
 			}
 			if(r[2] == FLAC_TYPE_COMMENT) {
-				tags = parse_vorbis_comment(s, xoff+r[0], r[1]);
+				PacketReader block = new PacketReader(s);
+				block.add(xoff+r[0], r[1]);
+				parse_vorbis_comment(block, 0, tags);
 				need_tags = false;
 			}
+			if(r[2] == FLAC_TYPE_PICTURE && need_picture) {
+				parse_picture_block(s, xoff+r[0], r[1], tags);
+				// any front cover will do, otherwise keep looking
+				need_picture = (tags.pictureType != TagRecord.PICTURE_FRONT_COVER);
+			}
 			
-			if(r[3] != 0 || (need_tags == false && need_infos == false))
+			if(r[3] != 0 || (need_tags == false && need_infos == false && need_picture == false))
 				break; // eof reached
 			
 			// else: calculate next offset
 			xoff += r[0] + r[1];
 		}
-
-		// Copy duration to final hashmap if found in infoblock
-		if(infos.containsKey("duration")) {
-			tags.put("duration", infos.get("duration"));
-		}
-
-		return tags;
 	}
 	
 	/* Parses the metadata block at 'offset' and returns
 	** [header_size, payload_size, type, stop_after]
 	*/
-	private int[] parse_metadata_block(RandomAccessFile s, long offset) throws IOException {
+	private int[] parse_metadata_block(WindowedReader s, long offset) throws IOException {
 		int[] result   = new int[4];
-		byte[] mb_head = new byte[4];
 		int stop_after = 0;
 		int block_type = 0;
 		int block_size = 0;
 		
-		s.seek(offset);
-		
-		if( s.read(mb_head) != 4 )
+		if( offset+4 > s.length() )
 			xdie("failed to read metadata block header");
 		
-		block_size = b2be32(mb_head,0);                         // read whole header as 32 big endian
+		block_size = s.be32(offset);                            // read whole header as 32 big endian
 		block_type = (block_size >> 24) & 127;                  // BIT 1-7 are the type
 		stop_after = (((block_size >> 24) & 128) > 0 ? 1 : 0 ); // BIT 0 indicates the last-block flag
 		block_size = (block_size & 0x00FFFFFF);                 // byte 1-7 are the size
@@ -96,28 +90,35 @@ public class FlacFile extends Common {
 	}
 
 	/*
-	 ** Returns a hashma with parsed vorbis identification header data
+	 ** Records the location of the image data of a PICTURE block
 	 **/
-	private HashMap parse_streaminfo_block(RandomAccessFile s, long offset, long pl_len) throws IOException {
-		HashMap id_hash = new HashMap();
-		byte[] buff = new byte[18];
+	private void parse_picture_block(WindowedReader s, long offset, long pl_len, TagRecord tags) throws IOException {
+		long pos  = offset;
+		int  type = s.be32(pos);
+		pos += 4;
+		pos += 4 + (s.be32(pos) & 0xFFFFFFFFL); // skip mime type
+		pos += 4 + (s.be32(pos) & 0xFFFFFFFFL); // skip description
+		pos += 16;                               // skip width, height, depth and number of colors
+		long len = s.be32(pos) & 0xFFFFFFFFL;
+		pos += 4;
 
-		if(pl_len >= buff.length) {
-			s.seek(offset);
-			s.read(buff);
-			id_hash.put("blocksize_minimal", (b2be32(buff, 0)  >> 16));
-			id_hash.put("blocksize_maximal", (b2be32(buff, 0)  & 0x0000FFFF));
-			id_hash.put("framesize_minimal", (b2be32(buff, 4)  >> 8));
-			id_hash.put("framesize_maximal", (b2be32(buff, 7)  >> 8));
-			id_hash.put("sampling_rate",     (b2be32(buff, 10) >> 12));
-			id_hash.put("channels",          ((b2be32(buff, 10) >> 9) & 7) + 1); // 3 bits
-			id_hash.put("num_samples",       b2be32(buff, 14)); // fixme: this is actually 36 bit: the 4 hi bits are discarded due to java
-			if((Integer)id_hash.get("sampling_rate") > 0) {
-				int duration = (Integer)id_hash.get("num_samples") / (Integer)id_hash.get("sampling_rate");
-				id_hash.put("duration", (int)duration);
+		if(pos+len <= offset+pl_len)
+			set_picture(tags, pos, len, type, false);
+	}
+
+	/*
+	 ** Copies the stream information of the STREAMINFO block into 'tags'
+	 **/
+	private void parse_streaminfo_block(WindowedReader s, long offset, long pl_len, TagRecord tags) throws IOException {
+		if(pl_len >= 18) {
+			int sampling_rate = (s.be32(offset+10) >> 12) & 0xFFFFF;                       // 20 bits
+			long num_samples  = ((long)(s.u8(offset+13) & 0x0F) << 32) | (s.be32(offset+14) & 0xFFFFFFFFL); // 36 bits
+			tags.sampleRate = sampling_rate;
+			tags.channels   = ((s.be32(offset+10) >> 9) & 7) + 1; // 3 bits
+			if(sampling_rate > 0) {
+				tags.duration = num_samples * 1000 / sampling_rate;
 			}
 		}
-		return id_hash;
 	}
 
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.bastp;
+
+import java.io.IOException;
+
+
+/*
+** An entry of the Bastp format registry.
+**
+** A format is identified by one or more magic strings at fixed offsets
+** of the file. Once all of them matched, parse() is called to fill the
+** record using the format specific parser.
+*/
+public abstract class Format {
+	private final long[] offsets;
+	private final String[] magics;
+
+	/*
+	** Creates a format identified by 'magic' at offset 0
+	*/
+	public Format(String magic) {
+		this(new long[] { 0 }, new String[] { magic });
+	}
+
+	/*
+	** Creates a format identified by magics[i] at offsets[i], all
+	** of them have to match. eg. RIFF at 0 *and* WAVE at 8
+	*/
+	public Format(long[] offsets, String[] magics) {
+		this.offsets = offsets;
+		this.magics = magics;
+	}
+
+	/*
+	** Returns true if the file attached to 's' is of this format
+	*/
+	public boolean matches(WindowedReader s) throws IOException {
+		for (int i = 0; i < magics.length; i++) {
+			if (!s.matches(offsets[i], magics[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	** Parses the file into 'tags', this is expected to
+	** also set tags.type
+	*/
+	public abstract void parse(WindowedReader s, TagRecord tags) throws IOException;
+
+}
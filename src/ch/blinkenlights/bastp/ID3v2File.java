@@ -18,9 +18,7 @@
 package ch.blinkenlights.bastp;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.HashMap;
-import java.util.Enumeration;
 
 
 
@@ -33,28 +31,43 @@ public class ID3v2File extends Common {
 	public ID3v2File() {
 	}
 	
-	public HashMap getTags(RandomAccessFile s) throws IOException {
-		HashMap tags = new HashMap();
-		
-		final int v2hdr_len = 10;
-		byte[] v2hdr = new byte[v2hdr_len];
-		
-		// read the whole 10 byte header into memory
-		s.seek(0);
-		s.read(v2hdr);
-		
-		int v3minor = ((b2be32(v2hdr,0))) & 0xFF;   // swapped ID3\04 -> ver. ist the first byte
-		int v3len   = ((b2be32(v2hdr,6)));          // total size EXCLUDING the this 10 byte header
-		v3len       = unsyncsafe(v3len);
+	private static final int V2HDR_LEN = 10;
+	/* set if the whole tag uses unsynchronisation */
+	private boolean tag_unsync = false;
+
+	public void getTags(WindowedReader s, TagRecord tags) throws IOException {
+		getTags(s, 0, tags);
+	}
+
+	/*
+	** Parses the ID3v2 tag starting at 'base', used for
+	** tags embedded in other containers, such as WAV and AIFF
+	*/
+	public void getTags(WindowedReader s, long base, TagRecord tags) throws IOException {
+		if(!s.matches(base, "ID3"))
+			return;
+
+		int v3minor = ((s.be32(base))) & 0xFF;   // swapped ID3\04 -> ver. ist the first byte
+		int v3len   = getHeaderLength(s, base) - V2HDR_LEN;
+		tag_unsync  = (s.u8(base+5) & 0x80) != 0;
 		
 		// debug(">> tag version ID3v2."+v3minor);
 		// debug(">> LEN= "+v3len+" // "+v3len);
 		
-		// we should already be at the first frame
-		// so we can start the parsing right now
-		tags = parse_v3_frames(s, v3len, v3minor);
-		tags.put("_hdrlen", v3len+v2hdr_len);
-		return tags;
+		// the first frame starts right after the header
+		parse_v3_frames(s, base+V2HDR_LEN, v3len, v3minor, tags);
+	}
+
+	/*
+	** Returns the total size of the tag, including the 10 byte header
+	*/
+	public int getHeaderLength(WindowedReader s) throws IOException {
+		return getHeaderLength(s, 0);
+	}
+
+	public int getHeaderLength(WindowedReader s, long base) throws IOException {
+		int v3len = ((s.be32(base+6)));          // total size EXCLUDING the this 10 byte header
+		return unsyncsafe(v3len) + V2HDR_LEN;
 	}
 
 	/*
@@ -68,16 +81,17 @@ public class ID3v2File extends Common {
 		return x;
 	}
 	
-	/* Parses all ID3v2 frames at the current position up until payload_len
+	/* Parses all ID3v2 frames at 'offset' up until payload_len
 	** bytes were read
 	*/
-	public HashMap parse_v3_frames(RandomAccessFile s, long payload_len, int v3minor) throws IOException {
-		HashMap tags = new HashMap();
+	public void parse_v3_frames(WindowedReader s, long offset, long payload_len, int v3minor, TagRecord tags) throws IOException {
 		byte[] frame   = new byte[10]; // a frame header is always 10 bytes
 		long bread     = 0;            // total amount of read bytes
 
 		while(bread < payload_len) {
-			bread += s.read(frame);
+			if(s.read(offset+bread, frame) != frame.length)
+				break; // tag exceeds file length
+			bread += frame.length;
 			String framename = new String(frame, 0, 4);
 			int rawlen = b2be32(frame, 4);
 			// Encoders prior ID3v2.4 did not encode the frame length
@@ -88,15 +102,35 @@ public class ID3v2File extends Common {
 			if(slen < 1 || slen > (bytesRemaining))
 				break;
 			
+			if(!tags.wants(get_frame_field(framename))) {
+				bread += slen; // skip frame without reading its payload
+				continue;
+			}
+			
+			if(framename.equals("APIC")) {
+				// v2.4 frames may be compressed, encrypted or unsynchronised (and may
+				// have a data length indicator), v2.3 frames may be compressed or encrypted
+				int fmask = (v3minor >= 4 ? 0x0F : 0xC0);
+				if(!tag_unsync && (frame[9] & fmask) == 0)
+					parse_apic_frame(s, offset+bread, slen, tags);
+				bread += slen; // the picture itself is never read
+				continue;
+			}
+			
+			if(!claim_budget(tags, slen)) {
+				bread += slen; // too large to be read
+				continue;
+			}
+			
 			byte[] xpl = new byte[slen];
-			bread += s.read(xpl);
+			bread += s.read(offset+bread, xpl);
 			
 			if(framename.substring(0,1).equals("T")) {
 				String[] nmzInfo = normalizeTaginfo(framename, xpl);
 				String oggKey = nmzInfo[0];
 				String decPld = nmzInfo[1];
 				
-				if(oggKey.length() > 0 && !tags.containsKey(oggKey)) {
+				if(oggKey.length() > 0 && !tags.contains(oggKey)) {
 					addTagEntry(tags, oggKey, decPld);
 				}
 			}
@@ -105,9 +139,50 @@ public class ID3v2File extends Common {
 			}
 			
 		}
-		return tags;
 	}
 	
+	/* Returns the TagRecord field group of an ID3v2 frame,
+	** 0 if we do not parse the frame at all */
+	private int get_frame_field(String framename) {
+		if(framename.equals("TIT2") || framename.equals("TALB") || framename.equals("TPE1"))
+			return TagRecord.FIELD_CORE;
+		if(framename.equals("TXXX"))
+			return TagRecord.FIELD_GAIN; // we only extract replaygain infos from TXXX frames
+		if(framename.equals("APIC"))
+			return TagRecord.FIELD_PICTURE;
+		return 0;
+	}
+
+	/* Records the location of the image data of an APIC frame:
+	** [encoding][mime type\0][picture type][description\0][data]
+	*/
+	private void parse_apic_frame(WindowedReader s, long offset, int slen, TagRecord tags) throws IOException {
+		byte[] head = new byte[Math.min(slen, 512)]; // mime type and description are expected to be short
+		int hlen = s.read(offset, head);
+		int enc  = head[0] & 0xFF;
+		int i    = 1;
+
+		while(i < hlen && head[i] != 0) // mime type is always latin1
+			i++;
+		i++;
+		if(i >= hlen)
+			return;
+
+		int type = head[i++] & 0xFF;
+		if(enc == ID3_ENC_UTF16LE || enc == ID3_ENC_UTF16BE) {
+			while(i+1 < hlen && (head[i] != 0 || head[i+1] != 0))
+				i += 2;
+			i += 2;
+		} else {
+			while(i < hlen && head[i] != 0)
+				i++;
+			i++;
+		}
+
+		if(i < hlen) // else: description was too long (or broken)
+			set_picture(tags, offset+i, slen-i, type, false);
+	}
+
 	/* Converts ID3v2 sillyframes to OggNames */
 	private String[] normalizeTaginfo(String k, byte[] v) {
 		String[] rv = new String[] {"",""};
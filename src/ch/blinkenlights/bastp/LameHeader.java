@@ -18,9 +18,6 @@
 package ch.blinkenlights.bastp;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
-import java.util.Enumeration;
 
 
 public class LameHeader extends Common {
@@ -42,30 +39,45 @@ public class LameHeader extends Common {
 		{  0,       1152,   1152,  384 }, // MPEG1
 	};
 
+	// Bitrates in kbit/s, indexed by the bitrate index of the frame header
+	private static int[][] bitRates = {
+		{ 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 }, // MPEG1 layer1
+		{ 0, 32, 48, 56,  64,  80,  96, 112, 128, 160, 192, 224, 256, 320, 384 }, // MPEG1 layer2
+		{ 0, 32, 40, 48,  56,  64,  80,  96, 112, 128, 160, 192, 224, 256, 320 }, // MPEG1 layer3
+		{ 0, 32, 48, 56,  64,  80,  96, 112, 128, 144, 160, 176, 192, 224, 256 }, // MPEG2(.5) layer1
+		{ 0,  8, 16, 24,  32,  40,  48,  56,  64,  80,  96, 112, 128, 144, 160 }, // MPEG2(.5) layer2 and 3
+	};
+
+	// Frames are sampled at SAMPLE_POINTS places, reading SAMPLE_SIZE bytes at each
+	// place: this caps the I/O of sampleFrames() to 64KB, regardless of the file size
+	private static final int SAMPLE_POINTS = 4;
+	private static final int SAMPLE_SIZE   = 16384;
+
 
 	public LameHeader() {
 	}
 	
-	public HashMap getTags(RandomAccessFile s) throws IOException {
-		return parseLameHeader(s, 0);
+	public void getTags(WindowedReader s, TagRecord tags) throws IOException {
+		parseLameHeader(s, 0, tags);
+		if(tags.wants(TagRecord.FIELD_DURATION) && tags.duration == TagRecord.UNSET)
+			sampleFrames(s, 0, tags);
 	}
 	
-	public HashMap parseLameHeader(RandomAccessFile s, long offset) throws IOException {
-		HashMap tags = new HashMap();
-		byte[] chunk = new byte[12];
+	/*
+	** Parses the lame header of the mpeg frame at 'offset'
+	** Values already present in 'tags' are not overwritten
+	*/
+	public void parseLameHeader(WindowedReader s, long offset, TagRecord tags) throws IOException {
+		if(offset + 0xAB + 4 > s.length())
+			return; // too short to hold a lame header
 		
-		s.seek(offset + 0x24);
-		s.read(chunk);
-		
-		String lameMark = new String(chunk, 0, 4, "ISO-8859-1");
-		int flags = b2u(chunk[7]);
+		boolean isXing = s.matches(offset + 0x24, "Xing");
+		boolean isInfo = s.matches(offset + 0x24, "Info");
+		int flags = s.u8(offset + 0x24 + 7);
 
 		if((flags & 0x01) !=0 ) { // header indicates that totalFrames field is present
-			int total_frames = b2be32(chunk, 8);
-			s.seek(offset);
-			s.read(chunk);
-
-			int mpeg_hdr = b2be32(chunk, 0);
+			int total_frames = s.be32(offset + 0x24 + 8);
+			int mpeg_hdr = s.be32(offset);
 			int srate_idx = (mpeg_hdr >> 10) & 3; // sampling rate index at bit 10-11
 			int layer_idx = (mpeg_hdr >> 17) & 3; // layer index value bit 17-18
 			int ver_idx   = (mpeg_hdr >> 19) & 3; // version index value bit 19-20
@@ -74,19 +86,17 @@ public class LameHeader extends Common {
 			if (ver_idx < sampleRates.length && srate_idx < sampleRates[ver_idx].length && layer_idx < samplesPerFrame[ver_idx].length) {
 				int sample_rate = sampleRates[ver_idx][srate_idx];
 				int sample_pfr  = samplesPerFrame[ver_idx][layer_idx];
-				if (sample_rate > 0 && sample_pfr > 0) {
+				if (sample_rate > 0 && sample_pfr > 0 && tags.duration == TagRecord.UNSET) {
 					double duration = ((double)sample_pfr / (double)sample_rate) * total_frames;
-					tags.put("duration", (int)duration);
+					tags.duration = (long)(duration * 1000);
+					tags.sampleRate = sample_rate;
 				}
 			}
 
 		}
 
-		if(lameMark.equals("Info") || lameMark.equals("Xing")) {
-			s.seek(offset+0xAB);
-			s.read(chunk);
-			
-			int raw = b2be32(chunk, 0);
+		if(isInfo || isXing) {
+			int raw = s.be32(offset+0xAB);
 			int gtrk_raw = raw >> 16;     /* first 16 bits are the raw track gain value */
 			int galb_raw = raw & 0xFFFF;  /* the rest is for the album gain value       */
 			
@@ -96,16 +106,91 @@ public class LameHeader extends Common {
 			gtrk_val = ((gtrk_raw&0x0200)!=0 ? -1*gtrk_val : gtrk_val);
 			galb_val = ((galb_raw&0x0200)!=0 ? -1*galb_val : galb_val);
 			
-			if( (gtrk_raw&0xE000) == 0x2000 ) {
-				addTagEntry(tags, "REPLAYGAIN_TRACK_GAIN", gtrk_val+" dB");
+			if( (gtrk_raw&0xE000) == 0x2000 && Float.isNaN(tags.trackGain) ) {
+				tags.trackGain = gtrk_val;
 			}
-			if( (gtrk_raw&0xE000) == 0x4000 ) {
-				addTagEntry(tags, "REPLAYGAIN_ALBUM_GAIN", galb_val+" dB");
+			if( (gtrk_raw&0xE000) == 0x4000 && Float.isNaN(tags.albumGain) ) {
+				tags.albumGain = galb_val;
 			}
 			
 		}
-		
-		return tags;
 	}
 	
+	/*
+	** Estimates the duration of the audio data starting at 'offset' by
+	** averaging the size of the frames found at SAMPLE_POINTS evenly
+	** spaced places of the file. This is exact for CBR files and used
+	** for VBR files lacking a Xing/Info frame count.
+	*/
+	public void sampleFrames(WindowedReader s, long offset, TagRecord tags) throws IOException {
+		long end = s.length();
+		if(end-128 > offset && s.matches(end-128, "TAG"))
+			end -= 128; // do not count the ID3v1 tag as audio data
+
+		byte[] buf = new byte[SAMPLE_SIZE];
+		long audio_start = -1;
+		long frames = 0;
+		long bytes = 0;
+		int[] first = null;
+
+		for(int i=0; i<SAMPLE_POINTS && offset < end; i++) {
+			long pos = offset + (end - offset) * i / SAMPLE_POINTS;
+			int  len = s.readDirect(pos, buf, 0, (int)Math.min(SAMPLE_SIZE, end - pos));
+
+			// sync: we need a valid header which is followed by another valid header
+			int j = 0;
+			int[] frame = null;
+			for(; j+4 <= len; j++) {
+				frame = parse_frame_header(b2be32(buf, j));
+				if(frame != null && j+frame[0]+4 <= len && parse_frame_header(b2be32(buf, j+frame[0])) != null)
+					break;
+				frame = null;
+			}
+			if(frame == null)
+				continue;
+
+			if(audio_start == -1) {
+				audio_start = pos+j;
+				first = frame;
+			}
+			// count all frames fully contained in this sample
+			while(frame != null && j+frame[0] <= len) {
+				frames++;
+				bytes += frame[0];
+				j += frame[0];
+				frame = (j+4 <= len ? parse_frame_header(b2be32(buf, j)) : null);
+			}
+		}
+
+		if(frames > 0) {
+			double total_frames = (double)(end - audio_start) * frames / bytes;
+			tags.duration = (long)(total_frames * first[2] * 1000 / first[1]);
+			if(tags.sampleRate == TagRecord.UNSET)
+				tags.sampleRate = first[1];
+		}
+	}
+
+	/*
+	** Returns [frame_length, sample_rate, samples_per_frame] of the
+	** mpeg frame header 'hdr' or null if this is no valid header
+	*/
+	private int[] parse_frame_header(int hdr) {
+		int ver_idx   = (hdr >> 19) & 3;  // version index value bit 19-20
+		int layer_idx = (hdr >> 17) & 3;  // layer index value bit 17-18
+		int br_idx    = (hdr >> 12) & 15; // bitrate index at bit 12-15
+		int srate_idx = (hdr >> 10) & 3;  // sampling rate index at bit 10-11
+		int padding   = (hdr >> 9) & 1;
+
+		if((hdr & 0xFFE00000) != 0xFFE00000 || ver_idx == 1 || layer_idx == 0 || br_idx == 0 || br_idx == 15 || srate_idx == 3)
+			return null;
+
+		int layer   = 4 - layer_idx;
+		int bitrate = bitRates[ver_idx == 3 ? layer-1 : (layer == 1 ? 3 : 4)][br_idx] * 1000;
+		int sample_rate = sampleRates[ver_idx][srate_idx];
+		int sample_pfr  = samplesPerFrame[ver_idx][layer_idx];
+		int length = (layer == 1 ? (12 * bitrate / sample_rate + padding) * 4 : sample_pfr / 8 * bitrate / sample_rate + padding);
+
+		return new int[] { length, sample_rate, sample_pfr };
+	}
+
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.bastp;
+
+import java.io.IOException;
+
+
+/*
+** Walks the atom tree of MP4/M4A files.
+**
+** Only the atoms leading to moov/mvhd, the first sound sample
+** description and moov/udta/meta/ilst are entered: everything else,
+** most notably mdat, is skipped by its size without being read.
+*/
+public class Mp4File extends Common {
+	private static final int MAX_ATOMS = 256;       // give up after looking at this many atoms
+
+	/* container atoms we descend into */
+	private static final String[] CONTAINERS = { "moov", "udta", "meta", "ilst", "trak", "mdia", "minf", "stbl" };
+
+	/* ilst text atoms and their vorbis-style key */
+	private static final String[] ILST_ATOMS = { "\u00a9nam", "\u00a9ART", "\u00a9alb", "aART", "\u00a9day", "\u00a9gen", "\u00a9wrt" };
+	private static final String[] ILST_KEYS  = { "TITLE", "ARTIST", "ALBUM", "ALBUMARTIST", "DATE", "GENRE", "COMPOSER" };
+
+	private int atoms_left;
+
+	public Mp4File() {
+	}
+
+	public void getTags(WindowedReader s, TagRecord tags) throws IOException {
+		atoms_left = MAX_ATOMS;
+		parse_atoms(s, 0, s.length(), "", tags);
+	}
+
+	/* Parses all child atoms of 'parent' in [offset, end)
+	*/
+	private void parse_atoms(WindowedReader s, long offset, long end, String parent, TagRecord tags) throws IOException {
+		long pos = offset;
+
+		while(pos+8 <= end && atoms_left-- > 0) {
+			long size = s.be32(pos) & 0xFFFFFFFFL;
+			int  hlen = 8;
+			if(size == 1) { // 64 bit size follows the type
+				size = ((long)s.be32(pos+8) << 32) | (s.be32(pos+12) & 0xFFFFFFFFL);
+				hlen = 16;
+			} else if(size == 0) { // atom extends to the end of the file
+				size = end - pos;
+			}
+			if(size < hlen || pos+size > end)
+				break; // broken atom
+
+			String type = fourcc(s, pos+4);
+			long body = pos+hlen;
+			long blen = size-hlen;
+
+			if(type.equals("meta") && blen >= 4 && s.be32(body) == 0) {
+				// meta is a full atom in MP4 files (but not in old QuickTime files)
+				parse_atoms(s, body+4, body+blen, type, tags);
+			} else if(is_container(type)) {
+				parse_atoms(s, body, body+blen, type, tags);
+			} else if(type.equals("mvhd") && tags.wants(TagRecord.FIELD_DURATION)) {
+				parse_mvhd(s, body, blen, tags);
+			} else if(type.equals("stsd") && tags.wants(TagRecord.FIELD_DURATION)) {
+				parse_stsd(s, body, blen, tags);
+			} else if(parent.equals("ilst")) {
+				parse_ilst_item(s, type, body, blen, tags);
+			}
+			pos += size;
+		}
+	}
+
+	private boolean is_container(String type) {
+		for(String c : CONTAINERS) {
+			if(c.equals(type))
+				return true;
+		}
+		return false;
+	}
+
+	/*
+	** Reads the duration from the movie header
+	*/
+	private void parse_mvhd(WindowedReader s, long offset, long len, TagRecord tags) throws IOException {
+		int version = s.u8(offset);
+		long timescale;
+		long duration;
+
+		if(version == 1 && len >= 32) {
+			timescale = s.be32(offset+20) & 0xFFFFFFFFL;
+			duration  = ((long)s.be32(offset+24) << 32) | (s.be32(offset+28) & 0xFFFFFFFFL);
+		} else if(len >= 20) {
+			timescale = s.be32(offset+12) & 0xFFFFFFFFL;
+			duration  = s.be32(offset+16) & 0xFFFFFFFFL;
+		} else {
+			return;
+		}
+
+		if(timescale > 0)
+			tags.duration = duration * 1000 / timescale;
+	}
+
+	/*
+	** Reads channels and sample rate of the first sound sample description
+	*/
+	private void parse_stsd(WindowedReader s, long offset, long len, TagRecord tags) throws IOException {
+		// [version+flags 4][entry count 4] [size 4][format 4][reserved 6][dref index 2]
+		// [version 2][revision 2][vendor 4][channels 2][sample size 2][compression id 2][packet size 2][rate 16.16]
+		if(len < 8+36 || tags.sampleRate != TagRecord.UNSET)
+			return;
+
+		String format = fourcc(s, offset+12);
+		if(format.equals("mp4a") || format.equals("alac")) {
+			tags.channels   = s.be32(offset+8+24) >>> 16;
+			tags.sampleRate = s.be32(offset+8+32) >>> 16;
+		}
+	}
+
+	/*
+	** Parses a single child of the ilst atom
+	*/
+	private void parse_ilst_item(WindowedReader s, String type, long offset, long len, TagRecord tags) throws IOException {
+		if(type.equals("covr")) {
+			if(tags.wants(TagRecord.FIELD_PICTURE)) {
+				long data = find_data(s, offset, len);
+				if(data != -1) // covr atoms do not carry a type: assume they are front covers
+					set_picture(tags, data+16, (s.be32(data) & 0xFFFFFFFFL) - 16, TagRecord.PICTURE_FRONT_COVER, false);
+			}
+		} else if(type.equals("----")) {
+			// free form atom: [mean][name][data], used by iTunes (and others) for ReplayGain
+			if(tags.wants(TagRecord.FIELD_GAIN | TagRecord.FIELD_OTHER))
+				parse_freeform(s, offset, len, tags);
+		} else {
+			for(int i=0; i<ILST_ATOMS.length; i++) {
+				if(ILST_ATOMS[i].equals(type)) {
+					String key = ILST_KEYS[i];
+					if(tags.wants(get_ilst_field(key))) {
+						String value = read_data_text(s, find_data(s, offset, len), tags);
+						if(value != null)
+							addTagEntry(tags, key, value);
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	/*
+	** Parses a free form atom, its name is used as key
+	*/
+	private void parse_freeform(WindowedReader s, long offset, long len, TagRecord tags) throws IOException {
+		long pos = offset;
+		long end = offset+len;
+		String name = null;
+
+		while(pos+8 <= end) {
+			long size = s.be32(pos) & 0xFFFFFFFFL;
+			if(size < 8 || pos+size > end)
+				break;
+			String type = fourcc(s, pos+4);
+			if(type.equals("name") && size > 12 && claim_budget(tags, size-12)) {
+				// [size][name][version+flags 4][name]
+				byte[] raw = new byte[(int)(size-12)];
+				s.read(pos+12, raw);
+				name = new String(raw, "UTF-8").toUpperCase();
+			} else if(type.equals("data") && name != null) {
+				int field = (name.startsWith("REPLAYGAIN_") ? TagRecord.FIELD_GAIN : TagRecord.FIELD_OTHER);
+				if(tags.wants(field)) {
+					String value = read_data_text(s, pos, tags);
+					if(value != null)
+						addTagEntry(tags, name, value);
+				}
+				break;
+			}
+			pos += size;
+		}
+	}
+
+	private int get_ilst_field(String key) {
+		if(key.equals("TITLE") || key.equals("ARTIST") || key.equals("ALBUM"))
+			return TagRecord.FIELD_CORE;
+		return TagRecord.FIELD_OTHER;
+	}
+
+	/*
+	** Returns the offset of the first 'data' atom in [offset, offset+len), -1 if none
+	*/
+	private long find_data(WindowedReader s, long offset, long len) throws IOException {
+		if(len >= 16 && s.matches(offset+4, "data") && (s.be32(offset) & 0xFFFFFFFFL) <= len)
+			return offset;
+		return -1;
+	}
+
+	/*
+	** Returns the UTF-8 payload of the 'data' atom at 'offset',
+	** null if there is none or if it is not of a text type
+	*/
+	private String read_data_text(WindowedReader s, long offset, TagRecord tags) throws IOException {
+		if(offset == -1)
+			return null;
+		// [size 4][data][type 4][locale 4][payload]
+		long size = s.be32(offset) & 0xFFFFFFFFL;
+		int  type = s.be32(offset+8) & 0xFFFFFF;
+		if(type != 1 || size < 16 || !claim_budget(tags, size-16)) // 1 = UTF-8
+			return null;
+
+		byte[] raw = new byte[(int)(size-16)];
+		s.read(offset+16, raw);
+		return new String(raw, "UTF-8");
+	}
+
+	/*
+	** Returns the atom type at 'offset'
+	*/
+	private String fourcc(WindowedReader s, long offset) throws IOException {
+		byte[] raw = new byte[4];
+		s.read(offset, raw);
+		return new String(raw, "ISO-8859-1");
+	}
+
+}
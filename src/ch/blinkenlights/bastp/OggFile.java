@@ -19,8 +19,6 @@ package ch.blinkenlights.bastp;
 
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
 
 
 public class OggFile extends Common {
@@ -28,26 +26,27 @@ public class OggFile extends Common {
 	private static final int OGG_PAGE_SIZE           = 27;  // Static size of an OGG Page
 	private static final int OGG_TYPE_IDENTIFICATION = 1;   // Identification header
 	private static final int OGG_TYPE_COMMENT        = 3;   // ID of 'VorbisComment's
+	private static final int OGG_TAIL_SIZE           = 65536; // Bytes searched for the last page, larger than any ogg page
+	private static final int OGG_MAX_PACKET_PAGES    = 256; // Pages followed by read_packet (~16MB)
+	private static final int OGG_FLAG_CONTINUED      = 1;   // header_type: page continues the previous packet
 	
 	public OggFile() {
 	}
 	
-	public HashMap getTags(RandomAccessFile s) throws IOException {
+	public void getTags(WindowedReader s, TagRecord tags) throws IOException {
 		long offset = 0;
 		int  retry  = 64;
-		boolean need_tags = true;
+		int  bitrate_nominal = 0;
+		boolean need_tags = tags.wants(TagRecord.FIELD_GAIN | TagRecord.FIELD_CORE | TagRecord.FIELD_OTHER | TagRecord.FIELD_PICTURE);
 		boolean need_id = true;
 
-		HashMap tags = new HashMap();
-		HashMap identification = new HashMap();
-		
 		for( ; retry > 0 ; retry-- ) {
 			long res[] = parse_ogg_page(s, offset);
 			if(res[2] == OGG_TYPE_IDENTIFICATION) {
-				identification = parse_ogg_vorbis_identification(s, offset+res[0], res[1]);
+				bitrate_nominal = parse_ogg_vorbis_identification(s, offset+res[0], res[1], tags);
 				need_id = false;
 			} else if(res[2] == OGG_TYPE_COMMENT) {
-				tags = parse_ogg_vorbis_comment(s, offset+res[0], res[1]);
+				parse_ogg_vorbis_comment(read_packet(s, offset), tags);
 				need_tags = false;
 			}
 			offset += res[0] + res[1];
@@ -56,88 +55,142 @@ public class OggFile extends Common {
 			}
 		}
 
-		// Calculate duration in seconds
-		// Note that this calculation is WRONG: We would have to get the last
-		// packet to calculate the real length - but this is goot enough.
-		if (identification.containsKey("bitrate_nominal")) {
-			int br_nom = (Integer)identification.get("bitrate_nominal") / 8;
+		if (!tags.wants(TagRecord.FIELD_DURATION))
+			return;
+
+		if (tags.sampleRate > 0) {
+			// The granule position of the last page is the total number of samples
+			long granule = get_last_granule(s);
+			if (granule > 0) {
+				tags.duration = granule * 1000 / tags.sampleRate;
+			}
+		}
+
+		if (tags.duration == TagRecord.UNSET) {
+			// No usable last page: Estimate the duration using the nominal bitrate
+			int br_nom = bitrate_nominal / 8;
 			long file_length = s.length();
 			if (file_length > 0 && br_nom > 0) {
-				tags.put("duration", (int)(file_length/br_nom));
+				tags.duration = file_length * 1000 / br_nom;
 			}
 		}
-
-		return tags;
+	}
+	
+	/* Returns the granule position of the last page belonging to the
+	** same logical stream as the first page, -1 if there is none.
+	** Only the last OGG_TAIL_SIZE bytes of the file are read
+	*/
+	protected long get_last_granule(WindowedReader s) throws IOException {
+		int serial = s.le32(14);
+		int tlen   = (int)Math.min(s.length(), OGG_TAIL_SIZE);
+		byte[] tail = new byte[tlen];
+		tlen = s.readDirect(s.length()-tlen, tail, 0, tlen);
+		
+		for(int i = tlen-OGG_PAGE_SIZE; i >= 0; i--) {
+			if(tail[i] == 'O' && tail[i+1] == 'g' && tail[i+2] == 'g' && tail[i+3] == 'S' && tail[i+4] == 0
+			   && b2le32(tail, i+14) == serial) {
+				long granule = (b2le32(tail, i+6) & 0xFFFFFFFFL) | ((long)b2le32(tail, i+10) << 32);
+				if(granule != -1) // -1: no packet finishes on this page
+					return granule;
+			}
+		}
+		return -1;
 	}
 	
 	
 	/* Parses the ogg page at offset 'offset' and returns
 	** [header_size, payload_size, type]
+	** The type is -1 if the page does not start with a new packet
 	*/
-	protected long[] parse_ogg_page(RandomAccessFile s, long offset) throws IOException {
+	protected long[] parse_ogg_page(WindowedReader s, long offset) throws IOException {
 		long[] result   = new long[3];               // [header_size, payload_size]
-		byte[] p_header = new byte[OGG_PAGE_SIZE];   // buffer for the page header 
-		byte[] scratch;
-		int bread       = 0;                         // number of bytes read
 		int psize       = 0;                         // payload-size
 		int nsegs       = 0;                         // Number of segments
 		
-		s.seek(offset);
-		bread = s.read(p_header);
-		if(bread != OGG_PAGE_SIZE)
+		if(offset+OGG_PAGE_SIZE > s.length())
 			xdie("Unable to read() OGG_PAGE_HEADER");
-		if((new String(p_header, 0, 5)).equals("OggS\0") != true)
+		if(s.matches(offset, "OggS\0") != true)
 			xdie("Invalid magic - not an ogg file?");
 		
-		nsegs = b2u(p_header[26]); 
+		nsegs = s.u8(offset+26);
 		// debug("> file seg: "+nsegs);
 		if(nsegs > 0) {
-			scratch  = new byte[nsegs];
-			bread    = s.read(scratch); 
-			if(bread != nsegs)
+			if(offset+OGG_PAGE_SIZE+nsegs > s.length())
 				xdie("Failed to read segtable");
 			
 			for(int i=0; i<nsegs; i++) {
-				psize += b2u(scratch[i]); 
+				psize += s.u8(offset+OGG_PAGE_SIZE+i);
 			}
 		}
 		
 		// populate result array
-		result[0] = (s.getFilePointer() - offset);
+		result[0] = OGG_PAGE_SIZE + nsegs;
 		result[1] = psize;
 		result[2] = -1;
 		
 		/* next byte is most likely the type -> pre-read */
-		if(psize >= 1 && s.read(p_header, 0, 1) == 1) {
-			result[2] = b2u(p_header[0]);
+		if(psize >= 1 && offset+result[0] < s.length() && (s.u8(offset+5) & OGG_FLAG_CONTINUED) == 0) {
+			result[2] = s.u8(offset+result[0]);
 		}
 		
 		return result;
 	}
 	
+	/* Returns the packet starting on the page at 'offset'. Packets
+	** may be larger than a single page: the segment tables are
+	** followed over the continuation pages of the same stream until
+	** a segment shorter than 255 bytes terminates the packet.
+	** Packets with more than OGG_MAX_PACKET_PAGES pages are truncated
+	*/
+	protected PacketReader read_packet(WindowedReader s, long offset) throws IOException {
+		PacketReader packet = new PacketReader(s);
+		int serial = s.le32(offset+14);
+
+		for(int pages = 0; pages < OGG_MAX_PACKET_PAGES; ) {
+			long res[] = parse_ogg_page(s, offset);
+			if(s.le32(offset+14) == serial) {
+				if(pages > 0 && (s.u8(offset+5) & OGG_FLAG_CONTINUED) == 0)
+					xdie("Unterminated ogg packet");
+
+				int nsegs = (int)res[0] - OGG_PAGE_SIZE;
+				long plen = 0;
+				boolean done = false;
+				for(int i=0; i<nsegs && !done; i++) {
+					int lacing = s.u8(offset+OGG_PAGE_SIZE+i);
+					plen += lacing;
+					done = (lacing < 255);
+				}
+				packet.add(offset+res[0], plen);
+				pages++;
+				if(done)
+					break;
+			}
+			// else: page of another (multiplexed) stream
+			offset += res[0] + res[1];
+		}
+		return packet;
+	}
+
 	/* In 'vorbiscomment' field is prefixed with \3vorbis in OGG files
 	** we check that this marker is present and call the generic comment
 	** parset with the correct offset (+7) */
-	private HashMap parse_ogg_vorbis_comment(RandomAccessFile s, long offset, long pl_len) throws IOException {
+	private void parse_ogg_vorbis_comment(PacketReader packet, TagRecord tags) throws IOException {
 		final int pfx_len = 7;
-		byte[] pfx        = new byte[pfx_len];
 		
-		if(pl_len < pfx_len)
+		if(packet.length() < pfx_len)
 			xdie("ogg vorbis comment field is too short!");
 		
-		s.seek(offset);
-		s.read(pfx);
-		
-		if( (new String(pfx, 0, pfx_len)).equals("\3vorbis") == false )
+		if( packet.matches(0, "\3vorbis") == false )
 			xdie("Damaged packet found!");
 		
-		return parse_vorbis_comment(s, offset+pfx_len, pl_len-pfx_len);
+		parse_vorbis_comment(packet, pfx_len, tags);
 	}
 
 	/*
-	 ** Returns a hashma with parsed vorbis identification header data
+	 ** Copies the vorbis identification header data into 'tags'
+	 ** and returns the nominal bitrate of the stream
 	 **/
-	private HashMap parse_ogg_vorbis_identification(RandomAccessFile s, long offset, long pl_len) throws IOException {
+	private int parse_ogg_vorbis_identification(WindowedReader s, long offset, long pl_len, TagRecord tags) throws IOException {
 		/* Structure:
 		 * 7 bytes of \1vorbis
 		 * 4 bytes version
@@ -147,21 +200,15 @@ public class OggFile extends Common {
 		 * 4 bytes bitrate nominal
 		 * 4 bytes bitrate min
 		 **/
-		HashMap id_hash = new HashMap();
-		byte[] buff = new byte[28];
-
-		if(pl_len >= buff.length) {
-			s.seek(offset);
-			s.read(buff);
-			id_hash.put("version"         , b2le32(buff, 7));
-			id_hash.put("channels"        , b2u(buff[11]));
-			id_hash.put("sampling_rate"   , b2le32(buff, 12));
-			id_hash.put("bitrate_minimal" , b2le32(buff, 16));
-			id_hash.put("bitrate_nominal" , b2le32(buff, 20));
-			id_hash.put("bitrate_maximal" , b2le32(buff, 24));
+		int bitrate_nominal = 0;
+
+		if(pl_len >= 28) {
+			tags.channels   = s.u8(offset+11);
+			tags.sampleRate = s.le32(offset+12);
+			bitrate_nominal = s.le32(offset+20);
 		}
 
-		return id_hash;
+		return bitrate_nominal;
 	}
 
 };
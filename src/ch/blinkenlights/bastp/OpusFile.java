@@ -18,18 +18,23 @@ package ch.blinkenlights.bastp;
 
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
 
 
 public class OpusFile extends OggFile {
-	// A list of tags we are going to ignore in the OpusTags section
-	public static final String[] FORBIDDEN_TAGS = {"REPLAYGAIN_TRACK_GAIN", "REPLAYGAIN_TRACK_PEAK", "REPLAYGAIN_ALBUM_GAIN", "REPLAYGAIN_ALBUM_PEAK"};
+	// Index of the values returned by parse_opus_head
+	private static final int HEAD_VERSION     = 0;
+	private static final int HEAD_CHANNELS    = 1;
+	private static final int HEAD_GAIN        = 2;
+	private static final int HEAD_PRESKIP     = 3;
 
 	public OpusFile() {
 	}
 
-	public HashMap getTags(RandomAccessFile s) throws IOException {
+	/**
+	 * Parses the Opus headers into 'tags'.
+	 * The record is left untouched if this is not an Opus stream
+	 */
+	public void getTags(WindowedReader s, TagRecord tags) throws IOException {
 
 		// The opus specification is very strict: The first packet MUST
 		// contain the OpusHeader while the 2nd MUST contain the
@@ -37,43 +42,50 @@ public class OpusFile extends OggFile {
 		long pos = 0;
 		long offsets[] = parse_ogg_page(s, pos);
 
-		HashMap tags = new HashMap();
-		HashMap opus_head = parse_opus_head(s, pos+offsets[0], offsets[1]);
+		int[] opus_head = parse_opus_head(s, pos+offsets[0], offsets[1]);
 		pos += offsets[0]+offsets[1];
 
 		// Check if we parsed a version number and ensure it doesn't have any
 		// of the upper 4 bits set (eg: <= 15)
-		if(opus_head.containsKey("version") && (Integer)opus_head.get("version") <= 0xF) {
+		if(opus_head != null && opus_head[HEAD_VERSION] <= 0xF) {
 			// Get next page: The spec requires this to be an OpusTags head
-			offsets = parse_ogg_page(s, pos);
-			tags = parse_opus_vorbis_comment(s, pos+offsets[0], offsets[1]);
+			if(tags.wants(TagRecord.FIELD_GAIN | TagRecord.FIELD_CORE | TagRecord.FIELD_OTHER | TagRecord.FIELD_PICTURE)) {
+				parse_opus_vorbis_comment(read_packet(s, pos), tags);
+			}
+			tags.channels   = opus_head[HEAD_CHANNELS];
+			tags.sampleRate = 48000; // opus is always decoded at 48kHz
 			// ...and merge replay gain intos into the tags map
-			calculate_gain(opus_head, tags);
-		}
+			calculate_gain(opus_head[HEAD_GAIN], tags);
 
-		return tags;
+			if(tags.wants(TagRecord.FIELD_DURATION)) {
+				// granule positions include the pre-skip samples
+				long granule = get_last_granule(s) - opus_head[HEAD_PRESKIP];
+				if(granule > 0)
+					tags.duration = granule * 1000 / 48000;
+			}
+		}
 	}
 
 	/**
-	 * Adds replay gain information to the tags hash map
+	 * Adds replay gain information to the tag record
 	 */
-	private void calculate_gain(HashMap header, HashMap tags) {
-		// Remove any unacceptable tags (Opus files must not have
+	private void calculate_gain(int header_gain, TagRecord tags) {
+		// Drop any unacceptable tags (Opus files must not have
 		// their own REPLAYGAIN_* fields)
-		for(String k : FORBIDDEN_TAGS) {
-			tags.remove(k);
-		}
+		tags.trackGain = Float.NaN;
+		tags.albumGain = Float.NaN;
+		tags.trackPeak = Float.NaN;
+		tags.albumPeak = Float.NaN;
 		// Include the gain value found in the opus header
-		int header_gain = (Integer)header.get("header_gain");
-		addTagEntry(tags, "R128_BASTP_BASE_GAIN", ""+header_gain);
+		tags.r128BaseGain = header_gain;
 	}
 
 
 	/**
 	 * Attempts to parse an OpusHead block at given offset.
-	 * Returns an hash-map, will be empty on failure
+	 * Returns [version, channels, header_gain, pre_skip] or null on failure
 	 */
-	private HashMap parse_opus_head(RandomAccessFile s, long offset, long pl_len) throws IOException {
+	private int[] parse_opus_head(WindowedReader s, long offset, long pl_len) throws IOException {
 		/* Structure:
 		 * 8 bytes of 'OpusHead'
 		 * 1 byte  version
@@ -85,43 +97,35 @@ public class OpusFile extends OggFile {
 		 * --> 19 bytes
 		 */
 
-		HashMap id_hash = new HashMap();
-		byte[] buff = new byte[19];
-		if(pl_len >= buff.length) {
-			s.seek(offset);
-			s.read(buff);
-			if((new String(buff, 0, 8)).equals("OpusHead")) {
-				id_hash.put("version"      , b2u(buff[8]));
-				id_hash.put("channels"     , b2u(buff[9]));
-				id_hash.put("pre_skip"     , b2le16(buff, 10));
-				id_hash.put("sampling_rate", b2le32(buff, 12));
-				id_hash.put("header_gain"  , (int)((short)b2le16(buff, 16)));
-				id_hash.put("channel_map"  , b2u(buff[18]));
+		int[] head = null;
+		if(pl_len >= 19) {
+			if(s.matches(offset, "OpusHead")) {
+				head = new int[4];
+				head[HEAD_VERSION]  = s.u8(offset+8);
+				head[HEAD_CHANNELS] = s.u8(offset+9);
+				head[HEAD_PRESKIP]  = s.le16(offset+10);
+				head[HEAD_GAIN]     = (int)((short)s.le16(offset+16));
 			}
 		}
 
-		return id_hash;
+		return head;
 	}
 
 	/**
 	 * Parses an OpusTags section
-	 * Returns a hash map of the found tags
+	 * and stores the found tags in 'tags'
 	 */
-	private HashMap parse_opus_vorbis_comment(RandomAccessFile s, long offset, long pl_len) throws IOException {
+	private void parse_opus_vorbis_comment(PacketReader packet, TagRecord tags) throws IOException {
 		final int magic_len = 8; // OpusTags
-		byte[] magic = new byte[magic_len];
 
-		if(pl_len < magic_len)
+		if(packet.length() < magic_len)
 			xdie("opus comment field is too short!");
 
-		// Read and check magic signature
-		s.seek(offset);
-		s.read(magic);
-
-		if((new String(magic, 0, magic_len)).equals("OpusTags") == false)
+		// Check magic signature
+		if(packet.matches(0, "OpusTags") == false)
 			xdie("Damaged packet found!");
 
-		return parse_vorbis_comment(s, offset+magic_len, pl_len-magic_len);
+		parse_vorbis_comment(packet, magic_len, tags);
 	}
 
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.bastp;
+
+import java.io.IOException;
+
+
+/*
+** Random access to data which is split over several regions of
+** a file, such as an ogg packet spanning multiple pages.
+**
+** Positions are relative to the start of the data, reads which
+** cross a region boundary are stitched together transparently.
+*/
+public class PacketReader {
+	private final WindowedReader s;
+	private long[] regions = new long[12]; // [file_offset, length, position] triplets
+	private int count;                     // number of used longs in 'regions'
+	private long length;                  // sum of all region lengths
+
+	public PacketReader(WindowedReader s) {
+		this.s = s;
+	}
+
+	/*
+	** Appends 'len' bytes at file offset 'file_offset'
+	*/
+	public void add(long file_offset, long len) {
+		if (len <= 0)
+			return;
+		if (count == regions.length) {
+			long[] grown = new long[count*2];
+			System.arraycopy(regions, 0, grown, 0, count);
+			regions = grown;
+		}
+		regions[count++] = file_offset;
+		regions[count++] = len;
+		regions[count++] = length;
+		length += len;
+	}
+
+	/*
+	** Returns the total length of the data
+	*/
+	public long length() {
+		return length;
+	}
+
+	/*
+	** Returns the file offset of 'pos'
+	*/
+	public long offset(long pos) throws IOException {
+		int i = find(pos);
+		return regions[i] + (pos - regions[i+2]);
+	}
+
+	/*
+	** Returns the number of bytes at 'pos' which are stored
+	** contiguously in the file
+	*/
+	public long contiguous(long pos) throws IOException {
+		int i = find(pos);
+		return regions[i+1] - (pos - regions[i+2]);
+	}
+
+	/*
+	** Returns the file regions of the 'len' bytes at 'pos'
+	** as [file_offset, length] pairs
+	*/
+	public long[] regions(long pos, long len) throws IOException {
+		if (len <= 0 || pos+len > length)
+			throw new IOException("region out of bounds at "+pos+" (len="+len+")");
+
+		int first = find(pos);
+		int last = find(pos+len-1);
+		long[] result = new long[(last-first)/3*2 + 2];
+		for (int i=first, j=0; i<=last; i+=3, j+=2) {
+			long start = Math.max(pos, regions[i+2]);
+			long end = Math.min(pos+len, regions[i+2]+regions[i+1]);
+			result[j] = regions[i] + (start - regions[i+2]);
+			result[j+1] = end - start;
+		}
+		return result;
+	}
+
+	/*
+	** Returns the unsigned byte at 'pos'
+	*/
+	public int u8(long pos) throws IOException {
+		return s.u8(offset(pos));
+	}
+
+	/*
+	** Returns a 32bit int at 'pos' in LE
+	*/
+	public int le32(long pos) throws IOException {
+		if (contiguous(pos) >= 4)
+			return s.le32(offset(pos));
+		return u8(pos) | u8(pos+1) << 8 | u8(pos+2) << 16 | u8(pos+3) << 24;
+	}
+
+	/*
+	** Returns true if the bytes at 'pos' match the
+	** (ascii) string 'magic'
+	*/
+	public boolean matches(long pos, String magic) throws IOException {
+		int len = magic.length();
+		if (pos < 0 || pos+len > length)
+			return false;
+		for (int i=0; i<len; i++) {
+			if (u8(pos+i) != magic.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	** Copies up to 'len' bytes at 'pos' into 'dst'
+	** Returns the number of copied bytes, which may be less
+	** than requested if the data is too short
+	*/
+	public int read(long pos, byte[] dst, int off, int len) throws IOException {
+		int done = 0;
+		while (done < len && pos+done < length) {
+			int chunk = (int)Math.min(len - done, contiguous(pos+done));
+			int r = s.read(offset(pos+done), dst, off+done, chunk);
+			if (r <= 0)
+				break;
+			done += r;
+		}
+		return done;
+	}
+
+	/*
+	** Returns the index of the region holding 'pos'
+	*/
+	private int find(long pos) throws IOException {
+		if (pos < 0 || pos >= length)
+			throw new IOException("read out of bounds at "+pos+" (len="+length+")");
+
+		int lo = 0;
+		int hi = count/3 - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (regions[mid*3+2] <= pos)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo*3;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.bastp;
+
+import java.io.IOException;
+
+
+/*
+** Chunk walker for RIFF (WAV, little endian) and
+** IFF (AIFF/AIFC, big endian) files.
+**
+** Both formats use [id 4][size 4][payload, padded to an even size]
+** chunks after a 12 byte file header. Audio data is skipped by its size.
+*/
+public class RiffFile extends Common {
+	private static final int MAX_CHUNKS = 64;
+
+	/* RIFF INFO (WAV) and IFF text chunks with their vorbis-style key */
+	private static final String[] TEXT_CHUNKS = { "INAM", "IART", "IPRD", "NAME", "AUTH" };
+	private static final String[] TEXT_KEYS   = { "TITLE", "ARTIST", "ALBUM", "TITLE", "ARTIST" };
+
+	private final boolean big_endian;
+
+	/*
+	** Creates a parser for AIFF files if 'aiff' is true,
+	** for WAV files otherwise
+	*/
+	public RiffFile(boolean aiff) {
+		big_endian = aiff;
+	}
+
+	public void getTags(WindowedReader s, TagRecord tags) throws IOException {
+		long end = Math.min(s.length(), 8 + (get32(s, 4) & 0xFFFFFFFFL));
+		parse_chunks(s, 12, end, tags);
+	}
+
+	/* Parses all chunks in [offset, end)
+	*/
+	private void parse_chunks(WindowedReader s, long offset, long end, TagRecord tags) throws IOException {
+		long pos = offset;
+		int byte_rate = 0;
+
+		for(int retry = MAX_CHUNKS; retry > 0 && pos+8 <= end; retry--) {
+			String id  = fourcc(s, pos);
+			long len   = get32(s, pos+4) & 0xFFFFFFFFL;
+			long body  = pos+8;
+
+			if(id.equals("fmt ") && len >= 16) {
+				// [format 2][channels 2][sample rate 4][byte rate 4][block align 2][bits per sample 2]
+				tags.channels   = s.le16(body+2);
+				tags.sampleRate = s.le32(body+4);
+				byte_rate       = s.le32(body+8);
+			} else if(id.equals("data") && byte_rate > 0) {
+				// the data chunk follows fmt: its size gives us the duration
+				tags.duration = Math.min(len, end-body) * 1000 / byte_rate;
+			} else if(id.equals("COMM") && len >= 18) {
+				// [channels 2][sample frames 4][sample size 2][sample rate 80 bit float]
+				tags.channels   = s.be32(body) >>> 16;
+				long frames     = s.be32(body+2) & 0xFFFFFFFFL;
+				tags.sampleRate = parse_extended(s, body+8);
+				if(tags.sampleRate > 0)
+					tags.duration = frames * 1000 / tags.sampleRate;
+			} else if(id.equals("LIST") && len >= 4 && s.matches(body, "INFO")) {
+				parse_chunks(s, body+4, body+len, tags);
+			} else if(id.equalsIgnoreCase("id3 ")) {
+				(new ID3v2File()).getTags(s, body, tags);
+			} else {
+				parse_text_chunk(s, id, body, len, tags);
+			}
+
+			pos = body + len + (len & 1); // chunks are padded to an even size
+		}
+	}
+
+	/*
+	** Adds the value of well known text chunks
+	*/
+	private void parse_text_chunk(WindowedReader s, String id, long offset, long len, TagRecord tags) throws IOException {
+		for(int i=0; i<TEXT_CHUNKS.length; i++) {
+			if(TEXT_CHUNKS[i].equals(id)) {
+				if(tags.wants(TagRecord.FIELD_CORE) && len > 0 && !tags.contains(TEXT_KEYS[i]) && claim_budget(tags, len)) {
+					byte[] raw = new byte[(int)len];
+					int rlen = s.read(offset, raw);
+					while(rlen > 0 && raw[rlen-1] == 0)
+						rlen--; // strip trailing NULs
+					addTagEntry(tags, TEXT_KEYS[i], new String(raw, 0, rlen, "ISO-8859-1"));
+				}
+				break;
+			}
+		}
+	}
+
+	/*
+	** Converts the 80 bit IEEE 754 extended float at 'offset',
+	** as used by AIFF to store the sample rate, into an int
+	*/
+	private int parse_extended(WindowedReader s, long offset) throws IOException {
+		int  exponent = (s.be32(offset) >>> 16) & 0x7FFF;
+		long mantissa = ((long)(s.be32(offset+2)) << 32) | (s.be32(offset+6) & 0xFFFFFFFFL);
+		int  shift    = 16383 + 63 - exponent;
+		if(shift < 0 || shift > 63)
+			return 0;
+		return (int)(mantissa >>> shift);
+	}
+
+	private int get32(WindowedReader s, long offset) throws IOException {
+		return (big_endian ? s.be32(offset) : s.le32(offset));
+	}
+
+	/*
+	** Returns the chunk id at 'offset'
+	*/
+	private String fourcc(WindowedReader s, long offset) throws IOException {
+		byte[] raw = new byte[4];
+		s.read(offset, raw);
+		return new String(raw, "ISO-8859-1");
+	}
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.bastp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/*
+** Typed result of a Bastp parse run.
+**
+** Well known numeric values are kept in primitive fields and filled by the
+** parsers directly, everything else ends up in a small multi-value map
+** using uppercase vorbis-style keys.
+*/
+public class TagRecord {
+	/* value of unset integer fields */
+	public static final int UNSET = Integer.MIN_VALUE;
+
+	/* Field groups a parse run can be restricted to */
+	public static final int FIELD_GAIN     = 1 << 0; // replaygain and r128 values
+	public static final int FIELD_DURATION = 1 << 1; // duration, sample rate and channels
+	public static final int FIELD_CORE     = 1 << 2; // title, artist and album
+	public static final int FIELD_OTHER    = 1 << 3; // any other free-form tag
+	public static final int FIELD_PICTURE  = 1 << 4; // location of embedded cover art
+	public static final int FIELD_ALL      = FIELD_GAIN | FIELD_DURATION | FIELD_CORE | FIELD_OTHER | FIELD_PICTURE;
+
+	/* ID3v2 / FLAC picture type of front covers */
+	public static final int PICTURE_FRONT_COVER = 3;
+
+	/* the field groups requested by the caller */
+	public final int fields;
+
+	/* container type, eg. 'FLAC', 'OGG', 'MP3/ID3v2' */
+	public String type;
+	/* duration in milliseconds */
+	public long duration = UNSET;
+	public int sampleRate = UNSET;
+	public int channels = UNSET;
+	/* ReplayGain values in dB, NaN if not present */
+	public float trackGain = Float.NaN;
+	public float albumGain = Float.NaN;
+	public float trackPeak = Float.NaN;
+	public float albumPeak = Float.NaN;
+	/* Raw Q7.8 values of R128 (Opus) gains */
+	public int r128BaseGain = UNSET;
+	public int r128TrackGain = UNSET;
+	public int r128AlbumGain = UNSET;
+	/* Location of the embedded picture, the data is not copied */
+	public long pictureOffset = UNSET;
+	public long pictureLength = UNSET;
+	public int pictureType = UNSET;
+	/* true if the region holds a base64 encoded FLAC picture
+	** block (METADATA_BLOCK_PICTURE) instead of the raw image */
+	public boolean pictureBase64;
+	/* [offset, length] pairs of a picture which is split over several
+	** regions (ogg pages), null if it is stored contiguously.
+	** pictureOffset is the start of the first region and
+	** pictureLength the total length in this case */
+	public long[] pictureRegions;
+	/* Fields (and their total size) which were not read
+	** because they exceeded the safety caps of the parser */
+	public int skippedFields;
+	public long skippedBytes;
+	/* bytes read into field values so far, see Common.claim_budget */
+	int allocated;
+
+	private String[] keys = new String[8];
+	private String[] values = new String[8];
+	private int count;
+
+	public TagRecord() {
+		this(FIELD_ALL);
+	}
+
+	public TagRecord(int fields) {
+		this.fields = fields;
+	}
+
+	/*
+	** Returns true if any of the field groups in 'mask'
+	** was requested, parsers skip everything else
+	*/
+	public boolean wants(int mask) {
+		return (fields & mask) != 0;
+	}
+
+	/*
+	** Adds 'value' to the list of values of 'key'
+	*/
+	public void add(String key, String value) {
+		if (count == keys.length) {
+			keys = Arrays.copyOf(keys, count * 2);
+			values = Arrays.copyOf(values, count * 2);
+		}
+		keys[count] = key;
+		values[count] = value;
+		count++;
+	}
+
+	/*
+	** Returns true if at least one value of 'key' exists
+	*/
+	public boolean contains(String key) {
+		return indexOf(key, 0) != -1;
+	}
+
+	/*
+	** Returns the first value of 'key' or null
+	*/
+	public String get(String key) {
+		int i = indexOf(key, 0);
+		return i == -1 ? null : values[i];
+	}
+
+	/*
+	** Returns all values of 'key' in insertion order
+	*/
+	public ArrayList<String> getAll(String key) {
+		ArrayList<String> result = new ArrayList<String>(1);
+		for (int i = indexOf(key, 0); i != -1; i = indexOf(key, i+1)) {
+			result.add(values[i]);
+		}
+		return result;
+	}
+
+	/*
+	** Drops all values of 'key'
+	*/
+	public void remove(String key) {
+		int j = 0;
+		for (int i = 0; i < count; i++) {
+			if (!keys[i].equals(key)) {
+				keys[j] = keys[i];
+				values[j] = values[i];
+				j++;
+			}
+		}
+		Arrays.fill(keys, j, count, null);
+		Arrays.fill(values, j, count, null);
+		count = j;
+	}
+
+	/*
+	** Returns the number of free-form values
+	*/
+	public int size() {
+		return count;
+	}
+
+	public String keyAt(int i) {
+		return keys[i];
+	}
+
+	public String valueAt(int i) {
+		return values[i];
+	}
+
+	private int indexOf(String key, int start) {
+		for (int i = start; i < count; i++) {
+			if (keys[i].equals(key))
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("type=").append(type)
+		  .append(", duration=").append(duration)
+		  .append(", sampleRate=").append(sampleRate)
+		  .append(", channels=").append(channels)
+		  .append(", trackGain=").append(trackGain)
+		  .append(", albumGain=").append(albumGain)
+		  .append(", trackPeak=").append(trackPeak)
+		  .append(", albumPeak=").append(albumPeak)
+		  .append(", r128=").append(r128BaseGain).append('/').append(r128TrackGain).append('/').append(r128AlbumGain)
+		  .append(", picture=").append(pictureOffset).append('+').append(pictureLength).append(pictureBase64 ? "/base64" : "");
+		if (skippedFields != 0) {
+			sb.append(", skipped=").append(skippedFields).append('/').append(skippedBytes);
+		}
+		for (int i = 0; i < count; i++) {
+			sb.append(", ").append(keys[i]).append('=').append(values[i]);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ch.blinkenlights.bastp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/*
+** Positional reader used by all bastp parsers.
+**
+** The head of the file is pulled into a single, reusable ByteBuffer
+** using one FileChannel read. All accessors decode straight from this
+** window, the file is only touched again if a request falls outside
+** of the current window, in which case the window is moved.
+*/
+public class WindowedReader {
+	public static final int DEFAULT_WINDOW_SIZE = 65536;
+
+	private final ByteBuffer window;
+	private FileChannel channel;
+	private long window_start; // file offset of window[0]
+	private int window_len;    // number of valid bytes in window
+	private long file_len;
+
+	public WindowedReader() {
+		this(DEFAULT_WINDOW_SIZE);
+	}
+
+	public WindowedReader(int size) {
+		window = ByteBuffer.allocate(size);
+	}
+
+	/*
+	** Attaches this reader to given channel and fills
+	** the window with the head of the file
+	*/
+	public void open(FileChannel fc) throws IOException {
+		channel  = fc;
+		file_len = fc.size();
+		fill(0);
+	}
+
+	/*
+	** Detaches the reader from its channel, the buffer
+	** itself is kept for the next open() call
+	*/
+	public void close() {
+		channel      = null;
+		window_start = 0;
+		window_len   = 0;
+	}
+
+	/*
+	** Returns the length of the attached file
+	*/
+	public long length() {
+		return file_len;
+	}
+
+	/*
+	** Returns the unsigned byte at 'pos'
+	*/
+	public int u8(long pos) throws IOException {
+		return window.get(locate(pos, 1)) & 0xFF;
+	}
+
+	/*
+	** Returns a 16bit int at 'pos' in LE
+	*/
+	public int le16(long pos) throws IOException {
+		int i = locate(pos, 2);
+		return (window.get(i) & 0xFF) | (window.get(i+1) & 0xFF) << 8;
+	}
+
+	/*
+	** Returns a 32bit int at 'pos' in LE
+	*/
+	public int le32(long pos) throws IOException {
+		int i = locate(pos, 4);
+		return (window.get(i) & 0xFF) | (window.get(i+1) & 0xFF) << 8 | (window.get(i+2) & 0xFF) << 16 | (window.get(i+3) & 0xFF) << 24;
+	}
+
+	/*
+	** Returns a 32bit int at 'pos' in BE
+	*/
+	public int be32(long pos) throws IOException {
+		int i = locate(pos, 4);
+		return (window.get(i) & 0xFF) << 24 | (window.get(i+1) & 0xFF) << 16 | (window.get(i+2) & 0xFF) << 8 | (window.get(i+3) & 0xFF);
+	}
+
+	/*
+	** Returns true if the bytes at 'pos' match the
+	** (ascii) string 'magic'
+	*/
+	public boolean matches(long pos, String magic) throws IOException {
+		int len = magic.length();
+		if (pos < 0 || pos+len > file_len)
+			return false;
+
+		int i = locate(pos, len);
+		for (int j=0; j<len; j++) {
+			if (window.get(i+j) != (byte)magic.charAt(j))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	** Copies up to 'len' bytes at 'pos' into 'dst'
+	** Returns the number of copied bytes, which may be less
+	** than requested if the file is too short
+	*/
+	public int read(long pos, byte[] dst, int off, int len) throws IOException {
+		if (pos >= file_len)
+			return 0;
+		if (pos+len > file_len)
+			len = (int)(file_len - pos);
+
+		if (len > window.capacity()) {
+			// does not fit into our window at all: read it directly
+			return readDirect(pos, dst, off, len);
+		}
+
+		int i = locate(pos, len);
+		for (int j=0; j<len; j++) {
+			dst[off+j] = window.get(i+j);
+		}
+		return len;
+	}
+
+	public int read(long pos, byte[] dst) throws IOException {
+		return read(pos, dst, 0, dst.length);
+	}
+
+	/*
+	** Like read() but never moves the window: data not covered
+	** by the current window is read straight from the channel,
+	** so exactly 'len' bytes of I/O are done at most.
+	** Used by probes which look at many small, scattered regions
+	*/
+	public int readDirect(long pos, byte[] dst, int off, int len) throws IOException {
+		if (pos >= file_len)
+			return 0;
+		if (pos+len > file_len)
+			len = (int)(file_len - pos);
+
+		if (pos >= window_start && pos+len <= window_start+window_len) {
+			int i = (int)(pos - window_start);
+			for (int j=0; j<len; j++) {
+				dst[off+j] = window.get(i+j);
+			}
+			return len;
+		}
+
+		ByteBuffer bb = ByteBuffer.wrap(dst, off, len);
+		int bread = 0;
+		while (bb.hasRemaining()) {
+			int r = channel.read(bb, pos+bread);
+			if (r <= 0)
+				break;
+			bread += r;
+		}
+		return bread;
+	}
+
+	/*
+	** Returns the window index of 'pos', moves the window if
+	** [pos, pos+len) is not fully covered by the current one
+	*/
+	private int locate(long pos, int len) throws IOException {
+		if (pos >= window_start && pos+len <= window_start+window_len)
+			return (int)(pos - window_start);
+
+		if (pos < 0 || len > window.capacity() || pos+len > file_len)
+			throw new IOException("read out of bounds at "+pos+" (len="+len+")");
+
+		fill(pos);
+		if (len > window_len)
+			throw new IOException("short read at "+pos);
+		return 0;
+	}
+
+	/*
+	** (Re-)fills the window with data starting at 'pos'
+	*/
+	private void fill(long pos) throws IOException {
+		window.clear();
+		window_start = pos;
+		window_len = 0;
+		while (window.hasRemaining()) {
+			int r = channel.read(window, pos+window_len);
+			if (r <= 0)
+				break;
+			window_len += r;
+		}
+	}
+
+}